@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.FillRule;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+
+/**
+ * Paints on the graphics context of a canvas.
+ */
+final class CanvasPainter implements Painter {
+    private final GraphicsContext ctx;
+
+
+    // ******************** Constructors **************************************
+    CanvasPainter(final GraphicsContext CTX) {
+        ctx = CTX;
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public Font getFont() { return ctx.getFont(); }
+
+    @Override public void setFill(final Paint PAINT) { ctx.setFill(PAINT); }
+
+    @Override public void setStroke(final Paint PAINT) { ctx.setStroke(PAINT); }
+
+    @Override public void setGlobalAlpha(final double ALPHA) { ctx.setGlobalAlpha(ALPHA); }
+
+    @Override public void setLineWidth(final double WIDTH) { ctx.setLineWidth(WIDTH); }
+
+    @Override public void setLineCap(final StrokeLineCap CAP) { ctx.setLineCap(CAP); }
+
+    @Override public void setLineJoin(final StrokeLineJoin JOIN) { ctx.setLineJoin(JOIN); }
+
+    @Override public void setFillRule(final FillRule RULE) { ctx.setFillRule(RULE); }
+
+    @Override public void setTextAlign(final TextAlignment ALIGNMENT) { ctx.setTextAlign(ALIGNMENT); }
+
+    @Override public void save() { ctx.save(); }
+
+    @Override public void restore() { ctx.restore(); }
+
+    @Override public void fillRect(final double X, final double Y, final double WIDTH, final double HEIGHT) { ctx.fillRect(X, Y, WIDTH, HEIGHT); }
+
+    @Override public void fillText(final String TEXT, final double X, final double Y) { ctx.fillText(TEXT, X, Y); }
+
+    @Override public void beginPath() { ctx.beginPath(); }
+
+    @Override public void moveTo(final double X, final double Y) { ctx.moveTo(X, Y); }
+
+    @Override public void lineTo(final double X, final double Y) { ctx.lineTo(X, Y); }
+
+    @Override public void bezierCurveTo(final double CONTROL_X1, final double CONTROL_Y1, final double CONTROL_X2, final double CONTROL_Y2, final double X, final double Y) {
+        ctx.bezierCurveTo(CONTROL_X1, CONTROL_Y1, CONTROL_X2, CONTROL_Y2, X, Y);
+    }
+
+    @Override public void arcTo(final double X1, final double Y1, final double X2, final double Y2, final double RADIUS) { ctx.arcTo(X1, Y1, X2, Y2, RADIUS); }
+
+    @Override public void closePath() { ctx.closePath(); }
+
+    @Override public void fill() { ctx.fill(); }
+
+    @Override public void stroke() { ctx.stroke(); }
+}
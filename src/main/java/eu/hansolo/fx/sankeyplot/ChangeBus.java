@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.application.Platform;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Optional central change notification for a graph of PlotItems, an
+ * alternative to registering a listener on every item. Items that were
+ * added to the bus report their modifications to it, the modified items
+ * and flows are collected in primitive sets and delivered as one ChangeSet
+ * per flush, no matter how many changes happened in between. The first
+ * change after a flush schedules the next flush on the executor of the bus,
+ * the FX application thread by default.
+ * Listeners are held weakly, so a bus doesn't keep e.g. a disposed
+ * SankeyPlot alive. Keep a reference to a listener as long as it should be
+ * notified.
+ */
+public class ChangeBus {
+    private static final long                                     EMPTY          = -1L;
+    private static final int                                      INITIAL_FLOWS  = 64;
+    private        final Executor                                 executor;
+    private        final List<PlotItem>                           items;
+    private        final List<WeakReference<ChangeSetListener>>   listeners;
+    private        final BitSet                                   dirtyItems;
+    private              long[]                                   dirtyFlows;
+    private              int                                      noOfDirtyFlows;
+    private              boolean                                  flushScheduled;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Flushes on the FX application thread.
+     */
+    public ChangeBus() {
+        this(Platform::runLater);
+    }
+    /**
+     * Flushes on the given executor, use Runnable::run to deliver every change immediately.
+     */
+    public ChangeBus(final Executor EXECUTOR) {
+        if (null == EXECUTOR) { throw new IllegalArgumentException("Executor must not be null"); }
+        executor   = EXECUTOR;
+        items      = new ArrayList<>();
+        listeners  = new CopyOnWriteArrayList<>();
+        dirtyItems = new BitSet();
+        dirtyFlows = newFlowTable(INITIAL_FLOWS);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Reports the modifications of the given items to this bus from now on.
+     * An item can only be part of one bus at a time.
+     */
+    public synchronized void add(final PlotItem... ITEMS) {
+        for (PlotItem item : ITEMS) {
+            if (null == item) { throw new IllegalArgumentException("Item must not be null"); }
+            if (this == item.changeBus) { continue; }
+            if (null != item.changeBus) { throw new IllegalArgumentException("Item " + item.getName() + " is already part of another change bus"); }
+            item.changeBus   = this;
+            item.changeBusId = items.size();
+            items.add(item);
+        }
+    }
+    public void add(final List<PlotItem> ITEMS) { add(ITEMS.toArray(new PlotItem[0])); }
+
+    /**
+     * Stops reporting the modifications of the given item, pending changes
+     * of the item are dropped.
+     */
+    public synchronized void remove(final PlotItem ITEM) {
+        if (null == ITEM || this != ITEM.changeBus) { return; }
+        items.set(ITEM.changeBusId, null);
+        dirtyItems.clear(ITEM.changeBusId);
+        ITEM.changeBus   = null;
+        ITEM.changeBusId = -1;
+    }
+
+    public synchronized boolean contains(final PlotItem ITEM) { return null != ITEM && this == ITEM.changeBus; }
+
+    /**
+     * Registers the given listener weakly, see class comment.
+     */
+    public void addListener(final ChangeSetListener LISTENER) {
+        if (null == LISTENER) { throw new IllegalArgumentException("Listener must not be null"); }
+        for (WeakReference<ChangeSetListener> reference : listeners) {
+            if (LISTENER == reference.get()) { return; }
+        }
+        listeners.add(new WeakReference<>(LISTENER));
+    }
+    public void removeListener(final ChangeSetListener LISTENER) { listeners.removeIf(reference -> null == reference.get() || LISTENER == reference.get()); }
+
+    public synchronized boolean hasPendingChanges() { return !dirtyItems.isEmpty() || noOfDirtyFlows > 0; }
+
+    /**
+     * Delivers the changes since the last flush to the listeners on the
+     * calling thread. Does nothing if nothing changed.
+     */
+    public void flush() {
+        ChangeSet changes;
+        synchronized (this) {
+            flushScheduled = false;
+            if (dirtyItems.isEmpty() && 0 == noOfDirtyFlows) { return; }
+
+            PlotItem[] changedItems = new PlotItem[dirtyItems.cardinality()];
+            int        noOfItems    = 0;
+            for (int id = dirtyItems.nextSetBit(0) ; id >= 0 ; id = dirtyItems.nextSetBit(id + 1)) { changedItems[noOfItems++] = items.get(id); }
+
+            // Flows are sorted by source and target, flows of items that were removed in the meantime are dropped
+            long[] flows = new long[noOfDirtyFlows];
+            int    slot  = 0;
+            for (long flow : dirtyFlows) {
+                if (EMPTY != flow) { flows[slot++] = flow; }
+            }
+            Arrays.sort(flows);
+            PlotItem[] sources   = new PlotItem[flows.length];
+            PlotItem[] targets   = new PlotItem[flows.length];
+            int        noOfFlows = 0;
+            for (long flow : flows) {
+                PlotItem source = items.get((int) (flow >>> 32));
+                PlotItem target = items.get((int) flow);
+                if (null == source || null == target) { continue; }
+                sources[noOfFlows] = source;
+                targets[noOfFlows] = target;
+                noOfFlows++;
+            }
+            changes = new ChangeSet(changedItems, Arrays.copyOf(sources, noOfFlows), Arrays.copyOf(targets, noOfFlows));
+
+            dirtyItems.clear();
+            if (dirtyFlows.length > INITIAL_FLOWS * 16) {
+                dirtyFlows = newFlowTable(INITIAL_FLOWS);
+            } else if (noOfDirtyFlows > 0) {
+                Arrays.fill(dirtyFlows, EMPTY);
+            }
+            noOfDirtyFlows = 0;
+        }
+        for (WeakReference<ChangeSetListener> reference : listeners) {
+            ChangeSetListener listener = reference.get();
+            if (null == listener) {
+                listeners.remove(reference);
+            } else {
+                listener.onChanges(changes);
+            }
+        }
+    }
+
+    void itemChanged(final PlotItem ITEM) {
+        boolean schedule;
+        synchronized (this) {
+            if (this != ITEM.changeBus) { return; }
+            dirtyItems.set(ITEM.changeBusId);
+            schedule = scheduleFlush();
+        }
+        if (schedule) { executor.execute(this::flush); }
+    }
+
+    /**
+     * Flows to items that are not part of this bus are ignored.
+     */
+    void flowChanged(final PlotItem SOURCE, final PlotItem TARGET) {
+        boolean schedule;
+        synchronized (this) {
+            if (this != SOURCE.changeBus || this != TARGET.changeBus) { return; }
+            addFlow(((long) SOURCE.changeBusId << 32) | TARGET.changeBusId);
+            schedule = scheduleFlush();
+        }
+        if (schedule) { executor.execute(this::flush); }
+    }
+
+    private boolean scheduleFlush() {
+        if (flushScheduled) { return false; }
+        flushScheduled = true;
+        return true;
+    }
+
+    // Open addressing with linear probing, ids are never negative so -1 marks an empty slot
+    private void addFlow(final long FLOW) {
+        if ((noOfDirtyFlows + 1) * 2 > dirtyFlows.length) {
+            long[] oldFlows = dirtyFlows;
+            dirtyFlows     = newFlowTable(oldFlows.length * 2);
+            noOfDirtyFlows = 0;
+            for (long flow : oldFlows) {
+                if (EMPTY != flow) { addFlow(flow); }
+            }
+        }
+        int mask = dirtyFlows.length - 1;
+        int slot = (int) ((FLOW * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+        while (EMPTY != dirtyFlows[slot]) {
+            if (FLOW == dirtyFlows[slot]) { return; }
+            slot = (slot + 1) & mask;
+        }
+        dirtyFlows[slot] = FLOW;
+        noOfDirtyFlows++;
+    }
+
+    private static long[] newFlowTable(final int CAPACITY) {
+        long[] table = new long[CAPACITY];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
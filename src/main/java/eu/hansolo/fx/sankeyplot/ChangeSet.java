@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The items and flows that changed between two flushes of a ChangeBus.
+ * Every item and every flow is contained once, no matter how often it
+ * changed. Flows are identified by their source and target, they may have
+ * been added, removed or changed their value. Items and flows are ordered
+ * by the time their items were added to the bus.
+ */
+public final class ChangeSet {
+    private final List<PlotItem> items;
+    private final PlotItem[]     flowSources;
+    private final PlotItem[]     flowTargets;
+
+
+    // ******************** Constructors **************************************
+    ChangeSet(final PlotItem[] ITEMS, final PlotItem[] FLOW_SOURCES, final PlotItem[] FLOW_TARGETS) {
+        items       = Collections.unmodifiableList(Arrays.asList(ITEMS));
+        flowSources = FLOW_SOURCES;
+        flowTargets = FLOW_TARGETS;
+    }
+
+
+    // ******************** Methods *******************************************
+    public List<PlotItem> getItems() { return items; }
+
+    public int getNoOfFlows() { return flowSources.length; }
+
+    public PlotItem getFlowSource(final int FLOW) { return flowSources[FLOW]; }
+
+    public PlotItem getFlowTarget(final int FLOW) { return flowTargets[FLOW]; }
+
+    public boolean isEmpty() { return items.isEmpty() && 0 == flowSources.length; }
+
+    @Override public String toString() { return "ChangeSet[" + items.size() + " items, " + flowSources.length + " flows]"; }
+}
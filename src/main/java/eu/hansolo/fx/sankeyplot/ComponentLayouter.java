@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+
+/**
+ * Lays out every weakly connected component of a graph on its own and
+ * stacks the components from top to bottom, ordered by their first item.
+ * The components are levelled in parallel on the common ForkJoinPool.
+ * Levels and order of a component are kept until the next call, so a
+ * component whose items and edges didn't change is not levelled again,
+ * only its bounds are recomputed because all components share one scale.
+ * All methods are thread safe.
+ */
+final class ComponentLayouter {
+    private Map<PlotItem, Component> components;
+
+
+    // ******************** Constructors **************************************
+    ComponentLayouter() {
+        components = new IdentityHashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    synchronized SankeyLayout compute(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final Map<PlotItem, Integer> ORDER) {
+        long      start      = System.nanoTime();
+        final int NODES      = SNAPSHOT.getNoOfNodes();
+        int[]     component  = new int[NODES];
+        int[]     localIndex = new int[NODES];
+        int[]     queue      = new int[NODES];
+        int       count      = 0;
+
+        // Breadth first search along the edges in both directions
+        Arrays.fill(component, -1);
+        for (int root = 0 ; root < NODES ; root++) {
+            if (component[root] >= 0) { continue; }
+            int head = 0;
+            int tail = 0;
+            component[root] = count;
+            queue[tail++]   = root;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int edge = SNAPSHOT.getOutgoingStart(node) ; edge < SNAPSHOT.getOutgoingEnd(node) ; edge++) {
+                    int target = SNAPSHOT.getEdgeTarget(edge);
+                    if (component[target] < 0) {
+                        component[target] = count;
+                        queue[tail++]     = target;
+                    }
+                }
+                for (int position = SNAPSHOT.getIncomingStart(node) ; position < SNAPSHOT.getIncomingEnd(node) ; position++) {
+                    int source = SNAPSHOT.getEdgeSource(SNAPSHOT.getIncomingEdge(position));
+                    if (component[source] < 0) {
+                        component[source] = count;
+                        queue[tail++]     = source;
+                    }
+                }
+            }
+            count++;
+        }
+        if (count < 2) {
+            components.clear();
+            return SankeyLayout.compute(SNAPSHOT, SETTINGS, ORDER);
+        }
+
+        // Nodes per component in ascending order
+        final int COMPONENTS = count;
+        int[][]   nodes      = new int[COMPONENTS][];
+        int[]     sizes      = new int[COMPONENTS];
+        for (int node = 0 ; node < NODES ; node++) { sizes[component[node]]++; }
+        for (int c = 0 ; c < COMPONENTS ; c++) {
+            nodes[c] = new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int node = 0 ; node < NODES ; node++) {
+            int c = component[node];
+            localIndex[node]     = sizes[c];
+            nodes[c][sizes[c]++] = node;
+        }
+        final long COMPONENT_NANOS = System.nanoTime() - start;
+
+        final Map<PlotItem, Component> PREVIOUS  = components;
+        final GraphSnapshot[]          SUBGRAPHS = new GraphSnapshot[COMPONENTS];
+        final SankeyLayout.Builder[]   LEVELLED  = new SankeyLayout.Builder[COMPONENTS];
+        IntStream.range(0, COMPONENTS).parallel().forEach(c -> {
+            GraphSnapshot subgraph = SNAPSHOT.subgraph(nodes[c], localIndex);
+            Component     previous = PREVIOUS.get(subgraph.getItem(0));
+            SUBGRAPHS[c] = subgraph;
+            if (null != previous && previous.order == ORDER && previous.subgraph.hasSameEdges(subgraph)) {
+                // Unchanged, the copy doesn't count the time it took to level the component before
+                LEVELLED[c] = new SankeyLayout.Builder(previous.levelled, subgraph);
+            } else {
+                LEVELLED[c] = SankeyLayout.level(subgraph, ORDER);
+            }
+        });
+
+        components = new IdentityHashMap<>(COMPONENTS);
+        for (int c = 0 ; c < COMPONENTS ; c++) { components.put(SUBGRAPHS[c].getItem(0), new Component(SUBGRAPHS[c], ORDER, LEVELLED[c])); }
+
+        return SankeyLayout.stack(SNAPSHOT, SETTINGS, SUBGRAPHS, nodes, LEVELLED, COMPONENT_NANOS);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Component {
+        private final GraphSnapshot          subgraph;
+        private final Map<PlotItem, Integer> order;
+        private final SankeyLayout.Builder   levelled;
+
+
+        // ******************** Constructors **********************************
+        Component(final GraphSnapshot SUBGRAPH, final Map<PlotItem, Integer> ORDER, final SankeyLayout.Builder LEVELLED) {
+            subgraph = SUBGRAPH;
+            order    = ORDER;
+            levelled = LEVELLED;
+        }
+    }
+}
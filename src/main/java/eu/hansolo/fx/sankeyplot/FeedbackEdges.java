@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Arrays;
+
+
+/**
+ * Set of edges that breaks all cycles of a snapshot, found in O(N + E).
+ * The strongly connected components are found with an iterative version of
+ * Tarjan's algorithm. Every component is then searched depth first, starting
+ * at the node with the largest inflow from outside of the component, and
+ * every edge that leads back to a node on the current search path is a
+ * feedback edge. Without the feedback edges the graph is acyclic, so the
+ * returning flows of a cycle are the ones that end up as backward links.
+ * Immutable.
+ */
+final class FeedbackEdges {
+    static  final FeedbackEdges NONE = new FeedbackEdges(new long[0], 0, 0);
+    private final long[]        edges;
+    private final int           size;
+    private final int           noOfCycles;
+
+
+    // ******************** Constructors **************************************
+    private FeedbackEdges(final long[] EDGES, final int SIZE, final int NO_OF_CYCLES) {
+        edges      = EDGES;
+        size       = SIZE;
+        noOfCycles = NO_OF_CYCLES;
+    }
+
+
+    // ******************** Methods *******************************************
+    static FeedbackEdges of(final GraphSnapshot SNAPSHOT) {
+        final int NODES = SNAPSHOT.getNoOfNodes();
+        if (0 == SNAPSHOT.getNoOfEdges()) { return NONE; }
+
+        // Strongly connected components
+        int[]     index      = new int[NODES];
+        int[]     low        = new int[NODES];
+        int[]     component  = new int[NODES];
+        int[]     stack      = new int[NODES];
+        boolean[] onStack    = new boolean[NODES];
+        int[]     callNode   = new int[NODES];
+        int[]     callEdge   = new int[NODES];
+        int       size       = 0;
+        int       counter    = 0;
+        int       components = 0;
+        Arrays.fill(index, -1);
+        for (int root = 0 ; root < NODES ; root++) {
+            if (index[root] >= 0) { continue; }
+            int depth = 0;
+            index[root]       = counter;
+            low[root]         = counter++;
+            stack[size++]     = root;
+            onStack[root]     = true;
+            callNode[depth]   = root;
+            callEdge[depth++] = SNAPSHOT.getOutgoingStart(root);
+            while (depth > 0) {
+                int node = callNode[depth - 1];
+                int edge = callEdge[depth - 1];
+                if (edge < SNAPSHOT.getOutgoingEnd(node)) {
+                    callEdge[depth - 1]++;
+                    int target = SNAPSHOT.getEdgeTarget(edge);
+                    if (index[target] < 0) {
+                        index[target]     = counter;
+                        low[target]       = counter++;
+                        stack[size++]     = target;
+                        onStack[target]   = true;
+                        callNode[depth]   = target;
+                        callEdge[depth++] = SNAPSHOT.getOutgoingStart(target);
+                    } else if (onStack[target]) {
+                        low[node] = Math.min(low[node], index[target]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0) { low[callNode[depth - 1]] = Math.min(low[callNode[depth - 1]], low[node]); }
+                if (low[node] == index[node]) {
+                    int member;
+                    do {
+                        member            = stack[--size];
+                        onStack[member]   = false;
+                        component[member] = components;
+                    } while (member != node);
+                    components++;
+                }
+            }
+        }
+
+        // Every component is entered at the node with the largest inflow from outside
+        double[] inflow = new double[NODES];
+        int[]    entry  = new int[components];
+        for (int edge = 0 ; edge < SNAPSHOT.getNoOfEdges() ; edge++) {
+            int target = SNAPSHOT.getEdgeTarget(edge);
+            if (component[SNAPSHOT.getEdgeSource(edge)] != component[target]) { inflow[target] += SNAPSHOT.getEdgeValue(edge); }
+        }
+        Arrays.fill(entry, -1);
+        for (int node = 0 ; node < NODES ; node++) {
+            int c = component[node];
+            if (entry[c] < 0 || inflow[node] > inflow[entry[c]]) { entry[c] = node; }
+        }
+
+        // Depth first search within each component, edges back onto the search path close a cycle
+        long[] edges      = new long[(SNAPSHOT.getNoOfEdges() + 63) >>> 6];
+        byte[] state      = new byte[NODES];
+        int    noOfEdges  = 0;
+        int    noOfCycles = 0;
+        for (int c = 0 ; c < components ; c++) {
+            int depth  = 0;
+            int before = noOfEdges;
+            state[entry[c]]   = 1;
+            callNode[depth]   = entry[c];
+            callEdge[depth++] = SNAPSHOT.getOutgoingStart(entry[c]);
+            while (depth > 0) {
+                int node = callNode[depth - 1];
+                int edge = callEdge[depth - 1];
+                if (edge < SNAPSHOT.getOutgoingEnd(node)) {
+                    callEdge[depth - 1]++;
+                    int target = SNAPSHOT.getEdgeTarget(edge);
+                    if (component[target] != c) { continue; }
+                    if (1 == state[target]) {
+                        edges[edge >>> 6] |= 1L << edge;
+                        noOfEdges++;
+                    } else if (0 == state[target]) {
+                        state[target]     = 1;
+                        callNode[depth]   = target;
+                        callEdge[depth++] = SNAPSHOT.getOutgoingStart(target);
+                    }
+                    continue;
+                }
+                state[node] = 2;
+                depth--;
+            }
+            if (noOfEdges > before) { noOfCycles++; }
+        }
+        return 0 == noOfEdges ? NONE : new FeedbackEdges(edges, noOfEdges, noOfCycles);
+    }
+
+    boolean contains(final int EDGE) { return size > 0 && (edges[EDGE >>> 6] & (1L << EDGE)) != 0; }
+
+    int size() { return size; }
+
+    boolean isEmpty() { return 0 == size; }
+
+    /**
+     * Returns the number of strongly connected components that contain a cycle.
+     */
+    int getNoOfCycles() { return noOfCycles; }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+
+/**
+ * Flow metrics of a laid out graph: the throughput and the imbalance
+ * between incoming and outgoing flows of every node, the total throughput
+ * of every level and the heaviest paths from sources to sinks.
+ * Node and level metrics are computed on creation, paths on first request,
+ * both in parallel on the common ForkJoinPool. Paths follow the links from
+ * lower to higher levels, backward links of cycles are ignored.
+ * Immutable apart from the cached paths, thread safe.
+ */
+public final class FlowAnalytics {
+    private static final int                       PARALLEL_THRESHOLD = 1024;
+    private static final int                       MAX_PATHS          = 10_000;
+    private        final SankeyLayout              layout;
+    private        final GraphSnapshot             snapshot;
+    private        final double[]                  throughputs;
+    private        final double[]                  imbalances;
+    private        final double[]                  levelTotals;
+    private        final double                    totalImbalance;
+    private        final Map<Integer, List<Path>>  topPaths;
+
+
+    // ******************** Constructors **************************************
+    private FlowAnalytics(final SankeyLayout LAYOUT) {
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        final int           NODES    = SNAPSHOT.getNoOfNodes();
+        layout      = LAYOUT;
+        snapshot    = SNAPSHOT;
+        throughputs = new double[NODES];
+        imbalances  = new double[NODES];
+        levelTotals = new double[LAYOUT.getNoOfLevels()];
+        topPaths    = new ConcurrentHashMap<>();
+
+        range(0, NODES).forEach(node -> {
+            throughputs[node] = SNAPSHOT.getMaxSum(node);
+            imbalances[node]  = SNAPSHOT.getSumOfIncoming(node) - SNAPSHOT.getSumOfOutgoing(node);
+        });
+        // Only nodes that pass flows on can be out of balance, sources and sinks are by definition
+        totalImbalance = range(0, NODES).filter(node -> SNAPSHOT.hasIncoming(node) && SNAPSHOT.hasOutgoing(node))
+                                        .mapToDouble(node -> Math.abs(imbalances[node]))
+                                        .sum();
+        final int MIN_LEVEL = LAYOUT.getMinLevel();
+        range(0, levelTotals.length).forEach(index -> {
+            double total = 0;
+            for (int position = LAYOUT.getLevelStart(MIN_LEVEL + index) ; position < LAYOUT.getLevelEnd(MIN_LEVEL + index) ; position++) {
+                total += throughputs[LAYOUT.getLevelNode(position)];
+            }
+            levelTotals[index] = total;
+        });
+    }
+
+
+    // ******************** Methods *******************************************
+    public static FlowAnalytics of(final SankeyLayout LAYOUT) {
+        if (null == LAYOUT) { throw new IllegalArgumentException("Layout must not be null"); }
+        return new FlowAnalytics(LAYOUT);
+    }
+
+    public SankeyLayout getLayout() { return layout; }
+
+    public GraphSnapshot getSnapshot() { return snapshot; }
+
+    /**
+     * Returns the larger one of the sums of the incoming and the outgoing flows of the given node.
+     */
+    public double getThroughput(final int NODE) { return throughputs[NODE]; }
+    public double getThroughput(final PlotItem ITEM) { return throughputs[nodeOf(ITEM)]; }
+
+    /**
+     * Returns the sum of the incoming minus the sum of the outgoing flows of the given node.
+     */
+    public double getImbalance(final int NODE) { return imbalances[NODE]; }
+    public double getImbalance(final PlotItem ITEM) { return imbalances[nodeOf(ITEM)]; }
+
+    /**
+     * Returns the sum of the absolute imbalances of all nodes that have incoming and outgoing flows.
+     */
+    public double getTotalImbalance() { return totalImbalance; }
+
+    /**
+     * Returns the sum of the throughputs of the nodes on the given level of the layout.
+     */
+    public double getLevelTotal(final int LEVEL) {
+        if (LEVEL < layout.getMinLevel() || LEVEL > layout.getMaxLevel()) { throw new IllegalArgumentException("Level " + LEVEL + " is not part of the layout"); }
+        return levelTotals[LEVEL - layout.getMinLevel()];
+    }
+
+    /**
+     * Returns up to the given number of paths from a source, a node without
+     * incoming links, to a sink, a node without outgoing links, ordered by
+     * their value from large to small. The value of a path is the smallest
+     * flow along the path, which is the most that can flow along the whole
+     * path. Computed once per number of paths.
+     */
+    public List<Path> getTopPaths(final int NO_OF_PATHS) {
+        if (NO_OF_PATHS < 1 || NO_OF_PATHS > MAX_PATHS) { throw new IllegalArgumentException("Number of paths must be between 1 and " + MAX_PATHS + " but was " + NO_OF_PATHS); }
+        return topPaths.computeIfAbsent(NO_OF_PATHS, this::computeTopPaths);
+    }
+
+    // Keeps the best paths that end in a node, level by level, the nodes of one level only depend on lower levels
+    private List<Path> computeTopPaths(final int K) {
+        final int      NODES = snapshot.getNoOfNodes();
+        final Step[][] BEST  = new Step[NODES][];
+        for (int level = layout.getMinLevel() ; level <= layout.getMaxLevel() ; level++) {
+            range(layout.getLevelStart(level), layout.getLevelEnd(level)).forEach(position -> {
+                int node = layout.getLevelNode(position);
+                BEST[node] = bestSteps(node, BEST, K);
+            });
+        }
+
+        List<Step> ends = new ArrayList<>();
+        for (int node = 0 ; node < NODES ; node++) {
+            if (null == BEST[node] || hasForwardOutgoing(node)) { continue; }
+            for (Step step : BEST[node]) {
+                if (null != step.previous) { ends.add(step); }
+            }
+        }
+        // Stable sort, paths with equal values keep the order of their sinks
+        ends.sort((step1, step2) -> Double.compare(step2.value, step1.value));
+
+        List<Path> paths = new ArrayList<>(Math.min(K, ends.size()));
+        for (int i = 0 ; i < Math.min(K, ends.size()) ; i++) { paths.add(new Path(snapshot, ends.get(i))); }
+        return Collections.unmodifiableList(paths);
+    }
+
+    private Step[] bestSteps(final int NODE, final Step[][] BEST, final int K) {
+        List<Step> candidates = new ArrayList<>();
+        for (int position = snapshot.getIncomingStart(NODE) ; position < snapshot.getIncomingEnd(NODE) ; position++) {
+            int    edge   = snapshot.getIncomingEdge(position);
+            int    source = snapshot.getEdgeSource(edge);
+            double value  = snapshot.getEdgeValue(edge);
+            if (!isForward(source, NODE)) { continue; }
+            for (Step step : BEST[source]) { candidates.add(new Step(NODE, Math.min(step.value, value), step)); }
+        }
+        if (candidates.isEmpty()) { return new Step[] { new Step(NODE, Double.POSITIVE_INFINITY, null) }; }
+        candidates.sort((step1, step2) -> Double.compare(step2.value, step1.value));
+        return candidates.subList(0, Math.min(K, candidates.size())).toArray(new Step[0]);
+    }
+
+    private boolean hasForwardOutgoing(final int NODE) {
+        for (int edge = snapshot.getOutgoingStart(NODE) ; edge < snapshot.getOutgoingEnd(NODE) ; edge++) {
+            if (isForward(NODE, snapshot.getEdgeTarget(edge))) { return true; }
+        }
+        return false;
+    }
+
+    private boolean isForward(final int SOURCE, final int TARGET) { return layout.getLevel(SOURCE) < layout.getLevel(TARGET); }
+
+    private int nodeOf(final PlotItem ITEM) {
+        int node = snapshot.indexOf(ITEM);
+        if (node < 0) { throw new IllegalArgumentException("Item is not part of the graph"); }
+        return node;
+    }
+
+    private static IntStream range(final int START, final int END) {
+        IntStream range = IntStream.range(START, END);
+        return END - START >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static final class Path {
+        private final GraphSnapshot snapshot;
+        private final int[]         nodes;
+        private final double        value;
+
+
+        // ******************** Constructors **********************************
+        private Path(final GraphSnapshot SNAPSHOT, final Step END) {
+            int length = 0;
+            for (Step step = END ; null != step ; step = step.previous) { length++; }
+            snapshot = SNAPSHOT;
+            nodes    = new int[length];
+            value    = END.value;
+            for (Step step = END ; null != step ; step = step.previous) { nodes[--length] = step.node; }
+        }
+
+
+        // ******************** Methods ***************************************
+        public int getNoOfNodes() { return nodes.length; }
+
+        public int getNode(final int INDEX) { return nodes[INDEX]; }
+
+        public PlotItem getItem(final int INDEX) { return snapshot.getItem(nodes[INDEX]); }
+
+        public double getValue() { return value; }
+
+        @Override public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int node : nodes) { builder.append(0 == builder.length() ? "" : " -> ").append(snapshot.getName(node)); }
+            return builder.append(" (").append(value).append(')').toString();
+        }
+    }
+
+    private static final class Step {
+        private final int    node;
+        private final double value;
+        private final Step   previous;
+
+
+        // ******************** Constructors **********************************
+        Step(final int NODE, final double VALUE, final Step PREVIOUS) {
+            node     = NODE;
+            value    = VALUE;
+            previous = PREVIOUS;
+        }
+    }
+}
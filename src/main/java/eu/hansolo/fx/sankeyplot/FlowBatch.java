@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.tools.Helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Collects the flow updates of one drain and applies them with one new map
+ * of outgoing flows per touched source and one new map of incoming flows per
+ * touched target. Updating the flows one by one would copy both maps of an
+ * item for every single update.
+ */
+class FlowBatch {
+    private final Map<PlotItem, Map<PlotItem, Double>> outgoing;
+    private final Map<PlotItem, Map<PlotItem, Double>> incoming;
+
+
+    // ******************** Constructors **************************************
+    FlowBatch() {
+        outgoing = new HashMap<>();
+        incoming = new HashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    boolean isEmpty() { return outgoing.isEmpty(); }
+
+    /**
+     * Returns the value the flow will have once the batch is applied.
+     */
+    double getValue(final PlotItem SOURCE, final PlotItem TARGET) {
+        Map<PlotItem, Double> changes = outgoing.get(SOURCE);
+        Double                value   = null != changes && changes.containsKey(TARGET) ? changes.get(TARGET) : SOURCE.getOutgoing().get(TARGET);
+        return null == value ? 0 : value;
+    }
+
+    void add(final PlotItem SOURCE, final PlotItem TARGET, final double DELTA) {
+        set(SOURCE, TARGET, getValue(SOURCE, TARGET) + DELTA);
+    }
+
+    void set(final PlotItem SOURCE, final PlotItem TARGET, final double VALUE) {
+        put(SOURCE, TARGET, Helper.clamp(0, Double.MAX_VALUE, VALUE));
+    }
+
+    void remove(final PlotItem SOURCE, final PlotItem TARGET) {
+        put(SOURCE, TARGET, null);
+    }
+
+    /**
+     * Publishes the collected flows to the items and clears the batch.
+     */
+    void apply() {
+        outgoing.forEach(PlotItem::updateOutgoing);
+        incoming.forEach(PlotItem::updateIncoming);
+        outgoing.clear();
+        incoming.clear();
+    }
+
+    // A value of null removes the flow
+    private void put(final PlotItem SOURCE, final PlotItem TARGET, final Double VALUE) {
+        outgoing.computeIfAbsent(SOURCE, source -> new HashMap<>()).put(TARGET, VALUE);
+        incoming.computeIfAbsent(TARGET, target -> new HashMap<>()).put(SOURCE, VALUE);
+    }
+}
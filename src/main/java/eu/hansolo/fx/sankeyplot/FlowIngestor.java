@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.DoubleAdder;
+
+
+/**
+ * Accumulates flow deltas posted from arbitrary producer threads.
+ * Every edge owns a DoubleAdder cell, so posting to an already known edge
+ * never takes a lock. Cells that received updates since the last drain are
+ * queued once, which keeps the cost of drain() proportional to the number
+ * of changed edges instead of the number of all edges.
+ * drain() is meant to be called from a single consumer thread, usually
+ * once per pulse on the FX application thread (see SankeyPlot.setFlowIngestor()).
+ */
+public class FlowIngestor {
+    private final ConcurrentHashMap<PlotItem, ConcurrentHashMap<PlotItem, FlowCell>> cells;
+    private final Queue<FlowCell>                                                     dirtyCells;
+
+
+    // ******************** Constructors **************************************
+    public FlowIngestor() {
+        cells      = new ConcurrentHashMap<>();
+        dirtyCells = new ConcurrentLinkedQueue<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds the given delta to the flow from source to target. Safe to call
+     * from any thread, never blocks on existing edges.
+     */
+    public void post(final PlotItem SOURCE, final PlotItem TARGET, final double DELTA) {
+        if (null == SOURCE || null == TARGET) { throw new IllegalArgumentException("Source and target must not be null"); }
+        ConcurrentHashMap<PlotItem, FlowCell> targets = cells.get(SOURCE);
+        if (null == targets) { targets = cells.computeIfAbsent(SOURCE, source -> new ConcurrentHashMap<>()); }
+        FlowCell cell = targets.get(TARGET);
+        if (null == cell) { cell = targets.computeIfAbsent(TARGET, target -> new FlowCell(SOURCE, target)); }
+        cell.sum.add(DELTA);
+        if (FlowCell.QUEUED.compareAndSet(cell, 0, 1)) { dirtyCells.offer(cell); }
+    }
+
+    /**
+     * Hands the accumulated delta of every edge that changed since the last
+     * call to the given consumer and returns the number of changed edges.
+     * Deltas that are posted concurrently are never lost, they will be
+     * reported by the next call.
+     */
+    public int drain(final FlowConsumer CONSUMER) {
+        int      changed = 0;
+        FlowCell cell;
+        while (null != (cell = dirtyCells.poll())) {
+            // Clear the flag before reading so that concurrent posts queue the cell again
+            cell.queued = 0;
+            double total = cell.sum.sum();
+            double delta = total - cell.drained;
+            cell.drained = total;
+            if (Double.compare(delta, 0.0) != 0) {
+                CONSUMER.accept(cell.source, cell.target, delta);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    public boolean hasPendingUpdates() { return !dirtyCells.isEmpty(); }
+
+    /**
+     * Returns the total of all deltas ever posted for the given edge.
+     */
+    public double getTotal(final PlotItem SOURCE, final PlotItem TARGET) {
+        ConcurrentHashMap<PlotItem, FlowCell> targets = cells.get(SOURCE);
+        if (null == targets) { return 0; }
+        FlowCell cell = targets.get(TARGET);
+        return null == cell ? 0 : cell.sum.sum();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class FlowCell {
+        private static final AtomicIntegerFieldUpdater<FlowCell> QUEUED = AtomicIntegerFieldUpdater.newUpdater(FlowCell.class, "queued");
+        private        final PlotItem                            source;
+        private        final PlotItem                            target;
+        private        final DoubleAdder                         sum;
+        private     volatile int                                 queued;
+        private              double                              drained;  // only touched by the draining thread
+
+
+        // ******************** Constructors **********************************
+        FlowCell(final PlotItem SOURCE, final PlotItem TARGET) {
+            source = SOURCE;
+            target = TARGET;
+            sum    = new DoubleAdder();
+        }
+    }
+}
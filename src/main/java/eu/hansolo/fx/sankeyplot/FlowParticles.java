@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.tools.Helper;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Random;
+
+
+/**
+ * Particles that move along the links of a layout, drawn once per frame.
+ * Every link gets a number of particles that is proportional to its value
+ * and its length, so the density of the particles follows the value, and
+ * its particles move with a speed that is proportional to the value, but
+ * at least with a tenth of the speed of the largest link.
+ * The center lines of the links are sampled into lookup tables once per
+ * layout and the particles are kept in primitive arrays that only grow
+ * with the maximum number of particles, so a frame allocates nothing.
+ * Only to be used on the FX application thread.
+ */
+final class FlowParticles {
+    private static final int          SAMPLES          = 17;
+    private static final double       SPACING          = 0.02;
+    private static final double       SPEED            = 0.25;
+    private static final double       MIN_SPEED        = 0.1;
+    private static final double       MAX_ELAPSED      = 0.1;
+    private        final Random       random;
+    private              SankeyLayout layout;
+    private              double       size;
+    private              int          maxParticles;
+    private              int          noOfParticles;
+    private              double       radius;
+    private              long         lastNanos;
+    private              float[]      curveX;
+    private              float[]      curveY;
+    private              int[]        particleLink;
+    private              float[]      particlePosition;
+    private              float[]      particleSpeed;
+    private              float[]      particleOffset;
+
+
+    // ******************** Constructors **************************************
+    FlowParticles(final int MAX_PARTICLES) {
+        random = new Random(0);
+        curveX = new float[0];
+        curveY = new float[0];
+        setMaxParticles(MAX_PARTICLES);
+    }
+
+
+    // ******************** Methods *******************************************
+    int getMaxParticles() { return maxParticles; }
+    void setMaxParticles(final int MAX_PARTICLES) {
+        if (MAX_PARTICLES < 0) { throw new IllegalArgumentException("Maximum number of particles must not be negative but was " + MAX_PARTICLES); }
+        maxParticles = MAX_PARTICLES;
+        if (null == particleLink || particleLink.length < MAX_PARTICLES) {
+            particleLink     = new int[MAX_PARTICLES];
+            particlePosition = new float[MAX_PARTICLES];
+            particleSpeed    = new float[MAX_PARTICLES];
+            particleOffset   = new float[MAX_PARTICLES];
+        }
+        layout = null;
+    }
+
+    int getNoOfParticles() { return noOfParticles; }
+
+    /**
+     * Moves the particles to where they are at the given time, the first
+     * call after the layout or the size changed distributes them again.
+     */
+    void update(final SankeyLayout LAYOUT, final double SIZE, final long NOW) {
+        if (LAYOUT != layout || Double.compare(SIZE, size) != 0) {
+            distribute(LAYOUT, SIZE);
+            lastNanos = NOW;
+            return;
+        }
+        final float ELAPSED = (float) Math.min(MAX_ELAPSED, (NOW - lastNanos) / 1_000_000_000.0);
+        lastNanos = NOW;
+        for (int particle = 0 ; particle < noOfParticles ; particle++) {
+            float position = particlePosition[particle] + particleSpeed[particle] * ELAPSED;
+            particlePosition[particle] = position >= 1 ? position - (int) position : position;
+        }
+    }
+
+    void draw(final GraphicsContext CTX, final Color COLOR) {
+        final double DIAMETER = radius * 2;
+        CTX.setFill(COLOR);
+        for (int particle = 0 ; particle < noOfParticles ; particle++) {
+            float  t      = particlePosition[particle] * (SAMPLES - 1);
+            int    sample = Math.min((int) t, SAMPLES - 2);
+            float  f      = t - sample;
+            int    index  = particleLink[particle] * SAMPLES + sample;
+            double x      = curveX[index] + (curveX[index + 1] - curveX[index]) * f;
+            double y      = curveY[index] + (curveY[index + 1] - curveY[index]) * f + particleOffset[particle];
+            CTX.fillOval(x - radius, y - radius, DIAMETER, DIAMETER);
+        }
+    }
+
+    private void distribute(final SankeyLayout LAYOUT, final double SIZE) {
+        final int LINKS = LAYOUT.getNoOfLinks();
+        layout        = LAYOUT;
+        size          = SIZE;
+        noOfParticles = 0;
+        radius        = Helper.clamp(1, 4, SIZE * 0.004);
+        if (curveX.length < LINKS * SAMPLES) {
+            curveX = new float[LINKS * SAMPLES];
+            curveY = new float[LINKS * SAMPLES];
+        }
+
+        // Sample the center line of every link, the same bezier curve as in LinkPainter.addCurvePath()
+        double[] lengths  = new double[LINKS];
+        double   maxValue = 0;
+        for (int link = 0 ; link < LINKS ; link++) {
+            int    source  = LAYOUT.getLinkSource(link);
+            double startX  = LAYOUT.getNodeX(source) + LAYOUT.getNodeWidth(source);
+            double endX    = LAYOUT.getNodeX(LAYOUT.getLinkTarget(link));
+            double startY  = LAYOUT.getLinkSourceY(link) + LAYOUT.getLinkHeight(link) * 0.5;
+            double endY    = LAYOUT.getLinkTargetY(link) + LAYOUT.getLinkHeight(link) * 0.5;
+            double offsetX = (endX - startX) * 0.25;
+            for (int sample = 0 ; sample < SAMPLES ; sample++) {
+                double t     = sample / (double) (SAMPLES - 1);
+                double u     = 1 - t;
+                double b1    = 3 * u * u * t;
+                double b2    = 3 * u * t * t;
+                double b3    = t * t * t;
+                int    index = link * SAMPLES + sample;
+                curveX[index] = (float) (u * u * u * startX + b1 * (startX + offsetX) + b2 * (endX - offsetX) + b3 * endX);
+                curveY[index] = (float) ((u * u * u + b1) * startY + (b2 + b3) * endY);
+                if (sample > 0) { lengths[link] += Math.hypot(curveX[index] - curveX[index - 1], curveY[index] - curveY[index - 1]); }
+            }
+            maxValue = Math.max(maxValue, LAYOUT.getLinkValue(link));
+        }
+        if (0 == maxParticles || maxValue <= 0) { return; }
+
+        // The largest link gets one particle per spacing, everything is scaled down if that exceeds the maximum number of particles
+        final double SPACING_PX = SIZE * SPACING;
+        double wanted = 0;
+        for (int link = 0 ; link < LINKS ; link++) { wanted += LAYOUT.getLinkValue(link) / maxValue * lengths[link] / SPACING_PX; }
+        final double SCALE = Math.min(1, maxParticles / wanted);
+        for (int link = 0 ; link < LINKS && noOfParticles < maxParticles ; link++) {
+            double value = LAYOUT.getLinkValue(link) / maxValue;
+            if (value <= 0 || lengths[link] <= 0) { continue; }
+            double expected = value * lengths[link] / SPACING_PX * SCALE;
+            int    count    = Math.min(maxParticles - noOfParticles, (int) expected + (random.nextDouble() < expected - (int) expected ? 1 : 0));
+            float  speed    = (float) (SIZE * SPEED * Math.max(MIN_SPEED, value) / lengths[link]);
+            float  height   = (float) (LAYOUT.getLinkHeight(link) * 0.8);
+            for (int i = 0 ; i < count ; i++) {
+                particleLink[noOfParticles]     = link;
+                particlePosition[noOfParticles] = (i + random.nextFloat()) / count;
+                particleSpeed[noOfParticles]    = speed;
+                particleOffset[noOfParticles]   = (random.nextFloat() - 0.5f) * height;
+                noOfParticles++;
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Arrays;
+
+
+/**
+ * Traces the flows that feed into a node (upstream) and that derive from it
+ * (downstream). The sets of reachable nodes are cached per node as bitsets.
+ * When update() is called with a new snapshot of the same items, only the
+ * cached sets that contain a node whose edges were added or removed are
+ * dropped, changed values never invalidate the cache.
+ * All methods are thread safe.
+ */
+public class FlowTracer {
+    private GraphSnapshot snapshot;
+    private long[][]      downstream;
+    private long[][]      upstream;
+
+
+    // ******************** Constructors **************************************
+    public FlowTracer(final GraphSnapshot SNAPSHOT) {
+        if (null == SNAPSHOT) { throw new IllegalArgumentException("Snapshot must not be null"); }
+        reset(SNAPSHOT);
+    }
+
+
+    // ******************** Methods *******************************************
+    public synchronized GraphSnapshot getSnapshot() { return snapshot; }
+
+    /**
+     * Switches to the given snapshot. If it contains the same items in the same
+     * order, only the cached reachable sets that are affected by added or
+     * removed edges are invalidated, otherwise the whole cache is dropped.
+     */
+    public synchronized void update(final GraphSnapshot SNAPSHOT) {
+        if (SNAPSHOT == snapshot) { return; }
+        final int NODES = SNAPSHOT.getNoOfNodes();
+        if (NODES != snapshot.getNoOfNodes()) {
+            reset(SNAPSHOT);
+            return;
+        }
+        for (int node = 0 ; node < NODES ; node++) {
+            if (SNAPSHOT.getItem(node) != snapshot.getItem(node)) {
+                reset(SNAPSHOT);
+                return;
+            }
+        }
+
+        long[] changedSources = new long[words(NODES)];
+        long[] changedTargets = new long[words(NODES)];
+        boolean changed       = false;
+        for (int node = 0 ; node < NODES ; node++) {
+            int[] oldTargets = getTargets(snapshot, node);
+            int[] newTargets = getTargets(SNAPSHOT, node);
+            if (Arrays.equals(oldTargets, newTargets)) { continue; }
+            changed = true;
+            set(changedSources, node);
+            // Targets that were added or removed
+            for (int target : oldTargets) { if (Arrays.binarySearch(newTargets, target) < 0) { set(changedTargets, target); } }
+            for (int target : newTargets) { if (Arrays.binarySearch(oldTargets, target) < 0) { set(changedTargets, target); } }
+        }
+        snapshot = SNAPSHOT;
+        if (!changed) { return; }
+
+        // A downstream set can only change if it reaches a node whose outgoing edges changed, upstream vice versa
+        for (int node = 0 ; node < NODES ; node++) {
+            if (null != downstream[node] && (get(changedSources, node) || intersects(downstream[node], changedSources))) { downstream[node] = null; }
+            if (null != upstream[node] && (get(changedTargets, node) || intersects(upstream[node], changedTargets))) { upstream[node] = null; }
+        }
+    }
+
+    public synchronized boolean isDownstream(final int NODE, final int OTHER) { return get(getDownstream(NODE), OTHER); }
+
+    public synchronized boolean isUpstream(final int NODE, final int OTHER) { return get(getUpstream(NODE), OTHER); }
+
+    /**
+     * Traces the flows of the given node of the current snapshot. Every edge
+     * gets the part of its value that flows into or out of the node,
+     * assuming that every intermediate node passes its inflow on in
+     * proportion to the values of its outgoing edges.
+     */
+    public synchronized Trace trace(final int NODE) {
+        final int    NODES = snapshot.getNoOfNodes();
+        final long[] DOWN  = getDownstream(NODE);
+        final long[] UP    = getUpstream(NODE);
+        long[]   nodes    = new long[words(NODES)];
+        double[] edgeFlow = new double[snapshot.getNoOfEdges()];
+        for (int i = 0 ; i < nodes.length ; i++) { nodes[i] = DOWN[i] | UP[i]; }
+        set(nodes, NODE);
+        attribute(NODE, DOWN, true, edgeFlow);
+        attribute(NODE, UP, false, edgeFlow);
+        return new Trace(snapshot, NODE, nodes, edgeFlow);
+    }
+
+    private void reset(final GraphSnapshot SNAPSHOT) {
+        snapshot   = SNAPSHOT;
+        downstream = new long[SNAPSHOT.getNoOfNodes()][];
+        upstream   = new long[SNAPSHOT.getNoOfNodes()][];
+    }
+
+    private long[] getDownstream(final int NODE) {
+        if (null == downstream[NODE]) { downstream[NODE] = reach(NODE, true); }
+        return downstream[NODE];
+    }
+
+    private long[] getUpstream(final int NODE) {
+        if (null == upstream[NODE]) { upstream[NODE] = reach(NODE, false); }
+        return upstream[NODE];
+    }
+
+    private long[] reach(final int NODE, final boolean DOWNSTREAM) {
+        final int NODES   = snapshot.getNoOfNodes();
+        long[]    reached = new long[words(NODES)];
+        int[]     stack   = new int[NODES];
+        int       size    = 0;
+        stack[size++] = NODE;
+        while (size > 0) {
+            int node = stack[--size];
+            int from = DOWNSTREAM ? snapshot.getOutgoingStart(node) : snapshot.getIncomingStart(node);
+            int to   = DOWNSTREAM ? snapshot.getOutgoingEnd(node) : snapshot.getIncomingEnd(node);
+            for (int i = from ; i < to ; i++) {
+                int next = DOWNSTREAM ? snapshot.getEdgeTarget(i) : snapshot.getEdgeSource(snapshot.getIncomingEdge(i));
+                if (!get(reached, next)) {
+                    set(reached, next);
+                    stack[size++] = next;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Propagates the share of the flow that passes the given node through the
+     * reachable nodes in topological order. Nodes on cycles are handled in
+     * index order once no other node is left, edges back into already handled
+     * nodes are ignored.
+     */
+    private void attribute(final int NODE, final long[] REACHABLE, final boolean DOWNSTREAM, final double[] EDGE_FLOW) {
+        final int NODES    = snapshot.getNoOfNodes();
+        int[]     degree   = new int[NODES];
+        double[]  flow     = new double[NODES];
+        boolean[] done     = new boolean[NODES];
+        int[]     queue    = new int[NODES];
+        int       head     = 0;
+        int       tail     = 0;
+
+        // Only edges between the node and its reachable nodes count, edges back into the node are ignored
+        for (int node = 0 ; node < NODES ; node++) {
+            if (node != NODE && !get(REACHABLE, node)) { continue; }
+            int from = DOWNSTREAM ? snapshot.getOutgoingStart(node) : snapshot.getIncomingStart(node);
+            int to   = DOWNSTREAM ? snapshot.getOutgoingEnd(node) : snapshot.getIncomingEnd(node);
+            for (int i = from ; i < to ; i++) {
+                int next = getNext(i, DOWNSTREAM);
+                if (next != NODE) { degree[next]++; }
+            }
+        }
+        flow[NODE]    = 1.0;
+        queue[tail++] = NODE;
+        done[NODE]    = true;
+        int pending = 0;
+        while (true) {
+            while (head < tail) {
+                int    node     = queue[head++];
+                double sum      = snapshot.getMaxSum(node);
+                double fraction = node == NODE ? 1.0 : (sum > 0 ? Math.min(1.0, flow[node] / sum) : 0);
+                int    from     = DOWNSTREAM ? snapshot.getOutgoingStart(node) : snapshot.getIncomingStart(node);
+                int    to       = DOWNSTREAM ? snapshot.getOutgoingEnd(node) : snapshot.getIncomingEnd(node);
+                for (int i = from ; i < to ; i++) {
+                    int edge = DOWNSTREAM ? i : snapshot.getIncomingEdge(i);
+                    int next = getNext(i, DOWNSTREAM);
+                    if (next == NODE || done[next]) { continue; }
+                    double share = fraction * snapshot.getEdgeValue(edge);
+                    EDGE_FLOW[edge] = Math.max(EDGE_FLOW[edge], share);
+                    flow[next] += share;
+                    if (--degree[next] == 0) {
+                        done[next]    = true;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            // Break cycles by continuing with the first reachable node that is left
+            while (pending < NODES && (done[pending] || !get(REACHABLE, pending))) { pending++; }
+            if (pending == NODES) { break; }
+            done[pending] = true;
+            queue[tail++] = pending;
+        }
+    }
+
+    private int getNext(final int POSITION, final boolean DOWNSTREAM) {
+        return DOWNSTREAM ? snapshot.getEdgeTarget(POSITION) : snapshot.getEdgeSource(snapshot.getIncomingEdge(POSITION));
+    }
+
+    private static int[] getTargets(final GraphSnapshot SNAPSHOT, final int NODE) {
+        int[] targets = new int[SNAPSHOT.getOutgoingEnd(NODE) - SNAPSHOT.getOutgoingStart(NODE)];
+        for (int edge = SNAPSHOT.getOutgoingStart(NODE) ; edge < SNAPSHOT.getOutgoingEnd(NODE) ; edge++) { targets[edge - SNAPSHOT.getOutgoingStart(NODE)] = SNAPSHOT.getEdgeTarget(edge); }
+        Arrays.sort(targets);
+        return targets;
+    }
+
+    private static int words(final int BITS) { return (BITS + 63) >>> 6; }
+
+    private static void set(final long[] BITS, final int INDEX) { BITS[INDEX >>> 6] |= 1L << INDEX; }
+
+    private static boolean get(final long[] BITS, final int INDEX) { return (BITS[INDEX >>> 6] & (1L << INDEX)) != 0; }
+
+    private static boolean intersects(final long[] BITS, final long[] OTHER) {
+        for (int i = 0 ; i < BITS.length ; i++) { if ((BITS[i] & OTHER[i]) != 0) { return true; } }
+        return false;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Result of a trace, immutable.
+     */
+    public static final class Trace {
+        private final GraphSnapshot snapshot;
+        private final int           node;
+        private final long[]        nodes;
+        private final double[]      edgeFlow;
+
+
+        // ******************** Constructors **********************************
+        Trace(final GraphSnapshot SNAPSHOT, final int NODE, final long[] NODES, final double[] EDGE_FLOW) {
+            snapshot = SNAPSHOT;
+            node     = NODE;
+            nodes    = NODES;
+            edgeFlow = EDGE_FLOW;
+        }
+
+
+        // ******************** Methods ***************************************
+        public GraphSnapshot getSnapshot() { return snapshot; }
+
+        /**
+         * Returns the node the trace started at.
+         */
+        public int getNode() { return node; }
+
+        /**
+         * Returns true if the given node is the traced node or lies up- or downstream of it.
+         */
+        public boolean isTraced(final int NODE) { return get(nodes, NODE); }
+
+        /**
+         * Returns the part of the value of the given edge that flows into or out of the traced node.
+         */
+        public double getEdgeFlow(final int EDGE) { return edgeFlow[EDGE]; }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Sums up flow events over a sliding time window, e.g. "flows in the last 5 minutes".
+ * The window is split into a fixed number of buckets, every edge keeps its
+ * values in a ring buffer of these buckets plus a running total. Each bucket
+ * remembers the edges that received events in it, so expiring a bucket only
+ * touches these edges and never scans all edges. Only edges whose window total
+ * changed are reported by drain(), which keeps a continuously refreshing plot
+ * proportional to the churn of the data. Once all events of an edge expired
+ * it is reported with a total of 0 and dropped, so the window only holds the
+ * edges that received events within the window.
+ * All methods are thread safe.
+ */
+public class FlowWindow {
+    private final long                                     bucketMillis;
+    private final int                                      noOfBuckets;
+    private final Map<PlotItem, Map<PlotItem, EdgeWindow>> edges;
+    private final List<EdgeWindow>                         edgeList;
+    private final int[][]                                  touchedEdges;
+    private final int[]                                    noOfTouchedEdges;
+    private final List<EdgeWindow>                         changedEdges;
+    private       int[]                                    freeIds;
+    private       int                                      noOfFreeIds;
+    private       long                                     currentBucket;
+
+
+    // ******************** Constructors **************************************
+    public FlowWindow(final long WINDOW_MILLIS, final int NO_OF_BUCKETS) {
+        if (WINDOW_MILLIS <= 0 || NO_OF_BUCKETS <= 0) { throw new IllegalArgumentException("Window length and number of buckets must be positive"); }
+        noOfBuckets      = NO_OF_BUCKETS;
+        bucketMillis     = Math.max(1, WINDOW_MILLIS / NO_OF_BUCKETS);
+        edges            = new HashMap<>();
+        edgeList         = new ArrayList<>();
+        touchedEdges     = new int[NO_OF_BUCKETS][8];
+        noOfTouchedEdges = new int[NO_OF_BUCKETS];
+        changedEdges     = new ArrayList<>();
+        freeIds          = new int[8];
+        noOfFreeIds      = 0;
+        currentBucket    = System.currentTimeMillis() / bucketMillis;
+    }
+
+
+    // ******************** Methods *******************************************
+    public long getWindowMillis() { return bucketMillis * noOfBuckets; }
+
+    public void record(final PlotItem SOURCE, final PlotItem TARGET, final double VALUE) {
+        record(SOURCE, TARGET, VALUE, System.currentTimeMillis());
+    }
+    /**
+     * Adds a flow event with the given timestamp (in milliseconds since the epoch).
+     * Events that are already older than the window are ignored.
+     */
+    public synchronized void record(final PlotItem SOURCE, final PlotItem TARGET, final double VALUE, final long TIMESTAMP) {
+        if (null == SOURCE || null == TARGET) { throw new IllegalArgumentException("Source and target must not be null"); }
+        long bucket = TIMESTAMP / bucketMillis;
+        if (bucket > currentBucket) { advanceTo(bucket); }
+        if (bucket <= currentBucket - noOfBuckets) { return; }
+
+        EdgeWindow edge = edges.computeIfAbsent(SOURCE, source -> new HashMap<>()).get(TARGET);
+        if (null == edge) {
+            // Reuse the id of a dropped edge, no bucket refers to it anymore
+            if (noOfFreeIds > 0) {
+                noOfFreeIds--;
+                edge = new EdgeWindow(freeIds[noOfFreeIds], SOURCE, TARGET, noOfBuckets);
+                edgeList.set(edge.id, edge);
+            } else {
+                edge = new EdgeWindow(edgeList.size(), SOURCE, TARGET, noOfBuckets);
+                edgeList.add(edge);
+            }
+            edges.get(SOURCE).put(TARGET, edge);
+        }
+        int slot = (int) Math.floorMod(bucket, (long) noOfBuckets);
+        if (edge.lastBucket[slot] != bucket) {
+            // First event of this edge in this bucket, remember the edge for the expiry of the bucket
+            edge.lastBucket[slot] = bucket;
+            int count = noOfTouchedEdges[slot];
+            if (count == touchedEdges[slot].length) { touchedEdges[slot] = Arrays.copyOf(touchedEdges[slot], count * 2); }
+            touchedEdges[slot][count] = edge.id;
+            noOfTouchedEdges[slot]    = count + 1;
+            edge.noOfLiveBuckets++;
+        }
+        edge.buckets[slot] += VALUE;
+        edge.total         += VALUE;
+        markChanged(edge);
+    }
+
+    /**
+     * Expires all buckets that are older than the window relative to the given time.
+     */
+    public synchronized void advance(final long NOW) {
+        long bucket = NOW / bucketMillis;
+        if (bucket > currentBucket) { advanceTo(bucket); }
+    }
+
+    /**
+     * Hands the current window total of every edge that changed since the last
+     * call to the given consumer and returns the number of changed edges.
+     * Edges whose events all expired are handed over with a total of 0 once
+     * and are dropped afterwards.
+     */
+    public synchronized int drain(final FlowConsumer CONSUMER) {
+        int changed = changedEdges.size();
+        for (EdgeWindow edge : changedEdges) {
+            edge.changed = false;
+            CONSUMER.accept(edge.source, edge.target, edge.total);
+            if (0 == edge.noOfLiveBuckets) { remove(edge); }
+        }
+        changedEdges.clear();
+        return changed;
+    }
+
+    public synchronized double getTotal(final PlotItem SOURCE, final PlotItem TARGET) {
+        Map<PlotItem, EdgeWindow> targets = edges.get(SOURCE);
+        if (null == targets) { return 0; }
+        EdgeWindow edge = targets.get(TARGET);
+        return null == edge ? 0 : edge.total;
+    }
+
+    private void advanceTo(final long BUCKET) {
+        // Expiring more than a full window is the same as expiring every bucket once
+        long first = Math.max(currentBucket + 1, BUCKET - noOfBuckets + 1);
+        for (long bucket = first ; bucket <= BUCKET ; bucket++) {
+            int slot = (int) Math.floorMod(bucket, (long) noOfBuckets);
+            for (int i = 0 ; i < noOfTouchedEdges[slot] ; i++) {
+                EdgeWindow edge = edgeList.get(touchedEdges[slot][i]);
+                edge.total -= edge.buckets[slot];
+                edge.buckets[slot] = 0;
+                edge.noOfLiveBuckets--;
+                // Avoid drifting away from zero due to rounding once the edge is empty
+                if (0 == edge.noOfLiveBuckets || Math.abs(edge.total) < 1e-9) { edge.total = 0; }
+                markChanged(edge);
+            }
+            noOfTouchedEdges[slot] = 0;
+        }
+        currentBucket = BUCKET;
+    }
+
+    // Only called for edges that are not referenced by any bucket
+    private void remove(final EdgeWindow EDGE) {
+        Map<PlotItem, EdgeWindow> targets = edges.get(EDGE.source);
+        targets.remove(EDGE.target);
+        if (targets.isEmpty()) { edges.remove(EDGE.source); }
+        edgeList.set(EDGE.id, null);
+        if (noOfFreeIds == freeIds.length) { freeIds = Arrays.copyOf(freeIds, noOfFreeIds * 2); }
+        freeIds[noOfFreeIds++] = EDGE.id;
+    }
+
+    private void markChanged(final EdgeWindow EDGE) {
+        if (!EDGE.changed) {
+            EDGE.changed = true;
+            changedEdges.add(EDGE);
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class EdgeWindow {
+        private final int      id;
+        private final PlotItem source;
+        private final PlotItem target;
+        private final double[] buckets;
+        private final long[]   lastBucket;
+        private       double   total;
+        private       int      noOfLiveBuckets;
+        private       boolean  changed;
+
+
+        // ******************** Constructors **********************************
+        EdgeWindow(final int ID, final PlotItem SOURCE, final PlotItem TARGET, final int NO_OF_BUCKETS) {
+            id         = ID;
+            source     = SOURCE;
+            target     = TARGET;
+            buckets    = new double[NO_OF_BUCKETS];
+            lastBucket = new long[NO_OF_BUCKETS];
+            Arrays.fill(lastBucket, Long.MIN_VALUE);
+        }
+    }
+}
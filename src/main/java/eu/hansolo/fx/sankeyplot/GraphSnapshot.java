@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Immutable, versioned copy of a graph of PlotItems.
+ * The edges are stored in compressed sparse row form: the outgoing edges of
+ * node n are the edge indices outStart[n] until outStart[n + 1] in the
+ * insertion order of PlotItem.getOutgoing(), the incoming edges of node n are
+ * inEdges[inStart[n]] until inEdges[inStart[n + 1] - 1] in the insertion order
+ * of PlotItem.getIncoming(). Edges to items that are not part of the graph
+ * are not part of the snapshot.
+ * A snapshot never changes after creation and can be read from any thread,
+ * which makes it the base for layout, rendering, export and analytics.
+ * Create it on the thread that mutates the items.
+ */
+public final class GraphSnapshot {
+    private static final AtomicLong              VERSION_COUNTER  = new AtomicLong();
+    private static final double                  MAX_DIRTY_RATIO  = 0.25;
+    public  static final GraphSnapshot           EMPTY            = new GraphSnapshot(new PlotItem[0]);
+    private        final long                    version;
+    private        final PlotItem[]              items;
+    private        final Map<PlotItem, Integer>  indices;
+    private        final long[]                  modCounts;
+    private        final String[]                names;
+    private        final String[]                descriptions;
+    private        final Color[]                 colors;
+    private        final double[]                values;
+    private        final double[]                sumsOfIncoming;
+    private        final double[]                sumsOfOutgoing;
+    private        final int[]                   outStart;
+    private        final int[]                   edgeSources;
+    private        final int[]                   edgeTargets;
+    private        final double[]                edgeValues;
+    private        final int[]                   inStart;
+    private        final int[]                   inEdges;
+    private     volatile long                    contentHash;
+
+
+    // ******************** Constructors **************************************
+    private GraphSnapshot(final PlotItem[] ITEMS) {
+        final int NO_OF_NODES = ITEMS.length;
+        version        = VERSION_COUNTER.incrementAndGet();
+        items          = ITEMS;
+        indices        = new IdentityHashMap<>(NO_OF_NODES);
+        modCounts      = new long[NO_OF_NODES];
+        names          = new String[NO_OF_NODES];
+        descriptions   = new String[NO_OF_NODES];
+        colors         = new Color[NO_OF_NODES];
+        values         = new double[NO_OF_NODES];
+        sumsOfIncoming = new double[NO_OF_NODES];
+        sumsOfOutgoing = new double[NO_OF_NODES];
+        outStart       = new int[NO_OF_NODES + 1];
+        inStart        = new int[NO_OF_NODES + 1];
+
+        for (int i = 0 ; i < NO_OF_NODES ; i++) { indices.put(ITEMS[i], i); }
+
+        // Outgoing maps are copy on write, grab each of them once to get a consistent view
+        List<Map<PlotItem, Double>> outgoingMaps = new ArrayList<>(NO_OF_NODES);
+        int noOfEdges = 0;
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            PlotItem item = ITEMS[i];
+            modCounts[i]    = item.getModCount();
+            names[i]        = item.getName();
+            descriptions[i] = item.getDescription();
+            colors[i]       = item.getColor();
+            values[i]       = item.getValue();
+            Map<PlotItem, Double> outgoing = item.getOutgoing();
+            outgoingMaps.add(outgoing);
+            for (Map.Entry<PlotItem, Double> entry : outgoing.entrySet()) {
+                sumsOfOutgoing[i] += entry.getValue();
+                if (indices.containsKey(entry.getKey())) { noOfEdges++; }
+            }
+            for (Double value : item.getIncoming().values()) { sumsOfIncoming[i] += value; }
+        }
+
+        edgeSources = new int[noOfEdges];
+        edgeTargets = new int[noOfEdges];
+        edgeValues  = new double[noOfEdges];
+        Map<Long, Integer> edgeLookup = new HashMap<>(noOfEdges * 2);
+        int edge = 0;
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            outStart[i] = edge;
+            for (Map.Entry<PlotItem, Double> entry : outgoingMaps.get(i).entrySet()) {
+                Integer target = indices.get(entry.getKey());
+                if (null == target) { continue; }
+                edgeSources[edge] = i;
+                edgeTargets[edge] = target;
+                edgeValues[edge]  = entry.getValue();
+                edgeLookup.put(key(i, target), edge);
+                edge++;
+            }
+        }
+        outStart[NO_OF_NODES] = edge;
+
+        // Incoming edges in the order of the incoming maps, edges only known from outgoing maps are appended
+        inEdges = new int[noOfEdges];
+        boolean[] placed = new boolean[noOfEdges];
+        int[]     inEnd  = new int[NO_OF_NODES];
+        int[]     degree = new int[NO_OF_NODES];
+        for (int e = 0 ; e < noOfEdges ; e++) { degree[edgeTargets[e]]++; }
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            inStart[i + 1] = inStart[i] + degree[i];
+            inEnd[i]       = inStart[i];
+        }
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            for (PlotItem source : ITEMS[i].getIncoming().keySet()) {
+                Integer sourceIndex = indices.get(source);
+                if (null == sourceIndex) { continue; }
+                Integer e = edgeLookup.get(key(sourceIndex, i));
+                if (null == e || placed[e]) { continue; }
+                placed[e]           = true;
+                inEdges[inEnd[i]++] = e;
+            }
+        }
+        for (int e = 0 ; e < noOfEdges ; e++) {
+            if (!placed[e]) { inEdges[inEnd[edgeTargets[e]]++] = e; }
+        }
+    }
+
+
+    private GraphSnapshot(final PlotItem[] ITEMS, final Map<PlotItem, Integer> INDICES, final GraphSnapshot PREVIOUS, final int[] OLD_INDICES, final boolean[] DIRTY) {
+        final int NO_OF_NODES = ITEMS.length;
+        version        = VERSION_COUNTER.incrementAndGet();
+        items          = ITEMS;
+        indices        = INDICES;
+        modCounts      = new long[NO_OF_NODES];
+        names          = new String[NO_OF_NODES];
+        descriptions   = new String[NO_OF_NODES];
+        colors         = new Color[NO_OF_NODES];
+        values         = new double[NO_OF_NODES];
+        sumsOfIncoming = new double[NO_OF_NODES];
+        sumsOfOutgoing = new double[NO_OF_NODES];
+        outStart       = new int[NO_OF_NODES + 1];
+        inStart        = new int[NO_OF_NODES + 1];
+
+        // Clean nodes are copied, only dirty nodes are read from their items
+        List<Map<PlotItem, Double>> outgoingMaps = new ArrayList<>(NO_OF_NODES);
+        int noOfEdges = 0;
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            outStart[i] = noOfEdges;
+            if (!DIRTY[i]) {
+                int old = OLD_INDICES[i];
+                modCounts[i]      = PREVIOUS.modCounts[old];
+                names[i]          = PREVIOUS.names[old];
+                descriptions[i]   = PREVIOUS.descriptions[old];
+                colors[i]         = PREVIOUS.colors[old];
+                values[i]         = PREVIOUS.values[old];
+                sumsOfIncoming[i] = PREVIOUS.sumsOfIncoming[old];
+                sumsOfOutgoing[i] = PREVIOUS.sumsOfOutgoing[old];
+                outgoingMaps.add(null);
+                noOfEdges += PREVIOUS.outStart[old + 1] - PREVIOUS.outStart[old];
+                continue;
+            }
+            PlotItem item = ITEMS[i];
+            modCounts[i]    = item.getModCount();
+            names[i]        = item.getName();
+            descriptions[i] = item.getDescription();
+            colors[i]       = item.getColor();
+            values[i]       = item.getValue();
+            Map<PlotItem, Double> outgoing = item.getOutgoing();
+            outgoingMaps.add(outgoing);
+            for (Map.Entry<PlotItem, Double> entry : outgoing.entrySet()) {
+                sumsOfOutgoing[i] += entry.getValue();
+                if (INDICES.containsKey(entry.getKey())) { noOfEdges++; }
+            }
+            for (Double value : item.getIncoming().values()) { sumsOfIncoming[i] += value; }
+        }
+        outStart[NO_OF_NODES] = noOfEdges;
+
+        // Only the edges from or to dirty nodes have to be looked up
+        edgeSources = new int[noOfEdges];
+        edgeTargets = new int[noOfEdges];
+        edgeValues  = new double[noOfEdges];
+        Map<Long, Integer> edgeLookup = new HashMap<>();
+        int[] oldToNew = new int[PREVIOUS.items.length];
+        Arrays.fill(oldToNew, -1);
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            if (OLD_INDICES[i] >= 0) { oldToNew[OLD_INDICES[i]] = i; }
+        }
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            int edge = outStart[i];
+            if (!DIRTY[i]) {
+                int old = OLD_INDICES[i];
+                for (int e = PREVIOUS.outStart[old] ; e < PREVIOUS.outStart[old + 1] ; e++, edge++) {
+                    int target = oldToNew[PREVIOUS.edgeTargets[e]];
+                    edgeSources[edge] = i;
+                    edgeTargets[edge] = target;
+                    edgeValues[edge]  = PREVIOUS.edgeValues[e];
+                    if (DIRTY[target]) { edgeLookup.put(key(i, target), edge); }
+                }
+                continue;
+            }
+            for (Map.Entry<PlotItem, Double> entry : outgoingMaps.get(i).entrySet()) {
+                Integer target = INDICES.get(entry.getKey());
+                if (null == target) { continue; }
+                edgeSources[edge] = i;
+                edgeTargets[edge] = target;
+                edgeValues[edge]  = entry.getValue();
+                edgeLookup.put(key(i, target), edge);
+                edge++;
+            }
+        }
+
+        // Clean nodes keep the order of their incoming edges, dirty nodes are sorted like in a new snapshot
+        inEdges = new int[noOfEdges];
+        int[] inEnd  = new int[NO_OF_NODES];
+        int[] degree = new int[NO_OF_NODES];
+        for (int e = 0 ; e < noOfEdges ; e++) { degree[edgeTargets[e]]++; }
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            inStart[i + 1] = inStart[i] + degree[i];
+            inEnd[i]       = inStart[i];
+        }
+        for (int e = 0 ; e < noOfEdges ; e++) {
+            if (DIRTY[edgeTargets[e]]) { inEdges[inEnd[edgeTargets[e]]++] = e; }
+        }
+        boolean[] placed = new boolean[noOfEdges];
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            int position = inStart[i];
+            if (!DIRTY[i]) {
+                int old = OLD_INDICES[i];
+                for (int p = PREVIOUS.inStart[old] ; p < PREVIOUS.inStart[old + 1] ; p++) {
+                    int e      = PREVIOUS.inEdges[p];
+                    int source = oldToNew[PREVIOUS.edgeSources[e]];
+                    inEdges[position++] = DIRTY[source] ? edgeLookup.get(key(source, i)) : outStart[source] + e - PREVIOUS.outStart[PREVIOUS.edgeSources[e]];
+                }
+                continue;
+            }
+            int[] byEdge = Arrays.copyOfRange(inEdges, inStart[i], inStart[i + 1]);
+            for (PlotItem source : ITEMS[i].getIncoming().keySet()) {
+                Integer sourceIndex = INDICES.get(source);
+                if (null == sourceIndex) { continue; }
+                Integer e = edgeLookup.get(key(sourceIndex, i));
+                if (null == e || placed[e]) { continue; }
+                placed[e]           = true;
+                inEdges[position++] = e;
+            }
+            for (int e : byEdge) {
+                if (!placed[e]) { inEdges[position++] = e; }
+            }
+        }
+    }
+
+    private GraphSnapshot(final GraphSnapshot SOURCE, final int[] NODES, final int[] LOCAL_INDEX) {
+        final int NO_OF_NODES = NODES.length;
+        version        = VERSION_COUNTER.incrementAndGet();
+        items          = new PlotItem[NO_OF_NODES];
+        indices        = new IdentityHashMap<>(NO_OF_NODES);
+        modCounts      = new long[NO_OF_NODES];
+        names          = new String[NO_OF_NODES];
+        descriptions   = new String[NO_OF_NODES];
+        colors         = new Color[NO_OF_NODES];
+        values         = new double[NO_OF_NODES];
+        sumsOfIncoming = new double[NO_OF_NODES];
+        sumsOfOutgoing = new double[NO_OF_NODES];
+        outStart       = new int[NO_OF_NODES + 1];
+        inStart        = new int[NO_OF_NODES + 1];
+
+        int noOfEdges = 0;
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            int node = NODES[i];
+            items[i]          = SOURCE.items[node];
+            modCounts[i]      = SOURCE.modCounts[node];
+            names[i]          = SOURCE.names[node];
+            descriptions[i]   = SOURCE.descriptions[node];
+            colors[i]         = SOURCE.colors[node];
+            values[i]         = SOURCE.values[node];
+            sumsOfIncoming[i] = SOURCE.sumsOfIncoming[node];
+            sumsOfOutgoing[i] = SOURCE.sumsOfOutgoing[node];
+            indices.put(items[i], i);
+            outStart[i]    = noOfEdges;
+            inStart[i + 1] = inStart[i] + SOURCE.inStart[node + 1] - SOURCE.inStart[node];
+            noOfEdges     += SOURCE.outStart[node + 1] - SOURCE.outStart[node];
+        }
+        outStart[NO_OF_NODES] = noOfEdges;
+
+        // The edges keep their order, edge e of node n becomes outStart[i] + (e - SOURCE.outStart[n])
+        edgeSources = new int[noOfEdges];
+        edgeTargets = new int[noOfEdges];
+        edgeValues  = new double[noOfEdges];
+        inEdges     = new int[noOfEdges];
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            int node = NODES[i];
+            for (int edge = SOURCE.outStart[node] ; edge < SOURCE.outStart[node + 1] ; edge++) {
+                int local = outStart[i] + edge - SOURCE.outStart[node];
+                edgeSources[local] = i;
+                edgeTargets[local] = LOCAL_INDEX[SOURCE.edgeTargets[edge]];
+                edgeValues[local]  = SOURCE.edgeValues[edge];
+            }
+            for (int position = SOURCE.inStart[node] ; position < SOURCE.inStart[node + 1] ; position++) {
+                int edge   = SOURCE.inEdges[position];
+                int source = SOURCE.edgeSources[edge];
+                inEdges[inStart[i] + position - SOURCE.inStart[node]] = outStart[LOCAL_INDEX[source]] + edge - SOURCE.outStart[source];
+            }
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    public static GraphSnapshot of(final Collection<PlotItem> ITEMS) {
+        return ITEMS.isEmpty() ? EMPTY : new GraphSnapshot(ITEMS.toArray(new PlotItem[0]));
+    }
+    /**
+     * Returns the same snapshot as of(ITEMS) but only reads the items that
+     * were added or modified since the given previous snapshot was taken and
+     * the items that were or are connected to them, everything else is
+     * copied from the previous snapshot. Falls back to of(ITEMS) if the
+     * remaining items changed their order or if more than a quarter of the
+     * items would have to be read again.
+     * This relies on PlotItem keeping both sides of a flow in sync.
+     */
+    public static GraphSnapshot of(final List<PlotItem> ITEMS, final GraphSnapshot PREVIOUS) {
+        final int NO_OF_NODES = ITEMS.size();
+        if (null == PREVIOUS || 0 == NO_OF_NODES || 0 == PREVIOUS.items.length) { return of(ITEMS); }
+
+        final PlotItem[]             ITEM_ARRAY  = ITEMS.toArray(new PlotItem[0]);
+        final Map<PlotItem, Integer> INDICES     = new IdentityHashMap<>(NO_OF_NODES);
+        final int[]                  OLD_INDICES = new int[NO_OF_NODES];
+        final boolean[]              MODIFIED    = new boolean[NO_OF_NODES];
+        final boolean[]              KEPT        = new boolean[PREVIOUS.items.length];
+        final int                    MAX_DIRTY   = (int) (NO_OF_NODES * MAX_DIRTY_RATIO);
+        int lastOldIndex = -1;
+        int noOfDirty    = 0;
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            PlotItem item = ITEM_ARRAY[i];
+            if (null != INDICES.put(item, i)) { return new GraphSnapshot(ITEM_ARRAY); }
+            int oldIndex = PREVIOUS.indexOf(item);
+            OLD_INDICES[i] = oldIndex;
+            if (-1 == oldIndex) {
+                MODIFIED[i] = true;
+            } else {
+                if (oldIndex < lastOldIndex) { return new GraphSnapshot(ITEM_ARRAY); }
+                lastOldIndex   = oldIndex;
+                KEPT[oldIndex] = true;
+                MODIFIED[i]    = item.getModCount() != PREVIOUS.modCounts[oldIndex];
+            }
+            if (MODIFIED[i] && ++noOfDirty > MAX_DIRTY) { return new GraphSnapshot(ITEM_ARRAY); }
+        }
+
+        // Nodes are dirty if they were added or modified or if they were or are connected to such a node or to a removed node
+        final boolean[] DIRTY = MODIFIED.clone();
+        for (int i = 0 ; i < NO_OF_NODES ; i++) {
+            if (!MODIFIED[i]) { continue; }
+            noOfDirty += markDirty(ITEM_ARRAY[i].getOutgoing(), INDICES, DIRTY) + markDirty(ITEM_ARRAY[i].getIncoming(), INDICES, DIRTY);
+            if (OLD_INDICES[i] >= 0) { noOfDirty += PREVIOUS.markDirty(OLD_INDICES[i], INDICES, DIRTY); }
+            if (noOfDirty > MAX_DIRTY) { return new GraphSnapshot(ITEM_ARRAY); }
+        }
+        for (int old = 0 ; old < KEPT.length ; old++) {
+            if (KEPT[old]) { continue; }
+            noOfDirty += PREVIOUS.markDirty(old, INDICES, DIRTY);
+            if (noOfDirty > MAX_DIRTY) { return new GraphSnapshot(ITEM_ARRAY); }
+        }
+        return new GraphSnapshot(ITEM_ARRAY, INDICES, PREVIOUS, OLD_INDICES, DIRTY);
+    }
+
+    /**
+     * Returns true if the given items are exactly the items of this snapshot
+     * and none of them was modified since the snapshot was taken.
+     */
+    public boolean isCurrent(final List<PlotItem> ITEMS) {
+        if (ITEMS.size() != items.length) { return false; }
+        for (int i = 0 ; i < items.length ; i++) {
+            PlotItem item = ITEMS.get(i);
+            if (item != items[i] || item.getModCount() != modCounts[i]) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the snapshot of the given nodes, which have to be in ascending
+     * order and have to include every node that is connected to one of them.
+     * LOCAL_INDEX maps every one of the nodes to its position in NODES.
+     * The items are not touched, so it can be called on any thread.
+     */
+    GraphSnapshot subgraph(final int[] NODES, final int[] LOCAL_INDEX) { return new GraphSnapshot(this, NODES, LOCAL_INDEX); }
+
+    /**
+     * Returns true if the given snapshot contains the same items in the same
+     * order, connected by the same edges with the same values.
+     */
+    boolean hasSameEdges(final GraphSnapshot OTHER) {
+        if (OTHER.items.length != items.length) { return false; }
+        for (int i = 0 ; i < items.length ; i++) {
+            if (OTHER.items[i] != items[i]) { return false; }
+        }
+        return Arrays.equals(outStart, OTHER.outStart) && Arrays.equals(edgeTargets, OTHER.edgeTargets) && Arrays.equals(edgeValues, OTHER.edgeValues) &&
+               Arrays.equals(inStart, OTHER.inStart) && Arrays.equals(inEdges, OTHER.inEdges);
+    }
+
+    public long getVersion() { return version; }
+
+    /**
+     * Returns a 64 bit hash of everything the layout of this snapshot depends
+     * on: the values and sums of the nodes and the edges with their values in
+     * the order of the outgoing and incoming flows. Unlike the version it is
+     * the same for equal graphs, names, descriptions and colors don't count.
+     * It is computed on first use.
+     */
+    public long getContentHash() {
+        long hash = contentHash;
+        if (0 == hash) {
+            hash = mix(items.length, edgeSources.length);
+            for (int i = 0 ; i < items.length ; i++) {
+                hash = mix(hash, Double.doubleToLongBits(values[i]));
+                hash = mix(hash, Double.doubleToLongBits(sumsOfIncoming[i]));
+                hash = mix(hash, Double.doubleToLongBits(sumsOfOutgoing[i]));
+                hash = mix(hash, ((long) outStart[i + 1] << 32) | inStart[i + 1]);
+            }
+            for (int e = 0 ; e < edgeSources.length ; e++) {
+                hash = mix(hash, ((long) edgeTargets[e] << 32) | inEdges[e]);
+                hash = mix(hash, Double.doubleToLongBits(edgeValues[e]));
+            }
+            // Finalizer of MurmurHash3, 0 marks a hash that is not computed yet
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            if (0 == hash) { hash = 1; }
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    public int getNoOfNodes() { return items.length; }
+
+    public int getNoOfEdges() { return edgeSources.length; }
+
+    public PlotItem getItem(final int NODE) { return items[NODE]; }
+
+    /**
+     * Returns the node index of the given item or -1 if it is not part of the snapshot.
+     */
+    public int indexOf(final PlotItem ITEM) {
+        Integer index = indices.get(ITEM);
+        return null == index ? -1 : index;
+    }
+
+    public String getName(final int NODE) { return names[NODE]; }
+
+    public String getDescription(final int NODE) { return descriptions[NODE]; }
+
+    public Color getColor(final int NODE) { return colors[NODE]; }
+
+    public double getValue(final int NODE) { return values[NODE]; }
+
+    public double getSumOfIncoming(final int NODE) { return sumsOfIncoming[NODE]; }
+
+    public double getSumOfOutgoing(final int NODE) { return sumsOfOutgoing[NODE]; }
+
+    public double getMaxSum(final int NODE) { return Math.max(sumsOfIncoming[NODE], sumsOfOutgoing[NODE]); }
+
+    public int getOutgoingStart(final int NODE) { return outStart[NODE]; }
+    public int getOutgoingEnd(final int NODE) { return outStart[NODE + 1]; }
+
+    public int getIncomingStart(final int NODE) { return inStart[NODE]; }
+    public int getIncomingEnd(final int NODE) { return inStart[NODE + 1]; }
+    public int getIncomingEdge(final int POSITION) { return inEdges[POSITION]; }
+
+    public boolean hasOutgoing(final int NODE) { return outStart[NODE + 1] > outStart[NODE]; }
+
+    public boolean hasIncoming(final int NODE) { return inStart[NODE + 1] > inStart[NODE]; }
+
+    public int getEdgeSource(final int EDGE) { return edgeSources[EDGE]; }
+
+    public int getEdgeTarget(final int EDGE) { return edgeTargets[EDGE]; }
+
+    public double getEdgeValue(final int EDGE) { return edgeValues[EDGE]; }
+
+    // Marks the neighbours of the given node of this snapshot, returns the number of newly marked nodes
+    private int markDirty(final int NODE, final Map<PlotItem, Integer> INDICES, final boolean[] DIRTY) {
+        int marked = 0;
+        for (int e = outStart[NODE] ; e < outStart[NODE + 1] ; e++) { marked += markDirty(items[edgeTargets[e]], INDICES, DIRTY); }
+        for (int p = inStart[NODE] ; p < inStart[NODE + 1] ; p++) { marked += markDirty(items[edgeSources[inEdges[p]]], INDICES, DIRTY); }
+        return marked;
+    }
+    private static int markDirty(final Map<PlotItem, Double> FLOWS, final Map<PlotItem, Integer> INDICES, final boolean[] DIRTY) {
+        int marked = 0;
+        for (PlotItem item : FLOWS.keySet()) { marked += markDirty(item, INDICES, DIRTY); }
+        return marked;
+    }
+    private static int markDirty(final PlotItem ITEM, final Map<PlotItem, Integer> INDICES, final boolean[] DIRTY) {
+        Integer index = INDICES.get(ITEM);
+        if (null == index || DIRTY[index]) { return 0; }
+        DIRTY[index] = true;
+        return 1;
+    }
+
+    private static long mix(final long HASH, final long VALUE) { return Long.rotateLeft(HASH ^ (VALUE * 0x9e3779b97f4a7c15L), 31) * 0xbf58476d1ce4e5b9L; }
+
+    private static long key(final int SOURCE, final int TARGET) { return ((long) SOURCE << 32) | (TARGET & 0xffffffffL); }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Arrays;
+
+
+/**
+ * Spatial index over the nodes and links of a SankeyLayout.
+ * Nodes are found by a binary search over the level columns followed by a
+ * binary search over the nodes of the column, which are sorted by y.
+ * The upper edge of every link is flattened into a polyline, the polylines
+ * are registered in fixed width x-columns (bins). Within a bin the links are
+ * sorted by their minimum y and carry the running maximum of their lower
+ * edge, so a query only looks at the links that can contain the point.
+ * Immutable after creation, see SankeyLayout.getHitIndex().
+ */
+final class HitIndex {
+    private static final int      SEGMENTS = 32;
+    private        final int[]    columnNodes;
+    private        final int[]    columnStart;
+    private        final double[] columnMinX;
+    private        final double[] columnMaxX;
+    private        final double[] nodeX;
+    private        final double[] nodeY;
+    private        final double[] nodeWidth;
+    private        final double[] nodeHeight;
+    private        final double[] pointX;
+    private        final double[] pointY;
+    private        final double[] linkHeight;
+    private        final double   minX;
+    private        final double   binWidth;
+    private        final int[]    binStart;
+    private        final int[]    binLinks;
+    private        final double[] binMinY;
+    private        final double[] binMaxY;
+
+
+    // ******************** Constructors **************************************
+    HitIndex(final SankeyLayout LAYOUT) {
+        final int NODES  = LAYOUT.getSnapshot().getNoOfNodes();
+        final int LINKS  = LAYOUT.getNoOfLinks();
+        final int LEVELS = LAYOUT.getNoOfLevels();
+
+        nodeX      = new double[NODES];
+        nodeY      = new double[NODES];
+        nodeWidth  = new double[NODES];
+        nodeHeight = new double[NODES];
+        for (int node = 0 ; node < NODES ; node++) {
+            nodeX[node]      = LAYOUT.getNodeX(node);
+            nodeY[node]      = LAYOUT.getNodeY(node);
+            nodeWidth[node]  = LAYOUT.getNodeWidth(node);
+            nodeHeight[node] = LAYOUT.getNodeHeight(node);
+        }
+
+        // One column per level, columns sorted by x, nodes within a column sorted by y
+        columnNodes = new int[NODES];
+        columnStart = new int[LEVELS + 1];
+        columnMinX  = new double[LEVELS];
+        columnMaxX  = new double[LEVELS];
+        Integer[] order = new Integer[LEVELS];
+        for (int i = 0 ; i < LEVELS ; i++) {
+            order[i]      = i;
+            columnMinX[i] = Double.MAX_VALUE;
+            columnMaxX[i] = -Double.MAX_VALUE;
+            int level = LAYOUT.getMinLevel() + i;
+            for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) {
+                int node = LAYOUT.getLevelNode(position);
+                columnMinX[i] = Math.min(columnMinX[i], nodeX[node]);
+                columnMaxX[i] = Math.max(columnMaxX[i], nodeX[node] + nodeWidth[node]);
+            }
+        }
+        Arrays.sort(order, (i1, i2) -> Double.compare(columnMinX[i1], columnMinX[i2]));
+        double[] sortedMinX = new double[LEVELS];
+        double[] sortedMaxX = new double[LEVELS];
+        int      fill       = 0;
+        for (int column = 0 ; column < LEVELS ; column++) {
+            int level = LAYOUT.getMinLevel() + order[column];
+            sortedMinX[column]  = columnMinX[order[column]];
+            sortedMaxX[column]  = columnMaxX[order[column]];
+            columnStart[column] = fill;
+            Integer[] nodes = new Integer[LAYOUT.getLevelEnd(level) - LAYOUT.getLevelStart(level)];
+            for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) { nodes[position - LAYOUT.getLevelStart(level)] = LAYOUT.getLevelNode(position); }
+            Arrays.sort(nodes, (n1, n2) -> Double.compare(nodeY[n1], nodeY[n2]));
+            for (Integer node : nodes) { columnNodes[fill++] = node; }
+        }
+        columnStart[LEVELS] = fill;
+        System.arraycopy(sortedMinX, 0, columnMinX, 0, LEVELS);
+        System.arraycopy(sortedMaxX, 0, columnMaxX, 0, LEVELS);
+
+        // Flatten the upper edge of every link
+        pointX     = new double[LINKS * (SEGMENTS + 1)];
+        pointY     = new double[LINKS * (SEGMENTS + 1)];
+        linkHeight = new double[LINKS];
+        double x0 = Double.MAX_VALUE;
+        double x1 = -Double.MAX_VALUE;
+        for (int link = 0 ; link < LINKS ; link++) {
+            double startX  = nodeX[LAYOUT.getLinkSource(link)] + nodeWidth[LAYOUT.getLinkSource(link)];
+            double endX    = nodeX[LAYOUT.getLinkTarget(link)];
+            double startY  = LAYOUT.getLinkSourceY(link);
+            double endY    = LAYOUT.getLinkTargetY(link);
+            double offsetX = (endX - startX) * 0.25;
+            for (int i = 0 ; i <= SEGMENTS ; i++) {
+                double t  = (double) i / SEGMENTS;
+                double mt = 1 - t;
+                double a  = mt * mt * mt;
+                double b  = 3 * mt * mt * t;
+                double c  = 3 * mt * t * t;
+                double d  = t * t * t;
+                pointX[link * (SEGMENTS + 1) + i] = a * startX + b * (startX + offsetX) + c * (endX - offsetX) + d * endX;
+                pointY[link * (SEGMENTS + 1) + i] = (a + b) * startY + (c + d) * endY;
+            }
+            linkHeight[link] = LAYOUT.getLinkHeight(link);
+            x0 = Math.min(x0, Math.min(startX, endX));
+            x1 = Math.max(x1, Math.max(startX, endX));
+        }
+
+        // Register the links in the bins they cross
+        minX     = LINKS > 0 ? x0 : 0;
+        binWidth = LINKS > 0 ? Math.max(4, (x1 - x0) / 256) : 1;
+        final int BINS = LINKS > 0 ? (int) ((x1 - x0) / binWidth) + 1 : 0;
+        binStart = new int[BINS + 1];
+        for (int link = 0 ; link < LINKS ; link++) {
+            for (int bin = getFirstBin(link) ; bin <= getLastBin(link) ; bin++) { binStart[bin + 1]++; }
+        }
+        for (int bin = 0 ; bin < BINS ; bin++) { binStart[bin + 1] += binStart[bin]; }
+        binLinks = new int[binStart[BINS]];
+        binMinY  = new double[binStart[BINS]];
+        binMaxY  = new double[binStart[BINS]];
+        int[]    binFill = Arrays.copyOf(binStart, BINS);
+        double[] minY    = new double[binStart[BINS]];
+        for (int link = 0 ; link < LINKS ; link++) {
+            for (int bin = getFirstBin(link) ; bin <= getLastBin(link) ; bin++) {
+                int entry = binFill[bin]++;
+                binLinks[entry] = link;
+                minY[entry]     = getMinY(link, minX + bin * binWidth, minX + (bin + 1) * binWidth);
+            }
+        }
+        for (int bin = 0 ; bin < BINS ; bin++) {
+            int       start   = binStart[bin];
+            int       end     = binStart[bin + 1];
+            Integer[] entries = new Integer[end - start];
+            for (int i = start ; i < end ; i++) { entries[i - start] = i; }
+            Arrays.sort(entries, (e1, e2) -> Double.compare(minY[e1], minY[e2]));
+            int[] links = new int[end - start];
+            for (int i = start ; i < end ; i++) {
+                int entry = entries[i - start];
+                links[i - start] = binLinks[entry];
+                binMinY[i]       = minY[entry];
+            }
+            // Running maximum of the lower edges to know when to stop walking down
+            double maxY = -Double.MAX_VALUE;
+            for (int i = start ; i < end ; i++) {
+                binLinks[i] = links[i - start];
+                maxY        = Math.max(maxY, getMaxY(binLinks[i], minX + bin * binWidth, minX + (bin + 1) * binWidth));
+                binMaxY[i]  = maxY;
+            }
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the node at the given position or -1.
+     */
+    int getNodeAt(final double X, final double Y) {
+        int column = floor(columnMinX, 0, columnMinX.length, X);
+        if (column < 0 || X > columnMaxX[column]) { return -1; }
+        int start = columnStart[column];
+        int end   = columnStart[column + 1];
+        int lo    = start;
+        int hi    = end - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (nodeY[columnNodes[mid]] <= Y) {
+                found = mid;
+                lo    = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) { return -1; }
+        int node = columnNodes[found];
+        return Y <= nodeY[node] + nodeHeight[node] && X >= nodeX[node] && X <= nodeX[node] + nodeWidth[node] ? node : -1;
+    }
+
+    /**
+     * Returns the top most link (the last one painted) at the given position or -1.
+     */
+    int getLinkAt(final double X, final double Y) {
+        if (binStart.length < 2 || X < minX) { return -1; }
+        int bin = (int) ((X - minX) / binWidth);
+        if (bin >= binStart.length - 1) { return -1; }
+        int start = binStart[bin];
+        int last  = floor(binMinY, start, binStart[bin + 1], Y);
+        int hit   = -1;
+        for (int i = last ; i >= start && binMaxY[i] >= Y ; i--) {
+            int link = binLinks[i];
+            if (link > hit && contains(link, X, Y)) { hit = link; }
+        }
+        return hit;
+    }
+
+    private boolean contains(final int LINK, final double X, final double Y) {
+        final int OFFSET = LINK * (SEGMENTS + 1);
+        if (X < pointX[OFFSET] || X > pointX[OFFSET + SEGMENTS]) { return false; }
+        int segment = floor(pointX, OFFSET, OFFSET + SEGMENTS, X);
+        double dx      = pointX[segment + 1] - pointX[segment];
+        double top     = dx > 0 ? pointY[segment] + (pointY[segment + 1] - pointY[segment]) * (X - pointX[segment]) / dx : pointY[segment];
+        return Y >= top && Y <= top + linkHeight[LINK];
+    }
+
+    private int getFirstBin(final int LINK) { return (int) ((pointX[LINK * (SEGMENTS + 1)] - minX) / binWidth); }
+    private int getLastBin(final int LINK) { return (int) ((pointX[LINK * (SEGMENTS + 1) + SEGMENTS] - minX) / binWidth); }
+
+    private double getMinY(final int LINK, final double FROM_X, final double TO_X) {
+        final int OFFSET = LINK * (SEGMENTS + 1);
+        double min = Double.MAX_VALUE;
+        for (int i = 0 ; i <= SEGMENTS ; i++) {
+            if (overlaps(OFFSET + i, FROM_X, TO_X)) { min = Math.min(min, pointY[OFFSET + i]); }
+        }
+        return min;
+    }
+
+    private double getMaxY(final int LINK, final double FROM_X, final double TO_X) {
+        final int OFFSET = LINK * (SEGMENTS + 1);
+        double max = -Double.MAX_VALUE;
+        for (int i = 0 ; i <= SEGMENTS ; i++) {
+            if (overlaps(OFFSET + i, FROM_X, TO_X)) { max = Math.max(max, pointY[OFFSET + i]); }
+        }
+        return max + linkHeight[LINK];
+    }
+
+    /**
+     * Returns true if the segment that ends or starts at the given point overlaps the given x range.
+     */
+    private boolean overlaps(final int POINT, final double FROM_X, final double TO_X) {
+        final int    LINK_OFFSET = POINT - POINT % (SEGMENTS + 1);
+        final double PREVIOUS_X  = POINT > LINK_OFFSET ? pointX[POINT - 1] : pointX[POINT];
+        final double NEXT_X      = POINT < LINK_OFFSET + SEGMENTS ? pointX[POINT + 1] : pointX[POINT];
+        return NEXT_X >= FROM_X && PREVIOUS_X <= TO_X;
+    }
+
+    /**
+     * Returns the last index in the sorted range whose value is less or equal to the given value or -1.
+     */
+    private static int floor(final double[] VALUES, final int FROM, final int TO, final double VALUE) {
+        int lo    = FROM;
+        int hi    = TO - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (VALUES[mid] <= VALUE) {
+                found = mid;
+                lo    = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+/**
+ * Immutable set of parameters that, together with a GraphSnapshot,
+ * fully determines a SankeyLayout. Only a relaxation that runs out of
+ * its time budget may end at a different iteration on each run.
+ */
+public final class LayoutSettings {
+    private final double width;
+    private final double height;
+    private final double itemWidth;
+    private final double itemGap;
+    private final double textGap;
+    private final int    relaxationIterations;
+    private final long   relaxationBudget;
+
+
+    // ******************** Constructors **************************************
+    public LayoutSettings(final double WIDTH, final double HEIGHT, final double ITEM_WIDTH, final double ITEM_GAP, final double TEXT_GAP) {
+        this(WIDTH, HEIGHT, ITEM_WIDTH, ITEM_GAP, TEXT_GAP, 0, 0);
+    }
+    /**
+     * RELAXATION_ITERATIONS > 0 moves the nodes towards the weighted center
+     * of their neighbours in up to the given number of iterations, which stop
+     * early once RELAXATION_BUDGET (in ms, 0 for no limit) is used up.
+     */
+    public LayoutSettings(final double WIDTH, final double HEIGHT, final double ITEM_WIDTH, final double ITEM_GAP, final double TEXT_GAP,
+                          final int RELAXATION_ITERATIONS, final long RELAXATION_BUDGET) {
+        if (RELAXATION_ITERATIONS < 0) { throw new IllegalArgumentException("Relaxation iterations must not be negative"); }
+        if (RELAXATION_BUDGET < 0) { throw new IllegalArgumentException("Relaxation budget must not be negative"); }
+        width                = WIDTH;
+        height               = HEIGHT;
+        itemWidth            = ITEM_WIDTH;
+        itemGap              = ITEM_GAP;
+        textGap              = TEXT_GAP;
+        relaxationIterations = RELAXATION_ITERATIONS;
+        relaxationBudget     = RELAXATION_BUDGET;
+    }
+
+
+    // ******************** Methods *******************************************
+    public double getWidth() { return width; }
+
+    public double getHeight() { return height; }
+
+    public double getItemWidth() { return itemWidth; }
+
+    public double getItemGap() { return itemGap; }
+
+    public double getTextGap() { return textGap; }
+
+    public int getRelaxationIterations() { return relaxationIterations; }
+
+    public long getRelaxationBudget() { return relaxationBudget; }
+
+    @Override public boolean equals(final Object OBJECT) {
+        if (this == OBJECT) { return true; }
+        if (!(OBJECT instanceof LayoutSettings)) { return false; }
+        LayoutSettings settings = (LayoutSettings) OBJECT;
+        return Double.compare(width, settings.width) == 0 &&
+               Double.compare(height, settings.height) == 0 &&
+               Double.compare(itemWidth, settings.itemWidth) == 0 &&
+               Double.compare(itemGap, settings.itemGap) == 0 &&
+               Double.compare(textGap, settings.textGap) == 0 &&
+               relaxationIterations == settings.relaxationIterations &&
+               relaxationBudget == settings.relaxationBudget;
+    }
+
+    @Override public int hashCode() {
+        int result = Double.hashCode(width);
+        result = 31 * result + Double.hashCode(height);
+        result = 31 * result + Double.hashCode(itemWidth);
+        result = 31 * result + Double.hashCode(itemGap);
+        result = 31 * result + Double.hashCode(textGap);
+        result = 31 * result + relaxationIterations;
+        result = 31 * result + Long.hashCode(relaxationBudget);
+        return result;
+    }
+
+    @Override public String toString() {
+        return new StringBuilder().append("width: ").append(width)
+                                  .append(", height: ").append(height)
+                                  .append(", itemWidth: ").append(itemWidth)
+                                  .append(", itemGap: ").append(itemGap)
+                                  .append(", textGap: ").append(textGap)
+                                  .append(", relaxationIterations: ").append(relaxationIterations)
+                                  .append(", relaxationBudget: ").append(relaxationBudget)
+                                  .toString();
+    }
+}
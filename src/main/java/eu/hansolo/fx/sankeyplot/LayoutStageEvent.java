@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("eu.hansolo.fx.sankeyplot.LayoutStage")
+@Label("Sankey Layout Stage")
+@Category({ "SankeyPlot" })
+@Description("One stage of SankeyPlot.prepareData()")
+class LayoutStageEvent extends Event {
+    @Label("Stage")  String stage;
+    @Label("Nodes")  int    nodes;
+    @Label("Edges")  int    edges;
+    @Label("Levels") int    levels;
+
+
+    // ******************** Constructors **************************************
+    LayoutStageEvent(final SankeyMetrics.Stage STAGE) {
+        stage = STAGE.name();
+    }
+
+
+    // ******************** Methods *******************************************
+    void commit(final int NODES, final int EDGES, final int LEVELS) {
+        end();
+        if (shouldCommit()) {
+            nodes  = NODES;
+            edges  = EDGES;
+            levels = LEVELS;
+            commit();
+        }
+    }
+}
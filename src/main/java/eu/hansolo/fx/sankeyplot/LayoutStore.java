@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Directory of precomputed layouts, one file per layout, keyed by the
+ * content hash of the snapshot and the layout settings. Coordinates are
+ * stored relative to the width of the layout, so a stored layout is also
+ * used for settings that are scaled by a common factor, e.g. a plot with
+ * automatic item width and gap that is resized without changing its
+ * aspect ratio.
+ * Files are replaced atomically, so layouts may be loaded and saved from
+ * several threads and processes at once. Layouts of older versions of the
+ * file format are ignored.
+ * The least recently used layouts are deleted once the stored layouts exceed
+ * the given number of bytes, so a plot that keeps changing, e.g. while its
+ * window is resized, doesn't fill up the disk. The order of use survives
+ * restarts by means of the modification times of the files.
+ */
+public class LayoutStore {
+    public  static final long            DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int             MAGIC             = 0x534b4c59;
+    private static final int             VERSION           = 1;
+    private static final int             KEY_BYTES         = 4 + 4 + 8 + 4 + 4 + 1 + 4 * 8 + 4 + 8;
+    private static final String          SUFFIX            = ".layout";
+    private        final Path            directory;
+    private        final long            maxBytes;
+    private        final Map<Path, Long> sizes;
+    private        final ExecutorService executor;
+    private              long            totalBytes;
+    private              SankeyLayout    pendingLayout;
+    private              boolean         pendingSeparateComponents;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates the given directory if it doesn't exist yet and keeps up to
+     * DEFAULT_MAX_BYTES of layouts in it.
+     */
+    public LayoutStore(final Path DIRECTORY) throws IOException {
+        this(DIRECTORY, DEFAULT_MAX_BYTES);
+    }
+    /**
+     * Creates the given directory if it doesn't exist yet and keeps up to
+     * MAX_BYTES of layouts in it.
+     */
+    public LayoutStore(final Path DIRECTORY, final long MAX_BYTES) throws IOException {
+        if (null == DIRECTORY) { throw new IllegalArgumentException("Directory must not be null"); }
+        if (MAX_BYTES < 0) { throw new IllegalArgumentException("Store size must not be negative"); }
+        directory = Files.createDirectories(DIRECTORY);
+        maxBytes  = MAX_BYTES;
+        sizes     = new LinkedHashMap<>(16, 0.75f, true);
+        executor  = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LayoutStore");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) { files.add(file); }
+        }
+        Map<Path, FileTime> times = new LinkedHashMap<>();
+        for (Path file : files) { times.put(file, Files.getLastModifiedTime(file)); }
+        files.sort(Comparator.comparing(times::get));
+        for (Path file : files) { add(file, Files.size(file)); }
+        evict(null);
+    }
+
+
+    // ******************** Methods *******************************************
+    public Path getDirectory() { return directory; }
+
+    public long getMaxBytes() { return maxBytes; }
+
+    /**
+     * Returns the number of bytes of the stored layouts.
+     */
+    public synchronized long getSize() { return totalBytes; }
+
+    /**
+     * Returns the stored layout of the given snapshot for the given settings
+     * or null if there is none. SEPARATE_COMPONENTS tells whether the layout
+     * was computed by laying out the components of the graph separately.
+     */
+    public SankeyLayout load(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final boolean SEPARATE_COMPONENTS) throws IOException {
+        if (!isStorable(SETTINGS)) { return null; }
+        final Path FILE = getFile(SNAPSHOT, SETTINGS, SEPARATE_COMPONENTS);
+        if (!Files.isRegularFile(FILE)) { return null; }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) { throw new IOException("Layout file " + FILE + " is too large"); }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+        } catch (NoSuchFileException e) {
+            // Evicted meanwhile
+            synchronized (this) { remove(FILE); }
+            return null;
+        }
+        try {
+            ByteBuffer key = ByteBuffer.allocate(KEY_BYTES);
+            writeKey(key, SNAPSHOT, SETTINGS, SEPARATE_COMPONENTS);
+            key.flip();
+            // Files of another version or of another key with the same file name are ignored
+            if (buffer.remaining() < KEY_BYTES) { return null; }
+            ByteBuffer storedKey = buffer.slice();
+            storedKey.limit(KEY_BYTES);
+            if (!key.equals(storedKey)) { return null; }
+            buffer.position(KEY_BYTES);
+            SankeyLayout layout = SankeyLayout.readFrom(buffer, SNAPSHOT, SETTINGS, SETTINGS.getWidth());
+            used(FILE, buffer.capacity());
+            return layout;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Layout file " + FILE + " is truncated", e);
+        }
+    }
+
+    /**
+     * Stores the given layout, replacing a stored layout with the same key.
+     * Layouts with a width of 0 and layouts that are larger than the store
+     * are not stored.
+     */
+    public void save(final SankeyLayout LAYOUT, final boolean SEPARATE_COMPONENTS) throws IOException {
+        final LayoutSettings SETTINGS = LAYOUT.getSettings();
+        if (!isStorable(SETTINGS)) { return; }
+        final long BYTES = KEY_BYTES + (long) LAYOUT.getSerializedBytes();
+        if (BYTES > maxBytes) { return; }
+        ByteBuffer buffer = ByteBuffer.allocate((int) BYTES);
+        writeKey(buffer, LAYOUT.getSnapshot(), SETTINGS, SEPARATE_COMPONENTS);
+        LAYOUT.writeTo(buffer, SETTINGS.getWidth());
+        buffer.flip();
+
+        final Path FILE = getFile(LAYOUT.getSnapshot(), SETTINGS, SEPARATE_COMPONENTS);
+        final Path TEMP = Files.createTempFile(directory, "layout", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(TEMP, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) { channel.write(buffer); }
+            }
+            Files.move(TEMP, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(TEMP);
+        }
+        synchronized (this) {
+            add(FILE, BYTES);
+            evict(FILE);
+        }
+    }
+
+    /**
+     * Saves the given layout on a background thread. If layouts come in
+     * faster than they can be written, only the latest one is saved.
+     * Errors are ignored, the stored layouts are only a cache.
+     */
+    public void saveLater(final SankeyLayout LAYOUT, final boolean SEPARATE_COMPONENTS) {
+        synchronized (this) {
+            boolean scheduled = null != pendingLayout;
+            pendingLayout             = LAYOUT;
+            pendingSeparateComponents = SEPARATE_COMPONENTS;
+            if (scheduled) { return; }
+        }
+        executor.execute(this::savePending);
+    }
+
+    private void savePending() {
+        SankeyLayout layout;
+        boolean      separateComponents;
+        synchronized (this) {
+            layout             = pendingLayout;
+            separateComponents = pendingSeparateComponents;
+            pendingLayout      = null;
+        }
+        try {
+            save(layout, separateComponents);
+        } catch (IOException e) {
+            // The layout will be computed again the next time
+        }
+    }
+
+    /**
+     * Deletes all stored layouts.
+     */
+    public void clear() throws IOException {
+        synchronized (this) {
+            sizes.clear();
+            totalBytes = 0;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) { Files.deleteIfExists(file); }
+        }
+    }
+
+    private void used(final Path FILE, final long BYTES) {
+        synchronized (this) { add(FILE, BYTES); }
+        try {
+            Files.setLastModifiedTime(FILE, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only the order of eviction after a restart suffers
+        }
+    }
+
+    private void add(final Path FILE, final long BYTES) {
+        Long previous = sizes.put(FILE, BYTES);
+        totalBytes += BYTES - (null == previous ? 0 : previous);
+    }
+
+    private void remove(final Path FILE) {
+        Long size = sizes.remove(FILE);
+        if (null != size) { totalBytes -= size; }
+    }
+
+    private void evict(final Path KEEP) {
+        Iterator<Map.Entry<Path, Long>> iterator = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (entry.getKey().equals(KEEP)) { continue; }
+            iterator.remove();
+            totalBytes -= entry.getValue();
+            try {
+                Files.deleteIfExists(entry.getKey());
+            } catch (IOException e) {
+                // A file that is still open can't be deleted on some systems, it's replaced when the layout is saved again
+            }
+        }
+    }
+
+    private Path getFile(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final boolean SEPARATE_COMPONENTS) {
+        ByteBuffer key = ByteBuffer.allocate(KEY_BYTES);
+        writeKey(key, SNAPSHOT, SETTINGS, SEPARATE_COMPONENTS);
+        key.flip();
+        long hash = 0;
+        while (key.remaining() >= 8) { hash = Long.rotateLeft(hash ^ key.getLong(), 29) * 0x9e3779b97f4a7c15L; }
+        while (key.hasRemaining()) { hash = (hash ^ key.get()) * 0x9e3779b97f4a7c15L; }
+        return directory.resolve(String.format("%016x%s", hash, SUFFIX));
+    }
+
+    // Everything but the width is stored relative to the width
+    private static void writeKey(final ByteBuffer BUFFER, final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final boolean SEPARATE_COMPONENTS) {
+        final double WIDTH = SETTINGS.getWidth();
+        BUFFER.putInt(MAGIC).putInt(VERSION)
+              .putLong(SNAPSHOT.getContentHash()).putInt(SNAPSHOT.getNoOfNodes()).putInt(SNAPSHOT.getNoOfEdges())
+              .put((byte) (SEPARATE_COMPONENTS ? 1 : 0))
+              .putDouble(SETTINGS.getHeight() / WIDTH)
+              .putDouble(SETTINGS.getItemWidth() / WIDTH)
+              .putDouble(SETTINGS.getItemGap() / WIDTH)
+              .putDouble(SETTINGS.getTextGap() / WIDTH)
+              .putInt(SETTINGS.getRelaxationIterations())
+              .putLong(SETTINGS.getRelaxationBudget());
+    }
+
+    private static boolean isStorable(final LayoutSettings SETTINGS) {
+        return SETTINGS.getWidth() > 0 && !Double.isInfinite(SETTINGS.getWidth());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+/**
+ * Geometry that is drawn by the SankeyPlot. The arrays are indexed by the
+ * nodes and links of getLayout() and either contain the values of that layout
+ * or, while a transition is running, values that are interpolated between the
+ * geometry that was shown before and the layout.
+ * The arrays only grow, interpolate() never allocates, which keeps animations
+ * free of garbage. Only to be used on the FX application thread.
+ */
+final class LayoutTransition {
+    private SankeyLayout layout;
+    private int          noOfNodes;
+    private int          noOfLinks;
+    double[]             nodeX;
+    double[]             nodeY;
+    double[]             nodeWidth;
+    double[]             nodeHeight;
+    double[]             textX;
+    double[]             textY;
+    double[]             linkSourceY;
+    double[]             linkTargetY;
+    double[]             linkHeight;
+    private double[]     fromNodeX;
+    private double[]     fromNodeY;
+    private double[]     fromNodeWidth;
+    private double[]     fromNodeHeight;
+    private double[]     fromTextX;
+    private double[]     fromTextY;
+    private double[]     fromLinkSourceY;
+    private double[]     fromLinkTargetY;
+    private double[]     fromLinkHeight;
+
+
+    // ******************** Constructors **************************************
+    LayoutTransition() {
+        nodeX           = new double[0];
+        nodeY           = new double[0];
+        nodeWidth       = new double[0];
+        nodeHeight      = new double[0];
+        textX           = new double[0];
+        textY           = new double[0];
+        linkSourceY     = new double[0];
+        linkTargetY     = new double[0];
+        linkHeight      = new double[0];
+        fromNodeX       = new double[0];
+        fromNodeY       = new double[0];
+        fromNodeWidth   = new double[0];
+        fromNodeHeight  = new double[0];
+        fromTextX       = new double[0];
+        fromTextY       = new double[0];
+        fromLinkSourceY = new double[0];
+        fromLinkTargetY = new double[0];
+        fromLinkHeight  = new double[0];
+    }
+
+
+    // ******************** Methods *******************************************
+    SankeyLayout getLayout() { return layout; }
+
+    /**
+     * Takes over the geometry of the given layout without any transition.
+     */
+    void jumpTo(final SankeyLayout LAYOUT) {
+        setLayout(LAYOUT);
+        interpolate(1.0);
+    }
+
+    /**
+     * Starts a transition from the geometry that is currently shown to the given layout.
+     * Nodes and links that are not part of the current geometry grow from zero height,
+     * nodes and links that are not part of the new layout disappear right away.
+     */
+    void start(final SankeyLayout LAYOUT) {
+        if (null == layout) {
+            jumpTo(LAYOUT);
+            return;
+        }
+        final SankeyLayout  FROM          = layout;
+        final GraphSnapshot FROM_SNAPSHOT = FROM.getSnapshot();
+        final GraphSnapshot TO_SNAPSHOT   = LAYOUT.getSnapshot();
+        final int           NODES         = TO_SNAPSHOT.getNoOfNodes();
+        final int           LINKS         = LAYOUT.getNoOfLinks();
+
+        if (fromNodeX.length < NODES) {
+            fromNodeX      = new double[NODES];
+            fromNodeY      = new double[NODES];
+            fromNodeWidth  = new double[NODES];
+            fromNodeHeight = new double[NODES];
+            fromTextX      = new double[NODES];
+            fromTextY      = new double[NODES];
+        }
+        if (fromLinkSourceY.length < LINKS) {
+            fromLinkSourceY = new double[LINKS];
+            fromLinkTargetY = new double[LINKS];
+            fromLinkHeight  = new double[LINKS];
+        }
+
+        for (int node = 0 ; node < NODES ; node++) {
+            int previous = FROM_SNAPSHOT.indexOf(TO_SNAPSHOT.getItem(node));
+            if (previous < 0) {
+                fromNodeX[node]      = LAYOUT.getNodeX(node);
+                fromNodeY[node]      = LAYOUT.getNodeY(node) + LAYOUT.getNodeHeight(node) * 0.5;
+                fromNodeWidth[node]  = LAYOUT.getNodeWidth(node);
+                fromNodeHeight[node] = 0;
+                fromTextX[node]      = LAYOUT.getTextX(node);
+                fromTextY[node]      = LAYOUT.getTextY(node);
+            } else {
+                fromNodeX[node]      = nodeX[previous];
+                fromNodeY[node]      = nodeY[previous];
+                fromNodeWidth[node]  = nodeWidth[previous];
+                fromNodeHeight[node] = nodeHeight[previous];
+                fromTextX[node]      = textX[previous];
+                fromTextY[node]      = textY[previous];
+            }
+        }
+
+        for (int link = 0 ; link < LINKS ; link++) {
+            int previous = findLink(FROM, TO_SNAPSHOT.getItem(LAYOUT.getLinkSource(link)), TO_SNAPSHOT.getItem(LAYOUT.getLinkTarget(link)));
+            if (previous < 0) {
+                fromLinkSourceY[link] = LAYOUT.getLinkSourceY(link);
+                fromLinkTargetY[link] = LAYOUT.getLinkTargetY(link);
+                fromLinkHeight[link]  = 0;
+            } else {
+                fromLinkSourceY[link] = linkSourceY[previous];
+                fromLinkTargetY[link] = linkTargetY[previous];
+                fromLinkHeight[link]  = linkHeight[previous];
+            }
+        }
+
+        setLayout(LAYOUT);
+        interpolate(0.0);
+    }
+
+    /**
+     * Sets the geometry to the given fraction (0 - 1) of the way from the
+     * previous geometry to the layout.
+     */
+    void interpolate(final double FRACTION) {
+        final SankeyLayout LAYOUT = layout;
+        if (FRACTION >= 1.0) {
+            for (int node = 0 ; node < noOfNodes ; node++) {
+                nodeX[node]      = LAYOUT.getNodeX(node);
+                nodeY[node]      = LAYOUT.getNodeY(node);
+                nodeWidth[node]  = LAYOUT.getNodeWidth(node);
+                nodeHeight[node] = LAYOUT.getNodeHeight(node);
+                textX[node]      = LAYOUT.getTextX(node);
+                textY[node]      = LAYOUT.getTextY(node);
+            }
+            for (int link = 0 ; link < noOfLinks ; link++) {
+                linkSourceY[link] = LAYOUT.getLinkSourceY(link);
+                linkTargetY[link] = LAYOUT.getLinkTargetY(link);
+                linkHeight[link]  = LAYOUT.getLinkHeight(link);
+            }
+        } else {
+            for (int node = 0 ; node < noOfNodes ; node++) {
+                nodeX[node]      = fromNodeX[node] + (LAYOUT.getNodeX(node) - fromNodeX[node]) * FRACTION;
+                nodeY[node]      = fromNodeY[node] + (LAYOUT.getNodeY(node) - fromNodeY[node]) * FRACTION;
+                nodeWidth[node]  = fromNodeWidth[node] + (LAYOUT.getNodeWidth(node) - fromNodeWidth[node]) * FRACTION;
+                nodeHeight[node] = fromNodeHeight[node] + (LAYOUT.getNodeHeight(node) - fromNodeHeight[node]) * FRACTION;
+                textX[node]      = fromTextX[node] + (LAYOUT.getTextX(node) - fromTextX[node]) * FRACTION;
+                textY[node]      = fromTextY[node] + (LAYOUT.getTextY(node) - fromTextY[node]) * FRACTION;
+            }
+            for (int link = 0 ; link < noOfLinks ; link++) {
+                linkSourceY[link] = fromLinkSourceY[link] + (LAYOUT.getLinkSourceY(link) - fromLinkSourceY[link]) * FRACTION;
+                linkTargetY[link] = fromLinkTargetY[link] + (LAYOUT.getLinkTargetY(link) - fromLinkTargetY[link]) * FRACTION;
+                linkHeight[link]  = fromLinkHeight[link] + (LAYOUT.getLinkHeight(link) - fromLinkHeight[link]) * FRACTION;
+            }
+        }
+    }
+
+    private void setLayout(final SankeyLayout LAYOUT) {
+        layout    = LAYOUT;
+        noOfNodes = LAYOUT.getSnapshot().getNoOfNodes();
+        noOfLinks = LAYOUT.getNoOfLinks();
+        if (nodeX.length < noOfNodes) {
+            nodeX      = new double[noOfNodes];
+            nodeY      = new double[noOfNodes];
+            nodeWidth  = new double[noOfNodes];
+            nodeHeight = new double[noOfNodes];
+            textX      = new double[noOfNodes];
+            textY      = new double[noOfNodes];
+        }
+        if (linkSourceY.length < noOfLinks) {
+            linkSourceY = new double[noOfLinks];
+            linkTargetY = new double[noOfLinks];
+            linkHeight  = new double[noOfLinks];
+        }
+    }
+
+    private static int findLink(final SankeyLayout LAYOUT, final PlotItem SOURCE, final PlotItem TARGET) {
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        int source = SNAPSHOT.indexOf(SOURCE);
+        if (source < 0) { return -1; }
+        for (int link = LAYOUT.getLinkStart(source) ; link < LAYOUT.getLinkEnd(source) ; link++) {
+            if (SNAPSHOT.getItem(LAYOUT.getLinkTarget(link)) == TARGET) { return link; }
+        }
+        return -1;
+    }
+}
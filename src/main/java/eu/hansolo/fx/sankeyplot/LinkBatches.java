@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.SankeyPlot.StreamFillMode;
+import eu.hansolo.fx.sankeyplot.tools.Helper;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
+import javafx.scene.paint.Stop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Groups the links of a layout by their paint, so that every group can be
+ * filled with a single call. In COLOR mode all links form one group that is
+ * painted with the stream color. In GRADIENT mode the links between two
+ * levels share one gradient per pair of source and target color, the gradient
+ * spans the gap between the levels, which looks exactly like the gradients
+ * that span each single link.
+ * Groups are ordered by their first link in paint order, the links within a
+ * group keep the paint order.
+ */
+final class LinkBatches {
+    private final SankeyLayout   layout;
+    private final StreamFillMode streamFillMode;
+    private final double         opacity;
+    private final int[]          batchStart;
+    private final int[]          batchLinks;
+    private final Paint[]        batchPaints;
+
+
+    // ******************** Constructors **************************************
+    LinkBatches(final SankeyLayout LAYOUT, final StreamFillMode STREAM_FILL_MODE, final double OPACITY) {
+        final int LINKS = LAYOUT.getNoOfLinks();
+        layout         = LAYOUT;
+        streamFillMode = STREAM_FILL_MODE;
+        opacity        = OPACITY;
+        if (StreamFillMode.COLOR == STREAM_FILL_MODE) {
+            batchStart  = new int[] { 0, LINKS };
+            batchLinks  = new int[LINKS];
+            batchPaints = new Paint[1];
+            for (int link = 0 ; link < LINKS ; link++) { batchLinks[link] = link; }
+        } else {
+            final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+            Map<List<Object>, List<Integer>> groups = new LinkedHashMap<>();
+            for (int link = 0 ; link < LINKS ; link++) {
+                int source = LAYOUT.getLinkSource(link);
+                int target = LAYOUT.getLinkTarget(link);
+                List<Object> key = Arrays.asList(LAYOUT.getLevel(source), SNAPSHOT.getColor(source), SNAPSHOT.getColor(target));
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(link);
+            }
+            batchStart  = new int[groups.size() + 1];
+            batchLinks  = new int[LINKS];
+            batchPaints = new Paint[groups.size()];
+            int batch = 0;
+            int fill  = 0;
+            for (List<Integer> links : groups.values()) {
+                int    first  = links.get(0);
+                int    source = LAYOUT.getLinkSource(first);
+                int    target = LAYOUT.getLinkTarget(first);
+                double startX = LAYOUT.getNodeX(source) + LAYOUT.getNodeWidth(source);
+                double endX   = LAYOUT.getNodeX(target);
+                batchPaints[batch] = new LinearGradient(startX, 0, endX, 0,
+                                                        false, CycleMethod.NO_CYCLE,
+                                                        new Stop(0, Helper.getColorWithOpacity(SNAPSHOT.getColor(source), OPACITY)),
+                                                        new Stop(1, Helper.getColorWithOpacity(SNAPSHOT.getColor(target), OPACITY)));
+                batchStart[batch] = fill;
+                for (Integer link : links) { batchLinks[fill++] = link; }
+                batch++;
+            }
+            batchStart[batch] = fill;
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    boolean isValidFor(final SankeyLayout LAYOUT, final StreamFillMode STREAM_FILL_MODE, final double OPACITY) {
+        return LAYOUT == layout && STREAM_FILL_MODE == streamFillMode && Double.compare(OPACITY, opacity) == 0;
+    }
+
+    int getNoOfBatches() { return batchPaints.length; }
+
+    /**
+     * Links of the given batch are getLink(getBatchStart(batch)) until getLink(getBatchEnd(batch) - 1).
+     */
+    int getBatchStart(final int BATCH) { return batchStart[BATCH]; }
+    int getBatchEnd(final int BATCH) { return batchStart[BATCH + 1]; }
+    int getLink(final int POSITION) { return batchLinks[POSITION]; }
+
+    /**
+     * Returns the paint of the given batch, null in COLOR mode where the stream color is used.
+     */
+    Paint getPaint(final int BATCH) { return batchPaints[BATCH]; }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.scene.paint.Paint;
+
+
+/**
+ * Creates the paths of the links. With level of detail enabled the shape of
+ * every link depends on its size in pixels:
+ * links of at least FULL_DETAIL_HEIGHT pixels are drawn as bezier curves,
+ * thinner links and links between levels that are closer than MIN_CURVE_WIDTH
+ * are drawn as polygons that follow the curve with a few straight segments,
+ * and consecutive links of a source below BAND_HEIGHT pixels are merged into
+ * one band as long as their targets are adjacent.
+ * Links are either filled one by one with their own paint or, when merged,
+ * appended to the current path of the painter.
+ * Call flush() after the last link of a source node.
+ * Only to be used on the FX application thread.
+ */
+final class LinkPainter {
+    static final   double          FULL_DETAIL_HEIGHT    = 1.0;
+    static final   double          BAND_HEIGHT           = 0.5;
+    static final   double          MIN_CURVE_WIDTH       = 8;
+    static final   double          MIN_LEGIBLE_FONT_SIZE = 6;
+    private static final int       SEGMENTS              = 4;
+    private        Painter         painter;
+    private        boolean         fillEachLink;
+    private        boolean         levelOfDetail;
+    private        int             bandSource;
+    private        Paint           bandPaint;
+    private        double          bandMaxX;
+    private        double          bandTargetMinX;
+    private        double          bandSourceY;
+    private        double          bandTargetY;
+    private        double          bandSourceEndY;
+    private        double          bandTargetEndY;
+    private        double          bandDirectionOffsetX;
+
+
+    // ******************** Constructors **************************************
+    LinkPainter() {
+        bandSource = -1;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Prepares painting with the given painter. If FILL_EACH_LINK is false,
+     * all shapes are appended to the current path of the painter.
+     */
+    void begin(final Painter PAINTER, final boolean FILL_EACH_LINK, final boolean LEVEL_OF_DETAIL) {
+        painter       = PAINTER;
+        fillEachLink  = FILL_EACH_LINK;
+        levelOfDetail = LEVEL_OF_DETAIL;
+        bandSource    = -1;
+    }
+
+    void addLink(final Paint PAINT, final int SOURCE, final double MAX_X, final double TARGET_MIN_X, final double SOURCE_Y, final double TARGET_Y,
+                 final double VALUE_Y, final double DIRECTION_OFFSET_X) {
+        if (!levelOfDetail) {
+            emit(PAINT, MAX_X, TARGET_MIN_X, SOURCE_Y, TARGET_Y, VALUE_Y, VALUE_Y, DIRECTION_OFFSET_X, true);
+            return;
+        }
+        if (VALUE_Y < BAND_HEIGHT) {
+            // Extend the current band if the link continues it at the source and at the target
+            if (SOURCE == bandSource && Math.abs(SOURCE_Y - bandSourceEndY) <= BAND_HEIGHT && Math.abs(TARGET_Y - bandTargetEndY) <= 1.0 &&
+                bandTargetEndY - bandTargetY < 1.0) {
+                bandSourceEndY = SOURCE_Y + VALUE_Y;
+                bandTargetEndY = TARGET_Y + VALUE_Y;
+                return;
+            }
+            flush();
+            bandSource           = SOURCE;
+            bandPaint            = PAINT;
+            bandMaxX             = MAX_X;
+            bandTargetMinX       = TARGET_MIN_X;
+            bandSourceY          = SOURCE_Y;
+            bandTargetY          = TARGET_Y;
+            bandSourceEndY       = SOURCE_Y + VALUE_Y;
+            bandTargetEndY       = TARGET_Y + VALUE_Y;
+            bandDirectionOffsetX = DIRECTION_OFFSET_X;
+            return;
+        }
+        flush();
+        boolean curve = VALUE_Y >= FULL_DETAIL_HEIGHT && TARGET_MIN_X - MAX_X >= MIN_CURVE_WIDTH;
+        emit(PAINT, MAX_X, TARGET_MIN_X, SOURCE_Y, TARGET_Y, VALUE_Y, VALUE_Y, DIRECTION_OFFSET_X, curve);
+    }
+
+    /**
+     * Paints the pending band, if any.
+     */
+    void flush() {
+        if (bandSource < 0) { return; }
+        bandSource = -1;
+        emit(bandPaint, bandMaxX, bandTargetMinX, bandSourceY, bandTargetY, bandSourceEndY - bandSourceY, bandTargetEndY - bandTargetY, bandDirectionOffsetX, false);
+    }
+
+    private void emit(final Paint PAINT, final double MAX_X, final double TARGET_MIN_X, final double SOURCE_Y, final double TARGET_Y, final double SOURCE_HEIGHT,
+                      final double TARGET_HEIGHT, final double DIRECTION_OFFSET_X, final boolean CURVE) {
+        if (fillEachLink) {
+            painter.setFill(PAINT);
+            painter.beginPath();
+        }
+        if (CURVE) {
+            addCurvePath(painter, MAX_X, TARGET_MIN_X, SOURCE_Y, TARGET_Y, SOURCE_HEIGHT, DIRECTION_OFFSET_X);
+        } else {
+            addSimplifiedPath(painter, MAX_X, TARGET_MIN_X, SOURCE_Y, TARGET_Y, SOURCE_HEIGHT, TARGET_HEIGHT, DIRECTION_OFFSET_X);
+        }
+        if (fillEachLink) { painter.fill(); }
+    }
+
+    static void addCurvePath(final Painter PAINTER, final double MAX_X, final double TARGET_MIN_X, final double SOURCE_Y, final double TARGET_Y, final double VALUE_Y,
+                             final double DIRECTION_OFFSET_X) {
+        // Calculate the offset in x direction for the bezier curve control points
+        double ctrlPointOffsetX = (TARGET_MIN_X - MAX_X) * 0.25;
+
+        PAINTER.moveTo(MAX_X, SOURCE_Y);
+        if (DIRECTION_OFFSET_X > 0) {
+            PAINTER.bezierCurveTo(MAX_X + ctrlPointOffsetX, SOURCE_Y,
+                              TARGET_MIN_X - ctrlPointOffsetX, TARGET_Y,
+                              TARGET_MIN_X - DIRECTION_OFFSET_X, TARGET_Y);
+            PAINTER.lineTo(TARGET_MIN_X, TARGET_Y + VALUE_Y * 0.5);
+            PAINTER.lineTo(TARGET_MIN_X - DIRECTION_OFFSET_X, TARGET_Y + VALUE_Y);
+        } else {
+            PAINTER.bezierCurveTo(MAX_X + ctrlPointOffsetX, SOURCE_Y,
+                              TARGET_MIN_X - ctrlPointOffsetX, TARGET_Y,
+                              TARGET_MIN_X, TARGET_Y);
+            PAINTER.lineTo(TARGET_MIN_X, TARGET_Y + VALUE_Y);
+        }
+        PAINTER.bezierCurveTo(TARGET_MIN_X - ctrlPointOffsetX, TARGET_Y + VALUE_Y,
+                          MAX_X + ctrlPointOffsetX, SOURCE_Y + VALUE_Y,
+                          MAX_X, SOURCE_Y + VALUE_Y);
+        PAINTER.lineTo(MAX_X, SOURCE_Y + VALUE_Y);
+        PAINTER.closePath();
+    }
+
+    /**
+     * Adds a polygon that follows the bezier curve with a few straight segments.
+     * The height may differ at source and target, which is used for bands.
+     */
+    static void addSimplifiedPath(final Painter PAINTER, final double MAX_X, final double TARGET_MIN_X, final double SOURCE_Y, final double TARGET_Y,
+                                  final double SOURCE_HEIGHT, final double TARGET_HEIGHT, final double DIRECTION_OFFSET_X) {
+        double ctrlPointOffsetX = (TARGET_MIN_X - MAX_X) * 0.25;
+        double endX             = TARGET_MIN_X - DIRECTION_OFFSET_X;
+
+        PAINTER.moveTo(MAX_X, SOURCE_Y);
+        for (int i = 1 ; i <= SEGMENTS ; i++) {
+            double t = (double) i / SEGMENTS;
+            PAINTER.lineTo(curveX(MAX_X, MAX_X + ctrlPointOffsetX, TARGET_MIN_X - ctrlPointOffsetX, endX, t), curveY(SOURCE_Y, TARGET_Y, t));
+        }
+        if (DIRECTION_OFFSET_X > 0) { PAINTER.lineTo(TARGET_MIN_X, TARGET_Y + TARGET_HEIGHT * 0.5); }
+        for (int i = SEGMENTS ; i >= 0 ; i--) {
+            double t = (double) i / SEGMENTS;
+            PAINTER.lineTo(curveX(MAX_X, MAX_X + ctrlPointOffsetX, TARGET_MIN_X - ctrlPointOffsetX, endX, t),
+                       curveY(SOURCE_Y + SOURCE_HEIGHT, TARGET_Y + TARGET_HEIGHT, t));
+        }
+        PAINTER.closePath();
+    }
+
+    private static double curveX(final double X0, final double X1, final double X2, final double X3, final double T) {
+        double mt = 1 - T;
+        return mt * mt * mt * X0 + 3 * mt * mt * T * X1 + 3 * mt * T * T * X2 + T * T * T * X3;
+    }
+
+    /**
+     * Y of a cubic bezier whose control points have the y of the end points.
+     */
+    private static double curveY(final double Y0, final double Y1, final double T) {
+        double weight = T * T * (3 - 2 * T);
+        return Y0 + (Y1 - Y0) * weight;
+    }
+}
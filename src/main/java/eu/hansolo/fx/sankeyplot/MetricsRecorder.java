@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.SankeyMetrics.Stage;
+import eu.hansolo.fx.sankeyplot.SankeyMetrics.Timing;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+
+/**
+ * Collects the stage timings of a SankeyPlot in fixed size ring buffers
+ * so that recording a sample never allocates.
+ */
+class MetricsRecorder {
+    private static final int                    WINDOW_SIZE = 256;
+    private        final EnumMap<Stage, long[]> samples;
+    private        final long[]                 counts;
+    private              long                   layoutCount;
+    private              long                   redrawCount;
+    private              long                   cachedRedrawCount;
+    private              int                    noOfNodes;
+    private              int                    noOfEdges;
+    private              int                    noOfLevels;
+    private              int                    linksDrawn;
+    private              int                    linksCulled;
+
+
+    // ******************** Constructors **************************************
+    MetricsRecorder() {
+        samples = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) { samples.put(stage, new long[WINDOW_SIZE]); }
+        counts  = new long[Stage.values().length];
+    }
+
+
+    // ******************** Methods *******************************************
+    synchronized void recordStage(final Stage STAGE, final long DURATION_NANOS) {
+        long count = counts[STAGE.ordinal()]++;
+        samples.get(STAGE)[(int) (count % WINDOW_SIZE)] = DURATION_NANOS;
+    }
+
+    synchronized void recordLayout(final int NO_OF_NODES, final int NO_OF_EDGES, final int NO_OF_LEVELS) {
+        layoutCount++;
+        noOfNodes  = NO_OF_NODES;
+        noOfEdges  = NO_OF_EDGES;
+        noOfLevels = NO_OF_LEVELS;
+    }
+
+    synchronized void recordRedraw(final int LINKS_DRAWN, final int LINKS_CULLED) {
+        redrawCount++;
+        linksDrawn  = LINKS_DRAWN;
+        linksCulled = LINKS_CULLED;
+    }
+
+    /**
+     * A redraw that only showed the cached image of the plot.
+     */
+    synchronized void recordCachedRedraw() {
+        redrawCount++;
+        cachedRedrawCount++;
+    }
+
+    synchronized void reset() {
+        samples.values().forEach(window -> Arrays.fill(window, 0));
+        Arrays.fill(counts, 0);
+        layoutCount       = 0;
+        redrawCount       = 0;
+        cachedRedrawCount = 0;
+        linksDrawn        = 0;
+        linksCulled       = 0;
+    }
+
+    synchronized SankeyMetrics snapshot() {
+        Map<Stage, Timing> timings = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            long count = counts[stage.ordinal()];
+            if (0 == count) {
+                timings.put(stage, Timing.EMPTY);
+                continue;
+            }
+            long[] window  = samples.get(stage);
+            int    size    = (int) Math.min(count, WINDOW_SIZE);
+            long[] sorted  = Arrays.copyOf(window, size);
+            long   sum     = 0;
+            for (long sample : sorted) { sum += sample; }
+            Arrays.sort(sorted);
+            int    p99Index = Math.min(size - 1, (int) Math.ceil(size * 0.99) - 1);
+            long   last     = window[(int) ((count - 1) % WINDOW_SIZE)];
+            timings.put(stage, new Timing(count, last, sum / size, sorted[p99Index]));
+        }
+        return new SankeyMetrics(timings, layoutCount, redrawCount, cachedRedrawCount, noOfNodes, noOfEdges, noOfLevels, linksDrawn, linksCulled);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+
+/**
+ * Sorted array of the normalized names of the items of a snapshot, used for
+ * prefix searches by binary search. Names are normalized to lower case
+ * without accents, and every word of a name is indexed on its own, so
+ * "york" finds "New York".
+ * The index is updated incrementally, only the keys of items that were
+ * added, removed or renamed since the last snapshot are inserted or removed.
+ * If too many items changed, the index is sorted again from scratch.
+ * Only to be used on the FX application thread.
+ */
+final class NameIndex {
+    private static final int                   MIN_CAPACITY  = 16;
+    private static final int                   REBUILD_RATIO = 16;
+    private static final Pattern               MARKS         = Pattern.compile("\\p{M}+");
+    private              GraphSnapshot         snapshot;
+    private              Map<PlotItem, String> names;
+    private              String[]              keys;
+    private              PlotItem[]            items;
+    private              int                   size;
+
+
+    // ******************** Constructors **************************************
+    NameIndex() {
+        snapshot = GraphSnapshot.EMPTY;
+        names    = new IdentityHashMap<>();
+        keys     = new String[MIN_CAPACITY];
+        items    = new PlotItem[MIN_CAPACITY];
+    }
+
+
+    // ******************** Methods *******************************************
+    void update(final GraphSnapshot SNAPSHOT) {
+        if (SNAPSHOT == snapshot) { return; }
+        final int      NODES   = SNAPSHOT.getNoOfNodes();
+        List<PlotItem> changed = new ArrayList<>();
+        int            added   = 0;
+        for (int node = 0 ; node < NODES ; node++) {
+            String indexed = names.get(SNAPSHOT.getItem(node));
+            if (null == indexed) { added++; }
+            if (null == indexed || !indexed.equals(getName(SNAPSHOT, node))) { changed.add(SNAPSHOT.getItem(node)); }
+        }
+        // Items are only looked up in the snapshot if some of the indexed ones are gone
+        List<PlotItem> removed = new ArrayList<>();
+        if (names.size() > NODES - added) {
+            for (PlotItem item : names.keySet()) { if (SNAPSHOT.indexOf(item) < 0) { removed.add(item); } }
+        }
+        snapshot = SNAPSHOT;
+
+        if (changed.size() + removed.size() > Math.max(MIN_CAPACITY, size / REBUILD_RATIO)) {
+            rebuild(SNAPSHOT);
+            return;
+        }
+        for (PlotItem item : removed) { removeKeys(item, names.remove(item)); }
+        for (PlotItem item : changed) {
+            String name     = getName(SNAPSHOT, SNAPSHOT.indexOf(item));
+            String previous = names.put(item, name);
+            if (null != previous) { removeKeys(item, previous); }
+            for (String key : getKeys(name)) { insert(key, item); }
+        }
+    }
+
+    /**
+     * Returns up to MAX_RESULTS items that have a name or a word in their name
+     * that starts with the given text, ignoring case and accents. Items are
+     * returned in the order of the matching names.
+     */
+    List<PlotItem> search(final String TEXT, final int MAX_RESULTS) {
+        final String PREFIX = normalize(TEXT);
+        if (PREFIX.isEmpty() || MAX_RESULTS <= 0) { return Collections.emptyList(); }
+        List<PlotItem> result = new ArrayList<>();
+        Set<PlotItem>  found  = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int position = lowerBound(PREFIX) ; position < size && keys[position].startsWith(PREFIX) && result.size() < MAX_RESULTS ; position++) {
+            if (found.add(items[position])) { result.add(items[position]); }
+        }
+        return result;
+    }
+
+    int size() { return size; }
+
+    private void rebuild(final GraphSnapshot SNAPSHOT) {
+        List<Entry> entries = new ArrayList<>(SNAPSHOT.getNoOfNodes());
+        names.clear();
+        for (int node = 0 ; node < SNAPSHOT.getNoOfNodes() ; node++) {
+            PlotItem item = SNAPSHOT.getItem(node);
+            String   name = getName(SNAPSHOT, node);
+            names.put(item, name);
+            for (String key : getKeys(name)) { entries.add(new Entry(key, item)); }
+        }
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, Comparator.comparing(entry -> entry.key));
+
+        int capacity = Math.max(MIN_CAPACITY, sorted.length + (sorted.length >> 2));
+        keys  = new String[capacity];
+        items = new PlotItem[capacity];
+        size  = sorted.length;
+        for (int position = 0 ; position < size ; position++) {
+            keys[position]  = sorted[position].key;
+            items[position] = sorted[position].item;
+        }
+    }
+
+    private void insert(final String KEY, final PlotItem ITEM) {
+        if (size == keys.length) {
+            keys  = Arrays.copyOf(keys, size * 2);
+            items = Arrays.copyOf(items, size * 2);
+        }
+        int position = lowerBound(KEY);
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(items, position, items, position + 1, size - position);
+        keys[position]  = KEY;
+        items[position] = ITEM;
+        size++;
+    }
+
+    private void removeKeys(final PlotItem ITEM, final String NAME) {
+        for (String key : getKeys(NAME)) {
+            // Items with the same name share the key, so the one of the given item has to be found
+            for (int position = lowerBound(key) ; position < size && keys[position].equals(key) ; position++) {
+                if (items[position] != ITEM) { continue; }
+                System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+                System.arraycopy(items, position + 1, items, position, size - position - 1);
+                size--;
+                keys[size]  = null;
+                items[size] = null;
+                break;
+            }
+        }
+    }
+
+    private int lowerBound(final String KEY) {
+        int low  = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(KEY) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static String getName(final GraphSnapshot SNAPSHOT, final int NODE) {
+        String name = SNAPSHOT.getName(NODE);
+        return null == name ? "" : name;
+    }
+
+    /**
+     * Returns the normalized name followed by the rest of it from every further word on.
+     */
+    private static List<String> getKeys(final String NAME) {
+        final String NORMALIZED = normalize(NAME);
+        List<String> keys = new ArrayList<>(2);
+        keys.add(NORMALIZED);
+        for (int i = 1 ; i < NORMALIZED.length() ; i++) {
+            if (Character.isLetterOrDigit(NORMALIZED.charAt(i)) && !Character.isLetterOrDigit(NORMALIZED.charAt(i - 1))) { keys.add(NORMALIZED.substring(i)); }
+        }
+        return keys;
+    }
+
+    static String normalize(final String TEXT) {
+        if (null == TEXT) { return ""; }
+        String text = TEXT;
+        for (int i = 0 ; i < text.length() ; i++) {
+            // Plain ASCII doesn't have to be decomposed
+            if (text.charAt(i) > 0x7f) {
+                text = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        return text.toLowerCase(Locale.ROOT).trim();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Entry {
+        private final String   key;
+        private final PlotItem item;
+
+
+        // ******************** Constructors **********************************
+        Entry(final String KEY, final PlotItem ITEM) {
+            key  = KEY;
+            item = ITEM;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.FillRule;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+
+/**
+ * The part of a GraphicsContext the plot is painted with, so the same code
+ * paints the plot on the canvas and into an SVG document. The methods behave
+ * like the methods of the same name of the GraphicsContext, text is always
+ * centered vertically.
+ */
+interface Painter {
+    Font getFont();
+
+    void setFill(Paint PAINT);
+
+    void setStroke(Paint PAINT);
+
+    void setGlobalAlpha(double ALPHA);
+
+    void setLineWidth(double WIDTH);
+
+    void setLineCap(StrokeLineCap CAP);
+
+    void setLineJoin(StrokeLineJoin JOIN);
+
+    void setFillRule(FillRule RULE);
+
+    void setTextAlign(TextAlignment ALIGNMENT);
+
+    void save();
+
+    void restore();
+
+    void fillRect(double X, double Y, double WIDTH, double HEIGHT);
+
+    void fillText(String TEXT, double X, double Y);
+
+    void beginPath();
+
+    void moveTo(double X, double Y);
+
+    void lineTo(double X, double Y);
+
+    void bezierCurveTo(double CONTROL_X1, double CONTROL_Y1, double CONTROL_X2, double CONTROL_Y2, double X, double Y);
+
+    void arcTo(double X1, double Y1, double X2, double Y2, double RADIUS);
+
+    void closePath();
+
+    void fill();
+
+    void stroke();
+}
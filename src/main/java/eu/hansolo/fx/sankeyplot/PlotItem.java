@@ -28,26 +28,31 @@ import javafx.scene.paint.Color;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class PlotItem {
-    private final PlotItemEvent UPDATED_EVENT = new PlotItemEvent(PlotItem.this, PlotItemEventType.UPDATED);
-    private       String                      _name;
-    private       StringProperty              name;
-    private       double                      _value;
-    private       DoubleProperty              value;
-    private       String                      _description;
-    private       StringProperty              description;
-    private       Color                       _color;
-    private       ObjectProperty<Color>       color;
-    private       Map<PlotItem, Double>       outgoing;
-    private       Map<PlotItem, Double>       incoming;
-    private       List<PlotItemEventListener> listeners;
-    private       int                         level;
+    private                String                      _name;
+    private                StringProperty              name;
+    private                double                      _value;
+    private                DoubleProperty              value;
+    private                String                      _description;
+    private                StringProperty              description;
+    private                Color                       _color;
+    private                ObjectProperty<Color>       color;
+    private       volatile Map<PlotItem, Double>       outgoing;
+    private       volatile Map<PlotItem, Double>       incoming;
+    private                List<PlotItemEventListener> listeners;
+    private                PlotItemEvent               updatedEvent;
+    private                int                         level;
+    private       volatile long                        modCount;
+                  volatile ChangeBus                   changeBus;
+                           int                         changeBusId;
 
 
     // ******************** Constructors **************************************
@@ -69,9 +74,9 @@ public class PlotItem {
         _description = DESCRIPTION;
         _color       = COLOR;
         level        = -1;
-        outgoing     = new LinkedHashMap<>();
-        incoming     = new LinkedHashMap<>();
-        listeners    = new CopyOnWriteArrayList<>();
+        outgoing     = Collections.emptyMap();
+        incoming     = Collections.emptyMap();
+        changeBusId  = -1;
     }
 
 
@@ -80,7 +85,7 @@ public class PlotItem {
     public void setName(final String NAME) {
         if (null == name) {
             _name = NAME;
-            fireChartItemEvent(UPDATED_EVENT);
+            modified();
         } else {
             name.set(NAME);
         }
@@ -88,7 +93,7 @@ public class PlotItem {
     public StringProperty nameProperty() {
         if (null == name) {
             name = new StringPropertyBase(_name) {
-                @Override protected void invalidated() { fireChartItemEvent(UPDATED_EVENT); }
+                @Override protected void invalidated() { modified(); }
                 @Override public Object getBean() { return PlotItem.this; }
                 @Override public String getName() { return "name"; }
             };
@@ -101,7 +106,7 @@ public class PlotItem {
     public void setValue(final double VALUE) {
         if (null == value) {
             _value = VALUE;
-            fireChartItemEvent(UPDATED_EVENT);
+            modified();
         } else {
             value.set(VALUE);
         }
@@ -109,7 +114,7 @@ public class PlotItem {
     public DoubleProperty valueProperty() {
         if (null == value) {
             value = new DoublePropertyBase(_value) {
-                @Override protected void invalidated() { fireChartItemEvent(UPDATED_EVENT); }
+                @Override protected void invalidated() { modified(); }
                 @Override public Object getBean() { return PlotItem.this; }
                 @Override public String getName() { return "value"; }
             };
@@ -121,7 +126,7 @@ public class PlotItem {
     public void setDescription(final String DESCRIPTION) {
         if (null == description) {
             _description = DESCRIPTION;
-            fireChartItemEvent(UPDATED_EVENT);
+            modified();
         } else {
             description.set(DESCRIPTION);
         }
@@ -129,7 +134,7 @@ public class PlotItem {
     public StringProperty descriptionProperty() {
         if (null == description) {
             description = new StringPropertyBase(_description) {
-                @Override protected void invalidated() { fireChartItemEvent(UPDATED_EVENT); }
+                @Override protected void invalidated() { modified(); }
                 @Override public Object getBean() { return PlotItem.this; }
                 @Override public String getName() { return "description"; }
             };
@@ -142,7 +147,7 @@ public class PlotItem {
     public void setColor(final Color COLOR) {
         if (null == color) {
             _color = COLOR;
-            fireChartItemEvent(UPDATED_EVENT);
+            modified();
         } else {
             color.set(COLOR);
         }
@@ -150,7 +155,7 @@ public class PlotItem {
     public ObjectProperty<Color> colorProperty() {
         if (null == color) {
             color = new ObjectPropertyBase<Color>(_color) {
-                @Override protected void invalidated() { fireChartItemEvent(UPDATED_EVENT); }
+                @Override protected void invalidated() { modified(); }
                 @Override public Object getBean() { return PlotItem.this; }
                 @Override public String getName() { return "color"; }
             };
@@ -163,77 +168,161 @@ public class PlotItem {
     public double getSumOfOutgoing() { return getOutgoing().values().stream().mapToDouble(Double::doubleValue).sum(); }
     public double getMaxSum() { return Math.max(getSumOfIncoming(), getSumOfOutgoing()); }
 
+    /**
+     * Returns an unmodifiable view of the outgoing flows. The maps of a PlotItem
+     * are copy on write, every modification publishes a new map, so the returned
+     * map never changes while it is iterated.
+     */
     public Map<PlotItem, Double> getOutgoing() { return outgoing; }
     public void setOutgoing(final Map<PlotItem, Double> OUTGOING) {
         outgoing.forEach((item, value) -> item.removeFromIncoming(PlotItem.this));
-        outgoing.clear();
-        outgoing.putAll(OUTGOING);
+        flowsChanged(outgoing);
+        outgoing = Collections.unmodifiableMap(new LinkedHashMap<>(OUTGOING));
         establishConnections();
-        fireChartItemEvent(UPDATED_EVENT);
+        flowsChanged(outgoing);
+        modified();
     }
     public void addToOutgoing(final PlotItem ITEM, final double VALUE) {
         if (!outgoing.containsKey(ITEM)) {
-            outgoing.put(ITEM, Helper.clamp(0, Double.MAX_VALUE, VALUE));
+            Map<PlotItem, Double> newOutgoing = new LinkedHashMap<>(outgoing);
+            newOutgoing.put(ITEM, Helper.clamp(0, Double.MAX_VALUE, VALUE));
+            outgoing = Collections.unmodifiableMap(newOutgoing);
             establishConnections();
-            fireChartItemEvent(UPDATED_EVENT);
+            flowChanged(ITEM);
+            modified();
         }
     }
+    /**
+     * Sets the value of the flow to the given item, creating the flow if it
+     * does not exist yet.
+     */
+    public void setOutgoingValue(final PlotItem ITEM, final double VALUE) {
+        double                value       = Helper.clamp(0, Double.MAX_VALUE, VALUE);
+        Map<PlotItem, Double> newOutgoing = new LinkedHashMap<>(outgoing);
+        newOutgoing.put(ITEM, value);
+        outgoing = Collections.unmodifiableMap(newOutgoing);
+        ITEM.setIncomingValue(PlotItem.this, value);
+        flowChanged(ITEM);
+        modified();
+    }
     public void removeFromOutgoing(final PlotItem ITEM) {
         if (outgoing.containsKey(ITEM)) {
             ITEM.removeFromIncoming(PlotItem.this);
-            outgoing.remove(ITEM);
-            fireChartItemEvent(UPDATED_EVENT);
+            Map<PlotItem, Double> newOutgoing = new LinkedHashMap<>(outgoing);
+            newOutgoing.remove(ITEM);
+            outgoing = Collections.unmodifiableMap(newOutgoing);
+            flowChanged(ITEM);
+            modified();
         }
     }
     public void clearOutgoing() {
         outgoing.forEach((item, value) -> item.removeFromIncoming(PlotItem.this));
-        outgoing.clear();
-        fireChartItemEvent(UPDATED_EVENT);
+        flowsChanged(outgoing);
+        outgoing = Collections.emptyMap();
+        modified();
     }
     public boolean hasOutgoing() { return outgoing.size() > 0; }
 
     public Map<PlotItem, Double> getIncoming() { return incoming; }
     protected void setIncoming(final Map<PlotItem, Double> INCOMING) {
-        incoming.clear();
-        incoming.putAll(INCOMING);
-        fireChartItemEvent(UPDATED_EVENT);
+        incoming = Collections.unmodifiableMap(new LinkedHashMap<>(INCOMING));
+        modified();
     }
     protected void addToIncoming(final PlotItem ITEM, final double VALUE) {
         if (!incoming.containsKey(ITEM)) {
-            incoming.put(ITEM, Helper.clamp(0, Double.MAX_VALUE, VALUE));
-            fireChartItemEvent(UPDATED_EVENT);
+            Map<PlotItem, Double> newIncoming = new LinkedHashMap<>(incoming);
+            newIncoming.put(ITEM, Helper.clamp(0, Double.MAX_VALUE, VALUE));
+            incoming = Collections.unmodifiableMap(newIncoming);
+            modified();
         }
     }
+    protected void setIncomingValue(final PlotItem ITEM, final double VALUE) {
+        Map<PlotItem, Double> newIncoming = new LinkedHashMap<>(incoming);
+        newIncoming.put(ITEM, Helper.clamp(0, Double.MAX_VALUE, VALUE));
+        incoming = Collections.unmodifiableMap(newIncoming);
+        modified();
+    }
     protected void removeFromIncoming(final PlotItem ITEM) {
         if (incoming.containsKey(ITEM)) {
-            incoming.remove(ITEM);
-            fireChartItemEvent(UPDATED_EVENT);
+            Map<PlotItem, Double> newIncoming = new LinkedHashMap<>(incoming);
+            newIncoming.remove(ITEM);
+            incoming = Collections.unmodifiableMap(newIncoming);
+            modified();
         }
     }
     protected void clearIncoming() {
-        incoming.clear();
-        fireChartItemEvent(UPDATED_EVENT);
+        incoming = Collections.emptyMap();
+        modified();
     }
     public boolean hasIncoming() { return incoming.size() > 0 ; }
 
+    /**
+     * Replaces the flows of this item without touching the items on the other
+     * side of the flows, used to connect many items at once where the caller
+     * takes care of both sides. The given maps are used as they are.
+     */
+    void setFlows(final Map<PlotItem, Double> OUTGOING, final Map<PlotItem, Double> INCOMING) {
+        flowsChanged(outgoing);
+        outgoing = null == OUTGOING ? Collections.emptyMap() : Collections.unmodifiableMap(OUTGOING);
+        flowsChanged(outgoing);
+        incoming = null == INCOMING ? Collections.emptyMap() : Collections.unmodifiableMap(INCOMING);
+        modified();
+    }
+
+    /**
+     * Applies the given changes to the outgoing flows of this item with a
+     * single copy of the map, a value of null removes the flow. Like
+     * setFlows() it doesn't touch the incoming flows of the targets.
+     */
+    void updateOutgoing(final Map<PlotItem, Double> CHANGES) {
+        outgoing = Collections.unmodifiableMap(applyChanges(outgoing, CHANGES));
+        flowsChanged(CHANGES);
+        modified();
+    }
+    void updateIncoming(final Map<PlotItem, Double> CHANGES) {
+        incoming = Collections.unmodifiableMap(applyChanges(incoming, CHANGES));
+        modified();
+    }
+    private static Map<PlotItem, Double> applyChanges(final Map<PlotItem, Double> FLOWS, final Map<PlotItem, Double> CHANGES) {
+        Map<PlotItem, Double> flows = new LinkedHashMap<>(FLOWS);
+        CHANGES.forEach((item, value) -> {
+            if (null == value) {
+                flows.remove(item);
+            } else {
+                flows.put(item, value);
+            }
+        });
+        return flows;
+    }
+
     public boolean isRoot() { return hasOutgoing() && !hasIncoming(); }
 
+    /**
+     * Returns the number of steps up to a root following the first incoming
+     * flows, starting at the last incoming flow. On a cycle the first item
+     * that is reached twice is treated like a root.
+     */
     public int getLevel() {
         if (level == -1) {
             if (isRoot()) {
                 level = 0;
-            } else {
-                for (PlotItem item : getIncoming().keySet()) {
-                    level = getLevel(item, 0);
-                }
+            } else if (hasIncoming()) {
+                PlotItem lastIncoming = null;
+                for (PlotItem item : getIncoming().keySet()) { lastIncoming = item; }
+                level = getLevel(lastIncoming);
             }
         }
         return level;
     }
-    private int getLevel(final PlotItem ITEM, int level) {
-        level++;
-        if (ITEM.isRoot()) { return level; }
-        level = getLevel(ITEM.getIncoming().keySet().iterator().next(), level);
+    private int getLevel(final PlotItem ITEM) {
+        Set<PlotItem> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        PlotItem      item    = ITEM;
+        int           level   = 1;
+        visited.add(this);
+        while (!item.isRoot() && item.hasIncoming() && visited.add(item)) {
+            item = item.getIncoming().keySet().iterator().next();
+            level++;
+        }
         return level;
     }
 
@@ -242,10 +331,10 @@ public class PlotItem {
 
         sortAndReverse(outgoingKeys, LIST_WITH_SORTED_ITEMS);
 
-        Map<PlotItem, Double> sortedOutgoingItems = new LinkedHashMap<>(outgoingKeys.size());
-        for (PlotItem plotItem : outgoingKeys) { sortedOutgoingItems.put(plotItem, getOutgoing().get(plotItem)); }
-        outgoing.clear();
-        outgoing.putAll(sortedOutgoingItems);
+        Map<PlotItem, Double> currentOutgoingItems = getOutgoing();
+        Map<PlotItem, Double> sortedOutgoingItems  = new LinkedHashMap<>(outgoingKeys.size());
+        for (PlotItem plotItem : outgoingKeys) { sortedOutgoingItems.put(plotItem, currentOutgoingItems.get(plotItem)); }
+        outgoing = Collections.unmodifiableMap(sortedOutgoingItems);
     }
     protected void sortIncomingByGivenList(final List<PlotItem> LIST_WITH_SORTED_ITEMS) {
         List<PlotItem> incomingKeys = new ArrayList(getIncoming().keySet());
@@ -253,10 +342,10 @@ public class PlotItem {
 
         sortAndReverse(incomingKeys, LIST_WITH_SORTED_ITEMS);
 
-        Map<PlotItem, Double> sortedIncomingItems = new LinkedHashMap<>(incomingKeys.size());
-        for (PlotItem plotItem : incomingKeys) { sortedIncomingItems.put(plotItem, getIncoming().get(plotItem)); }
-        incoming.clear();
-        incoming.putAll(sortedIncomingItems);
+        Map<PlotItem, Double> currentIncomingItems = getIncoming();
+        Map<PlotItem, Double> sortedIncomingItems  = new LinkedHashMap<>(incomingKeys.size());
+        for (PlotItem plotItem : incomingKeys) { sortedIncomingItems.put(plotItem, currentIncomingItems.get(plotItem)); }
+        incoming = Collections.unmodifiableMap(sortedIncomingItems);
     }
 
     private void sortAndReverse(final List<PlotItem> LIST_TO_SORT, final List<PlotItem> SORTED_LIST) {
@@ -264,6 +353,35 @@ public class PlotItem {
         Collections.reverse(LIST_TO_SORT);
     }
 
+    /**
+     * Returns a counter that is incremented on every modification of this item.
+     */
+    public long getModCount() { return modCount; }
+
+    /**
+     * Returns the change bus this item reports its modifications to or null.
+     */
+    public ChangeBus getChangeBus() { return changeBus; }
+
+    private void modified() {
+        modCount++;
+        ChangeBus bus = changeBus;
+        if (null != bus) { bus.itemChanged(PlotItem.this); }
+        if (null != listeners) {
+            if (null == updatedEvent) { updatedEvent = new PlotItemEvent(PlotItem.this, PlotItemEventType.UPDATED); }
+            fireChartItemEvent(updatedEvent);
+        }
+    }
+
+    private void flowChanged(final PlotItem TARGET) {
+        ChangeBus bus = changeBus;
+        if (null != bus) { bus.flowChanged(PlotItem.this, TARGET); }
+    }
+    private void flowsChanged(final Map<PlotItem, Double> FLOWS) {
+        ChangeBus bus = changeBus;
+        if (null != bus) { FLOWS.keySet().forEach(target -> bus.flowChanged(PlotItem.this, target)); }
+    }
+
     private void establishConnections() {
         outgoing.forEach((item, value) -> item.addToIncoming(PlotItem.this, value));
     }
@@ -271,8 +389,18 @@ public class PlotItem {
 
     // ******************** Event Handling ************************************
     public void setOnChartItemEvent(final PlotItemEventListener LISTENER) { addChartItemEventListener(LISTENER); }
-    public void addChartItemEventListener(final PlotItemEventListener LISTENER) { if (!listeners.contains(LISTENER)) { listeners.add(LISTENER); } }
-    public void removeChartItemEventListener(final PlotItemEventListener LISTENER) { if (listeners.contains(LISTENER)) { listeners.remove(LISTENER); } }
+    /**
+     * The list of listeners is only created for the first listener, see
+     * ChangeBus for listening to many items at once.
+     */
+    public void addChartItemEventListener(final PlotItemEventListener LISTENER) {
+        if (null == listeners) { listeners = new CopyOnWriteArrayList<>(); }
+        if (!listeners.contains(LISTENER)) { listeners.add(LISTENER); }
+    }
+    public void removeChartItemEventListener(final PlotItemEventListener LISTENER) { if (null != listeners && listeners.contains(LISTENER)) { listeners.remove(LISTENER); } }
 
-    public void fireChartItemEvent(final PlotItemEvent EVENT) { listeners.forEach(listener -> listener.onChartItemEvent(EVENT)); }
+    public void fireChartItemEvent(final PlotItemEvent EVENT) {
+        if (null == listeners) { return; }
+        listeners.forEach(listener -> listener.onChartItemEvent(EVENT));
+    }
 }
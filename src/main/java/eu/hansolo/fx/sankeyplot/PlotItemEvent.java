@@ -18,18 +18,28 @@ package eu.hansolo.fx.sankeyplot;
 
 public class PlotItemEvent {
     private final PlotItem          ITEM;
+    private final PlotItem          TARGET;
     private final PlotItemEventType TYPE;
 
 
     // ******************** Constructors **************************************
     public PlotItemEvent(final PlotItem ITEM, final PlotItemEventType TYPE) {
-        this.ITEM = ITEM;
-        this.TYPE = TYPE;
+        this(ITEM, null, TYPE);
+    }
+    public PlotItemEvent(final PlotItem ITEM, final PlotItem TARGET, final PlotItemEventType TYPE) {
+        this.ITEM   = ITEM;
+        this.TARGET = TARGET;
+        this.TYPE   = TYPE;
     }
 
 
     // ******************** Methods *******************************************
     public PlotItem getItem() { return ITEM; }
 
+    /**
+     * Returns the target of the flow from getItem() if the event refers to a flow, otherwise null.
+     */
+    public PlotItem getTarget() { return TARGET; }
+
     public PlotItemEventType getType() { return TYPE; }
 }
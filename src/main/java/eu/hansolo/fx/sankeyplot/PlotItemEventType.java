@@ -17,5 +17,5 @@
 package eu.hansolo.fx.sankeyplot;
 
 public enum PlotItemEventType {
-    UPDATED
+    UPDATED, ENTERED, EXITED, CLICKED
 }
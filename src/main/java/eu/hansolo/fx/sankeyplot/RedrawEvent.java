@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+@Name("eu.hansolo.fx.sankeyplot.Redraw")
+@Label("Sankey Redraw")
+@Category({ "SankeyPlot" })
+@Description("One call of SankeyPlot.redraw() or one slice of a progressive redraw")
+class RedrawEvent extends Event {
+    @Label("Nodes")        int     nodes;
+    @Label("Levels")       int     levels;
+    @Label("Links Drawn")  int     linksDrawn;
+    @Label("Links Culled") int     linksCulled;
+    @Label("Cached")       boolean cached;
+    @Label("Progressive")  boolean progressive;
+
+
+    // ******************** Methods *******************************************
+    void commit(final int NODES, final int LEVELS, final int LINKS_DRAWN, final int LINKS_CULLED) {
+        commit(NODES, LEVELS, LINKS_DRAWN, LINKS_CULLED, false, false);
+    }
+    void commit(final int NODES, final int LEVELS, final int LINKS_DRAWN, final int LINKS_CULLED, final boolean CACHED, final boolean PROGRESSIVE) {
+        end();
+        if (shouldCommit()) {
+            nodes       = NODES;
+            levels      = LEVELS;
+            linksDrawn  = LINKS_DRAWN;
+            linksCulled = LINKS_CULLED;
+            cached      = CACHED;
+            progressive = PROGRESSIVE;
+            commit();
+        }
+    }
+}
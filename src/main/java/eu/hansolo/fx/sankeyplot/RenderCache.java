@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Directory of rendered images, one file per key, that evicts the least
+ * recently used images once their size exceeds the given number of bytes.
+ * The order of use survives restarts by means of the modification times of
+ * the files. Files are only read and written outside of the lock, a file
+ * that is evicted while it is read counts as missing.
+ */
+final class RenderCache {
+    private static final String            SUFFIX = ".render";
+    private        final Path              directory;
+    private        final long              maxBytes;
+    private        final Map<String, Long> sizes;
+    private              long              totalBytes;
+
+
+    // ******************** Constructors **************************************
+    RenderCache(final Path DIRECTORY, final long MAX_BYTES) throws IOException {
+        if (MAX_BYTES < 0) { throw new IllegalArgumentException("Cache size must not be negative"); }
+        directory = Files.createDirectories(DIRECTORY);
+        maxBytes  = MAX_BYTES;
+        sizes     = new LinkedHashMap<>(16, 0.75f, true);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) { files.add(file); }
+        }
+        Map<Path, FileTime> times = new LinkedHashMap<>();
+        for (Path file : files) { times.put(file, Files.getLastModifiedTime(file)); }
+        files.sort(Comparator.comparing(times::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long   size = Files.size(file);
+            sizes.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            totalBytes += size;
+        }
+        evict(null);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the image of the given key or null if it is not cached.
+     */
+    byte[] get(final String KEY) {
+        synchronized (this) {
+            if (null == sizes.get(KEY)) { return null; }
+        }
+        final Path FILE = getFile(KEY);
+        try {
+            byte[] data = Files.readAllBytes(FILE);
+            Files.setLastModifiedTime(FILE, FileTime.fromMillis(System.currentTimeMillis()));
+            return data;
+        } catch (NoSuchFileException e) {
+            synchronized (this) { remove(KEY); }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given image, images that are larger than the cache are not stored.
+     */
+    void put(final String KEY, final byte[] DATA) throws IOException {
+        if (DATA.length > maxBytes) { return; }
+        final Path TEMP = Files.createTempFile(directory, "render", ".tmp");
+        try {
+            Files.write(TEMP, DATA);
+            Files.move(TEMP, getFile(KEY), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(TEMP);
+        }
+        synchronized (this) {
+            Long previous = sizes.put(KEY, (long) DATA.length);
+            totalBytes += DATA.length - (null == previous ? 0 : previous);
+            evict(KEY);
+        }
+    }
+
+    synchronized long getSize() { return totalBytes; }
+
+    synchronized int getNoOfEntries() { return sizes.size(); }
+
+    private void evict(final String KEEP) {
+        Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(KEEP)) { continue; }
+            iterator.remove();
+            totalBytes -= entry.getValue();
+            delete(entry.getKey());
+        }
+    }
+
+    private void remove(final String KEY) {
+        Long size = sizes.remove(KEY);
+        if (null != size) { totalBytes -= size; }
+    }
+
+    private void delete(final String KEY) {
+        try {
+            Files.deleteIfExists(getFile(KEY));
+        } catch (IOException e) {
+            // A file that is still open can't be deleted on some systems, it's overwritten when it's rendered again
+        }
+    }
+
+    private Path getFile(final String KEY) { return directory.resolve(KEY + SUFFIX); }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Embeddable HTTP service that renders plots as PNG or SVG, e.g. for web
+ * pages. A plot is requested by
+ *   POST /render?format=svg&amp;width=800&amp;height=600&amp;streamFillMode=gradient
+ * with a d3-sankey JSON document (see SankeyJson) as body. Besides format
+ * (png or svg, default png), width and height (default 800 x 600) the query
+ * may contain the settings of the SankeyPlotBuilder that don't refer to the
+ * scene graph, colors are given in web notation, e.g. %23ff0000 or red.
+ * Requests are handled on virtual threads if the JDK has them and on a pool
+ * of threads otherwise. The plots are laid out and painted by a SankeyPlot
+ * one after the other on the FX application thread. start() starts the FX
+ * toolkit on JDK 9 and later, on JDK 8 it has to be running already. On
+ * servers without a display the toolkit runs on the headless Monocle
+ * platform.
+ * Rendered images are cached on disk by the SHA-256 of the query and the
+ * graph, which is also used as ETag. Requests for an image that is being
+ * rendered wait for that rendering.
+ */
+public class RenderService {
+    public  static final String                                                CONTEXT        = "/render";
+    private static final int                                                   VERSION        = 1;
+    private static final String                                                DEFAULT_WIDTH  = "800";
+    private static final String                                                DEFAULT_HEIGHT = "600";
+    private static final int                                                   MAX_SIZE       = 8192;
+    private static final int                                                   MAX_BODY_BYTES = 64 * 1024 * 1024;
+    private static final long                                                  RENDER_TIMEOUT = 60;
+    private static final Map<String, BiConsumer<SankeyPlotBuilder<?>, String>> SETTINGS       = createSettings();
+    private        final HttpServer                                            server;
+    private        final ExecutorService                                       executor;
+    private        final RenderCache                                           cache;
+    private        final ConcurrentMap<String, CompletableFuture<byte[]>>      renderings;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * Creates a service that listens on the given address once it is started
+     * and caches up to MAX_CACHE_BYTES of images in the given directory.
+     */
+    public RenderService(final InetSocketAddress ADDRESS, final Path CACHE_DIRECTORY, final long MAX_CACHE_BYTES) throws IOException {
+        if (null == CACHE_DIRECTORY) { throw new IllegalArgumentException("Cache directory must not be null"); }
+        cache      = new RenderCache(CACHE_DIRECTORY, MAX_CACHE_BYTES);
+        renderings = new ConcurrentHashMap<>();
+        executor   = createExecutor();
+        server     = HttpServer.create(ADDRESS, 0);
+        server.createContext(CONTEXT, this::handle);
+        server.setExecutor(executor);
+    }
+
+
+    // ******************** Methods *******************************************
+    public void start() {
+        startToolkit();
+        server.start();
+    }
+
+    /**
+     * Stops the service, requests that are still running are cut off.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() { return server.getAddress(); }
+
+    public long getCacheSize() { return cache.getSize(); }
+
+    private void handle(final HttpExchange EXCHANGE) throws IOException {
+        try {
+            if (!"POST".equals(EXCHANGE.getRequestMethod())) {
+                EXCHANGE.getResponseHeaders().set("Allow", "POST");
+                sendText(EXCHANGE, 405, "Plots are requested by POST");
+                return;
+            }
+            SortedMap<String, String> parameters;
+            byte[]                    graph;
+            try {
+                parameters = getParameters(EXCHANGE.getRequestURI().getRawQuery());
+                graph      = readBody(EXCHANGE.getRequestBody());
+            } catch (IllegalArgumentException e) {
+                sendText(EXCHANGE, 400, e.getMessage());
+                return;
+            }
+
+            final String KEY  = getKey(parameters, graph);
+            final String ETAG = '"' + KEY + '"';
+            EXCHANGE.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(EXCHANGE.getRequestHeaders().getFirst("If-None-Match"))) {
+                EXCHANGE.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] image;
+            try {
+                image = getImage(KEY, parameters, graph);
+            } catch (IllegalArgumentException | IOException e) {
+                // Broken graphs and invalid settings
+                sendText(EXCHANGE, 400, e.getMessage());
+                return;
+            } catch (TimeoutException e) {
+                sendText(EXCHANGE, 503, "Rendering took too long");
+                return;
+            } catch (Exception e) {
+                sendText(EXCHANGE, 500, String.valueOf(e));
+                return;
+            }
+            send(EXCHANGE, 200, "svg".equals(parameters.get("format")) ? "image/svg+xml" : "image/png", image);
+        } finally {
+            EXCHANGE.close();
+        }
+    }
+
+    private byte[] getImage(final String KEY, final SortedMap<String, String> PARAMETERS, final byte[] GRAPH) throws Exception {
+        byte[] image = cache.get(KEY);
+        if (null != image) { return image; }
+
+        CompletableFuture<byte[]> rendering = new CompletableFuture<>();
+        CompletableFuture<byte[]> running   = renderings.putIfAbsent(KEY, rendering);
+        if (null != running) {
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            image = render(PARAMETERS, GRAPH);
+            try {
+                cache.put(KEY, image);
+            } catch (IOException e) {
+                // The image is rendered again the next time
+            }
+            rendering.complete(image);
+            return image;
+        } catch (Exception e) {
+            rendering.completeExceptionally(e);
+            throw e;
+        } finally {
+            renderings.remove(KEY);
+        }
+    }
+
+    private static byte[] render(final SortedMap<String, String> PARAMETERS, final byte[] GRAPH) throws Exception {
+        final List<PlotItem>       ITEMS   = SankeyJson.read(new InputStreamReader(new ByteArrayInputStream(GRAPH), StandardCharsets.UTF_8));
+        final int                  WIDTH   = Integer.parseInt(PARAMETERS.get("width"));
+        final int                  HEIGHT  = Integer.parseInt(PARAMETERS.get("height"));
+        final SankeyPlotBuilder<?> BUILDER = new PlotBuilder().items(ITEMS).prefSize(WIDTH, HEIGHT).animated(false).progressive(false).interactive(false);
+        for (Map.Entry<String, String> parameter : PARAMETERS.entrySet()) {
+            BiConsumer<SankeyPlotBuilder<?>, String> setting = SETTINGS.get(parameter.getKey());
+            if (null != setting) { setting.accept(BUILDER, parameter.getValue()); }
+        }
+
+        if ("svg".equals(PARAMETERS.get("format"))) {
+            return onFxThread(() -> {
+                SankeyPlot plot = build(BUILDER, WIDTH, HEIGHT);
+                try {
+                    StringWriter writer = new StringWriter();
+                    plot.writeSvg(writer);
+                    return writer.toString().getBytes(StandardCharsets.UTF_8);
+                } finally {
+                    plot.dispose();
+                }
+            });
+        }
+        final WritableImage IMAGE = onFxThread(() -> {
+            SankeyPlot plot = build(BUILDER, WIDTH, HEIGHT);
+            try {
+                SnapshotParameters parameters = new SnapshotParameters();
+                parameters.setFill(Color.TRANSPARENT);
+                return plot.snapshot(parameters, null);
+            } finally {
+                plot.dispose();
+            }
+        });
+        // Encoding is done on the thread of the request, the FX application thread is busy enough
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(SwingFXUtils.fromFXImage(IMAGE, null), "png", out);
+        return out.toByteArray();
+    }
+
+    private static SankeyPlot build(final SankeyPlotBuilder<?> BUILDER, final int WIDTH, final int HEIGHT) {
+        SankeyPlot plot = BUILDER.build();
+        plot.resize(WIDTH, HEIGHT);
+        return plot;
+    }
+
+    private static <T> T onFxThread(final Callable<T> TASK) throws Exception {
+        if (Platform.isFxApplicationThread()) { return TASK.call(); }
+        FutureTask<T> task = new FutureTask<>(TASK);
+        Platform.runLater(task);
+        try {
+            return task.get(RENDER_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    private static SortedMap<String, String> getParameters(final String QUERY) {
+        SortedMap<String, String> parameters = new TreeMap<>();
+        parameters.put("format", "png");
+        parameters.put("width", DEFAULT_WIDTH);
+        parameters.put("height", DEFAULT_HEIGHT);
+        if (null != QUERY) {
+            for (String pair : QUERY.split("&")) {
+                if (pair.isEmpty()) { continue; }
+                int    separator = pair.indexOf('=');
+                String name      = decode(separator < 0 ? pair : pair.substring(0, separator));
+                String value     = separator < 0 ? "" : decode(pair.substring(separator + 1));
+                if (!parameters.containsKey(name) && !SETTINGS.containsKey(name)) { throw new IllegalArgumentException("Unknown parameter " + name); }
+                parameters.put(name, value);
+            }
+        }
+        String format = parameters.get("format");
+        if (!"png".equals(format) && !"svg".equals(format)) { throw new IllegalArgumentException("Format must be png or svg but was " + format); }
+        for (String name : new String[] { "width", "height" }) {
+            int size = Integer.parseInt(parameters.get(name));
+            if (size < 1 || size > MAX_SIZE) { throw new IllegalArgumentException("The " + name + " must be between 1 and " + MAX_SIZE + " but was " + size); }
+        }
+        return parameters;
+    }
+
+    private static String decode(final String TEXT) {
+        try {
+            return URLDecoder.decode(TEXT, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readBody(final InputStream IN) throws IOException {
+        ByteArrayOutputStream out    = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[8192];
+        for (int read = IN.read(buffer) ; read >= 0 ; read = IN.read(buffer)) {
+            if (out.size() + read > MAX_BODY_BYTES) { throw new IllegalArgumentException("Graphs must not be larger than " + MAX_BODY_BYTES + " bytes"); }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String getKey(final SortedMap<String, String> PARAMETERS, final byte[] GRAPH) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((byte) VERSION);
+        for (Map.Entry<String, String> parameter : PARAMETERS.entrySet()) {
+            digest.update(parameter.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(parameter.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(GRAPH);
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) { key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16)); }
+        return key.toString();
+    }
+
+    private static void sendText(final HttpExchange EXCHANGE, final int STATUS, final String TEXT) throws IOException {
+        send(EXCHANGE, STATUS, "text/plain; charset=utf-8", String.valueOf(TEXT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(final HttpExchange EXCHANGE, final int STATUS, final String CONTENT_TYPE, final byte[] DATA) throws IOException {
+        EXCHANGE.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        EXCHANGE.sendResponseHeaders(STATUS, 0 == DATA.length ? -1 : DATA.length);
+        try (OutputStream out = EXCHANGE.getResponseBody()) { out.write(DATA); }
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // Virtual threads are available from JDK 21 on
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "RenderService");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static void startToolkit() {
+        try {
+            Platform.class.getMethod("startup", Runnable.class).invoke(null, (Runnable) () -> Platform.setImplicitExit(false));
+        } catch (InvocationTargetException e) {
+            // The toolkit is running already
+        } catch (ReflectiveOperationException e) {
+            // JDK 8 has no Platform.startup(), the application has to start the toolkit
+        }
+    }
+
+    private static Map<String, BiConsumer<SankeyPlotBuilder<?>, String>> createSettings() {
+        Map<String, BiConsumer<SankeyPlotBuilder<?>, String>> settings = new HashMap<>();
+        settings.put("streamFillMode", (builder, value) -> builder.streamFillMode(SankeyPlot.StreamFillMode.valueOf(value.toUpperCase(Locale.ROOT))));
+        settings.put("streamColor", (builder, value) -> builder.streamColor(Color.web(value)));
+        settings.put("textColor", (builder, value) -> builder.textColor(Color.web(value)));
+        settings.put("itemColor", (builder, value) -> builder.itemColor(Color.web(value)));
+        settings.put("useItemColor", (builder, value) -> builder.useItemColor(parseBoolean(value)));
+        settings.put("decimals", (builder, value) -> builder.decimals(Integer.parseInt(value)));
+        settings.put("itemValueLabel", (builder, value) -> builder.itemValueLabel(SankeyPlot.ValueLabel.valueOf(value.toUpperCase(Locale.ROOT))));
+        settings.put("linkValueLabel", (builder, value) -> builder.linkValueLabel(SankeyPlot.ValueLabel.valueOf(value.toUpperCase(Locale.ROOT))));
+        settings.put("showFlowDirection", (builder, value) -> builder.showFlowDirection(parseBoolean(value)));
+        settings.put("itemWidth", (builder, value) -> builder.itemWidth(Integer.parseInt(value)));
+        settings.put("autoItemWidth", (builder, value) -> builder.autoItemWidth(parseBoolean(value)));
+        settings.put("itemGap", (builder, value) -> builder.itemGap(Integer.parseInt(value)));
+        settings.put("autoItemGap", (builder, value) -> builder.autoItemGap(parseBoolean(value)));
+        settings.put("connectionOpacity", (builder, value) -> builder.connectionOpacity(Double.parseDouble(value)));
+        settings.put("mergeStreams", (builder, value) -> builder.mergeStreams(parseBoolean(value)));
+        settings.put("levelOfDetail", (builder, value) -> builder.levelOfDetail(parseBoolean(value)));
+        settings.put("separateComponents", (builder, value) -> builder.separateComponents(parseBoolean(value)));
+        settings.put("relaxationIterations", (builder, value) -> builder.relaxationIterations(Integer.parseInt(value)));
+        settings.put("relaxationBudget", (builder, value) -> builder.relaxationBudget(Long.parseLong(value)));
+        return Collections.unmodifiableMap(settings);
+    }
+
+    private static boolean parseBoolean(final String VALUE) {
+        if ("true".equalsIgnoreCase(VALUE)) { return true; }
+        if ("false".equalsIgnoreCase(VALUE)) { return false; }
+        throw new IllegalArgumentException("Expected true or false but was " + VALUE);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    // SankeyPlotBuilder.create() returns a raw builder
+    private static final class PlotBuilder extends SankeyPlotBuilder<PlotBuilder> { }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.tools.Helper;
+import eu.hansolo.fx.sankeyplot.tools.JsonReader;
+import eu.hansolo.fx.sankeyplot.tools.JsonReader.Token;
+import eu.hansolo.fx.sankeyplot.tools.JsonWriter;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads and writes graphs in the JSON format of d3-sankey:
+ * { "nodes": [ { "name": "a" }, ... ], "links": [ { "source": 0, "target": 1, "value": 10 }, ... ] }
+ * Nodes may also have an "id", a "value", a "description" and a "color"
+ * in web notation. Numbers as source and target of a link are indices of
+ * the nodes, strings are matched against the ids and then the names of the
+ * nodes, and nodes that were replaced by objects by d3 are matched by their
+ * "index", "id" or "name". Multiple links between the same nodes are added up.
+ * The document is streamed, links are resolved while they are read and the
+ * memory needed only depends on the size of the graph. Links that refer to
+ * nodes by name before the nodes were read are resolved at the end.
+ */
+public class SankeyJson {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int    NO_NODE    = -1;
+
+
+    // ******************** Methods *******************************************
+    public static List<PlotItem> read(final Path PATH) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(PATH), StandardCharsets.UTF_8)) { return read(reader); }
+    }
+    /**
+     * Returns the items of the given document connected by its links, in the
+     * order of the nodes. The reader is not closed.
+     */
+    public static List<PlotItem> read(final Reader READER) throws IOException {
+        JsonReader           json  = new JsonReader(READER);
+        List<PlotItem>       items = new ArrayList<>();
+        Map<String, Integer> ids   = new HashMap<>();
+        Links                links = new Links();
+        boolean              nodes = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("nodes".equals(name)) {
+                readNodes(json, items, ids);
+                nodes = true;
+            } else if ("links".equals(name)) {
+                readLinks(json, links, nodes ? ids : null);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (Token.END_DOCUMENT != json.peek()) { throw new IOException("Expected end of document"); }
+        connect(items, ids, links);
+        return items;
+    }
+
+    public static void write(final Collection<PlotItem> ITEMS, final Path PATH) throws IOException { write(GraphSnapshot.of(ITEMS), PATH); }
+    public static void write(final GraphSnapshot SNAPSHOT, final Path PATH) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(PATH), StandardCharsets.UTF_8))) { write(SNAPSHOT, writer); }
+    }
+    public static void write(final Collection<PlotItem> ITEMS, final Writer WRITER) throws IOException { write(GraphSnapshot.of(ITEMS), WRITER); }
+    /**
+     * Writes the nodes and links of the given snapshot, links refer to the
+     * nodes by their index. Flows to items that are not part of the snapshot
+     * are left out. The writer is flushed but not closed.
+     */
+    public static void write(final GraphSnapshot SNAPSHOT, final Writer WRITER) throws IOException {
+        JsonWriter json = new JsonWriter(WRITER);
+        json.beginObject().name("nodes").beginArray();
+        for (int node = 0 ; node < SNAPSHOT.getNoOfNodes() ; node++) {
+            json.beginObject().name("name").value(SNAPSHOT.getName(node));
+            String description = SNAPSHOT.getDescription(node);
+            if (null != description && !description.isEmpty()) { json.name("description").value(description); }
+            if (SNAPSHOT.getValue(node) != 0 && isFinite(SNAPSHOT.getValue(node))) { json.name("value").value(SNAPSHOT.getValue(node)); }
+            if (null != SNAPSHOT.getColor(node)) { json.name("color").value(toWeb(SNAPSHOT.getColor(node))); }
+            json.endObject();
+        }
+        json.endArray().name("links").beginArray();
+        for (int edge = 0 ; edge < SNAPSHOT.getNoOfEdges() ; edge++) {
+            double value = SNAPSHOT.getEdgeValue(edge);
+            json.beginObject()
+                .name("source").value(SNAPSHOT.getEdgeSource(edge))
+                .name("target").value(SNAPSHOT.getEdgeTarget(edge))
+                .name("value").value(isFinite(value) ? value : 0)
+                .endObject();
+        }
+        json.endArray().endObject();
+        json.flush();
+    }
+
+    private static void readNodes(final JsonReader JSON, final List<PlotItem> ITEMS, final Map<String, Integer> IDS) throws IOException {
+        JSON.beginArray();
+        while (JSON.hasNext()) {
+            String id          = null;
+            String name        = null;
+            String description = null;
+            Color  color       = null;
+            double value       = 0;
+            JSON.beginObject();
+            while (JSON.hasNext()) {
+                String key = JSON.nextName();
+                if ("name".equals(key)) {
+                    name = nextString(JSON);
+                } else if ("id".equals(key)) {
+                    id = nextString(JSON);
+                } else if ("description".equals(key)) {
+                    description = nextString(JSON);
+                } else if ("value".equals(key)) {
+                    value = nextNumber(JSON);
+                } else if ("color".equals(key)) {
+                    color = toColor(nextString(JSON));
+                } else {
+                    JSON.skipValue();
+                }
+            }
+            JSON.endObject();
+
+            final int INDEX = ITEMS.size();
+            PlotItem item = new PlotItem(null == name ? (null == id ? "" : id) : name, value);
+            if (null != description) { item.setDescription(description); }
+            if (null != color) { item.setColor(color); }
+            ITEMS.add(item);
+            // Ids take precedence over names
+            if (null != id) { IDS.put(id, INDEX); }
+            if (null != name) { IDS.putIfAbsent(name, INDEX); }
+        }
+        JSON.endArray();
+    }
+
+    private static void readLinks(final JsonReader JSON, final Links LINKS, final Map<String, Integer> IDS) throws IOException {
+        JSON.beginArray();
+        while (JSON.hasNext()) {
+            int    source = NO_NODE;
+            int    target = NO_NODE;
+            double value  = 0;
+            JSON.beginObject();
+            while (JSON.hasNext()) {
+                String key = JSON.nextName();
+                if ("source".equals(key)) {
+                    source = readNode(JSON, LINKS, IDS);
+                } else if ("target".equals(key)) {
+                    target = readNode(JSON, LINKS, IDS);
+                } else if ("value".equals(key)) {
+                    value = nextNumber(JSON);
+                } else {
+                    JSON.skipValue();
+                }
+            }
+            JSON.endObject();
+            if (NO_NODE == source || NO_NODE == target) { throw new IOException("Link " + LINKS.size + " needs a source and a target"); }
+            LINKS.add(source, target, Helper.clamp(0, Double.MAX_VALUE, value));
+        }
+        JSON.endArray();
+    }
+
+    /**
+     * Returns the index of the node that is referred to, or a pending reference
+     * below NO_NODE if the nodes were not read yet.
+     */
+    private static int readNode(final JsonReader JSON, final Links LINKS, final Map<String, Integer> IDS) throws IOException {
+        Token token = JSON.peek();
+        if (Token.NUMBER == token) {
+            int index = JSON.nextInt();
+            if (index < 0) { throw new IOException("Link " + LINKS.size + " refers to node " + index); }
+            return index;
+        }
+        if (Token.STRING == token) { return LINKS.resolve(JSON.nextString(), IDS); }
+        if (Token.BEGIN_OBJECT != token) { throw new IOException("Link " + LINKS.size + " refers to a node by " + token); }
+
+        // A node object as d3-sankey leaves it in the links after the layout
+        int    index = NO_NODE;
+        String id    = null;
+        String name  = null;
+        JSON.beginObject();
+        while (JSON.hasNext()) {
+            String key = JSON.nextName();
+            if ("index".equals(key)) {
+                index = JSON.nextInt();
+            } else if ("id".equals(key)) {
+                id = nextString(JSON);
+            } else if ("name".equals(key)) {
+                name = nextString(JSON);
+            } else {
+                JSON.skipValue();
+            }
+        }
+        JSON.endObject();
+        if (index >= 0) { return index; }
+        if (null != id) { return LINKS.resolve(id, IDS); }
+        if (null != name) { return LINKS.resolve(name, IDS); }
+        throw new IOException("Link " + LINKS.size + " refers to a node without index, id or name");
+    }
+
+    private static void connect(final List<PlotItem> ITEMS, final Map<String, Integer> IDS, final Links LINKS) throws IOException {
+        final int NODES = ITEMS.size();
+        int[]     noOfOutgoing = new int[NODES];
+        int[]     noOfIncoming = new int[NODES];
+        for (int link = 0 ; link < LINKS.size ; link++) {
+            LINKS.sources[link] = LINKS.getNode(link, LINKS.sources[link], IDS, NODES);
+            LINKS.targets[link] = LINKS.getNode(link, LINKS.targets[link], IDS, NODES);
+            noOfOutgoing[LINKS.sources[link]]++;
+            noOfIncoming[LINKS.targets[link]]++;
+        }
+
+        // Both sides of every item are set at once, connecting them one by one would copy the maps for every link
+        List<Map<PlotItem, Double>> outgoing = new ArrayList<>(NODES);
+        List<Map<PlotItem, Double>> incoming = new ArrayList<>(NODES);
+        for (int node = 0 ; node < NODES ; node++) {
+            outgoing.add(0 == noOfOutgoing[node] ? null : new LinkedHashMap<>(noOfOutgoing[node] * 4 / 3 + 1));
+            incoming.add(0 == noOfIncoming[node] ? null : new LinkedHashMap<>(noOfIncoming[node] * 4 / 3 + 1));
+        }
+        for (int link = 0 ; link < LINKS.size ; link++) {
+            int source = LINKS.sources[link];
+            int target = LINKS.targets[link];
+            outgoing.get(source).merge(ITEMS.get(target), LINKS.values[link], Double::sum);
+            incoming.get(target).merge(ITEMS.get(source), LINKS.values[link], Double::sum);
+        }
+        for (int node = 0 ; node < NODES ; node++) { ITEMS.get(node).setFlows(outgoing.get(node), incoming.get(node)); }
+    }
+
+    private static String nextString(final JsonReader JSON) throws IOException {
+        if (Token.NULL != JSON.peek()) { return JSON.nextString(); }
+        JSON.nextNull();
+        return null;
+    }
+
+    private static double nextNumber(final JsonReader JSON) throws IOException {
+        if (Token.NULL != JSON.peek()) { return JSON.nextDouble(); }
+        JSON.nextNull();
+        return 0;
+    }
+
+    private static Color toColor(final String WEB) throws IOException {
+        if (null == WEB) { return null; }
+        try {
+            return Color.web(WEB);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid color " + WEB, e);
+        }
+    }
+
+    private static String toWeb(final Color COLOR) {
+        final boolean OPAQUE = COLOR.getOpacity() >= 1.0;
+        char[] web = new char[OPAQUE ? 7 : 9];
+        web[0] = '#';
+        appendHex(web, 1, COLOR.getRed());
+        appendHex(web, 3, COLOR.getGreen());
+        appendHex(web, 5, COLOR.getBlue());
+        if (!OPAQUE) { appendHex(web, 7, COLOR.getOpacity()); }
+        return new String(web);
+    }
+    private static void appendHex(final char[] WEB, final int POSITION, final double COMPONENT) {
+        int value = (int) Math.round(COMPONENT * 255);
+        WEB[POSITION]     = HEX_DIGITS[value >> 4];
+        WEB[POSITION + 1] = HEX_DIGITS[value & 0xf];
+    }
+
+    private static boolean isFinite(final double VALUE) { return !Double.isNaN(VALUE) && !Double.isInfinite(VALUE); }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Links {
+        private int[]        sources;
+        private int[]        targets;
+        private double[]     values;
+        private int          size;
+        private List<String> pending;
+
+
+        // ******************** Constructors **********************************
+        Links() {
+            sources = new int[256];
+            targets = new int[256];
+            values  = new double[256];
+            pending = new ArrayList<>();
+        }
+
+
+        // ******************** Methods ***************************************
+        void add(final int SOURCE, final int TARGET, final double VALUE) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+                values  = Arrays.copyOf(values, size * 2);
+            }
+            sources[size] = SOURCE;
+            targets[size] = TARGET;
+            values[size]  = VALUE;
+            size++;
+        }
+
+        /**
+         * Returns the index of the node with the given id or name. Without
+         * nodes the name is kept and a pending reference is returned.
+         */
+        int resolve(final String ID, final Map<String, Integer> IDS) throws IOException {
+            if (null == IDS) {
+                pending.add(ID);
+                return NO_NODE - pending.size();
+            }
+            Integer index = IDS.get(ID);
+            if (null == index) { throw new IOException("Link " + size + " refers to unknown node \"" + ID + "\""); }
+            return index;
+        }
+
+        int getNode(final int LINK, final int REFERENCE, final Map<String, Integer> IDS, final int NO_OF_NODES) throws IOException {
+            int node = REFERENCE;
+            if (REFERENCE < NO_NODE) {
+                String  id    = pending.get(NO_NODE - REFERENCE - 1);
+                Integer index = IDS.get(id);
+                if (null == index) { throw new IOException("Link " + LINK + " refers to unknown node \"" + id + "\""); }
+                node = index;
+            }
+            if (node >= NO_OF_NODES) { throw new IOException("Link " + LINK + " refers to node " + node + " but there are only " + NO_OF_NODES + " nodes"); }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,1128 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import eu.hansolo.fx.sankeyplot.SankeyMetrics.Stage;
+import eu.hansolo.fx.sankeyplot.tools.Helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+
+/**
+ * Layout of a GraphSnapshot, computed by compute() without touching any
+ * PlotItem, which makes it safe to compute on a background thread.
+ * Nodes are addressed by their index in the snapshot. Levels are stored
+ * top to bottom, links are stored in paint order (level by level, node by
+ * node and per node from the top to the bottom of the source).
+ * Only links between adjacent levels are laid out, all other edges are culled.
+ * Cycles are broken by a small set of feedback edges (see FeedbackEdges),
+ * which are ignored while levelling and laid out as backward links that
+ * start below the outgoing links of their source and end below the incoming
+ * links of their target.
+ */
+public final class SankeyLayout {
+    private final GraphSnapshot  snapshot;
+    private final LayoutSettings settings;
+    private final int            minLevel;
+    private final int            maxLevel;
+    private final int[]          levels;
+    private final int[]          levelStart;
+    private final int[]          levelNodes;
+    private final int[]          ranks;
+    private final double         scaleY;
+    private final double[]       nodeX;
+    private final double[]       nodeY;
+    private final double[]       nodeWidth;
+    private final double[]       nodeHeight;
+    private final double[]       textX;
+    private final double[]       textY;
+    private final int[]          linkStart;
+    private final int[]          linkEnd;
+    private final int[]          linkEdges;
+    private final double[]       linkSourceY;
+    private final double[]       linkTargetY;
+    private final double[]       linkHeight;
+    private final int[]          backwardEdges;
+    private final double[]       backwardSourceY;
+    private final double[]       backwardTargetY;
+    private final double[]       backwardHeight;
+    private final double[]       backwardLaneY;
+    private final long[]         stageNanos;
+    private volatile HitIndex    hitIndex;
+    private volatile int[]       linksBySize;
+
+
+    // ******************** Constructors **************************************
+    private SankeyLayout(final Builder BUILDER) {
+        snapshot        = BUILDER.snapshot;
+        settings        = BUILDER.settings;
+        minLevel        = BUILDER.minLevel;
+        maxLevel        = BUILDER.maxLevel;
+        levels          = BUILDER.levels;
+        levelStart      = BUILDER.levelStart;
+        levelNodes      = BUILDER.levelNodes;
+        ranks           = BUILDER.ranks;
+        scaleY          = BUILDER.scaleY;
+        nodeX           = BUILDER.nodeX;
+        nodeY           = BUILDER.nodeY;
+        nodeWidth       = BUILDER.nodeWidth;
+        nodeHeight      = BUILDER.nodeHeight;
+        textX           = BUILDER.textX;
+        textY           = BUILDER.textY;
+        linkStart       = BUILDER.linkStart;
+        linkEnd         = BUILDER.linkEnd;
+        linkEdges       = BUILDER.linkEdges;
+        linkSourceY     = BUILDER.linkSourceY;
+        linkTargetY     = BUILDER.linkTargetY;
+        linkHeight      = BUILDER.linkHeight;
+        backwardEdges   = BUILDER.backwardEdges;
+        backwardSourceY = BUILDER.backwardSourceY;
+        backwardTargetY = BUILDER.backwardTargetY;
+        backwardHeight  = BUILDER.backwardHeight;
+        backwardLaneY   = BUILDER.backwardLaneY;
+        stageNanos      = BUILDER.stageNanos;
+    }
+
+
+    // ******************** Methods *******************************************
+    public static SankeyLayout compute(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS) {
+        return compute(SNAPSHOT, SETTINGS, null);
+    }
+    /**
+     * Computes the layout and orders the nodes within each level by the given
+     * ranks (lower ranks on top). Nodes without a rank keep their default
+     * position relative to each other and are placed below the ranked ones.
+     * Sharing one order between several snapshots keeps nodes at the same
+     * relative position across all of them.
+     */
+    public static SankeyLayout compute(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final Map<PlotItem, Integer> ORDER) {
+        return compute(SNAPSHOT, SETTINGS, ORDER, null);
+    }
+    /**
+     * Computes the layout like compute(SNAPSHOT, SETTINGS, ORDER), but
+     * without an ORDER the nodes keep their order within each level from
+     * the given previous layout, nodes that are new are inserted at the
+     * average position of the nodes they are linked to. The relaxation
+     * starts at the previous positions, so updates of the data converge in
+     * a few iterations and the nodes stay in place.
+     */
+    public static SankeyLayout compute(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final Map<PlotItem, Integer> ORDER, final SankeyLayout PREVIOUS) {
+        Builder builder = new Builder(SNAPSHOT, SETTINGS);
+        final int NODES  = SNAPSHOT.getNoOfNodes();
+        final int EDGES  = SNAPSHOT.getNoOfEdges();
+
+        LayoutStageEvent levellingEvent = new LayoutStageEvent(Stage.LEVELLING);
+        levellingEvent.begin();
+        long start = System.nanoTime();
+        builder.computeLevels();
+        if (null != ORDER) {
+            builder.applyOrder(ORDER);
+        } else if (null != PREVIOUS && PREVIOUS.snapshot.getNoOfNodes() > 0) {
+            builder.applyPreviousOrder(PREVIOUS);
+        }
+        builder.stageNanos[Stage.LEVELLING.ordinal()] = System.nanoTime() - start;
+        levellingEvent.commit(NODES, EDGES, builder.getNoOfLevels());
+
+        LayoutStageEvent orderingEvent = new LayoutStageEvent(Stage.ORDERING);
+        orderingEvent.begin();
+        start = System.nanoTime();
+        builder.computeLinkOrder();
+        builder.stageNanos[Stage.ORDERING.ordinal()] = System.nanoTime() - start;
+        orderingEvent.commit(NODES, EDGES, builder.getNoOfLevels());
+
+        LayoutStageEvent boundsEvent = new LayoutStageEvent(Stage.BOUNDS);
+        boundsEvent.begin();
+        start = System.nanoTime();
+        builder.computeBounds(SETTINGS);
+        builder.stageNanos[Stage.BOUNDS.ordinal()] = System.nanoTime() - start;
+        boundsEvent.commit(NODES, EDGES, builder.getNoOfLevels());
+
+        return new SankeyLayout(builder);
+    }
+
+    /**
+     * Levels and orders the nodes and links of the given snapshot, which is
+     * the first part of compute() and independent of any LayoutSettings.
+     */
+    static Builder level(final GraphSnapshot SNAPSHOT, final Map<PlotItem, Integer> ORDER) {
+        Builder builder = new Builder(SNAPSHOT, null);
+        long    start   = System.nanoTime();
+        builder.computeLevels();
+        if (null != ORDER) { builder.applyOrder(ORDER); }
+        builder.stageNanos[Stage.LEVELLING.ordinal()] = System.nanoTime() - start;
+        start = System.nanoTime();
+        builder.computeLinkOrder();
+        builder.stageNanos[Stage.ORDERING.ordinal()] = System.nanoTime() - start;
+        return builder;
+    }
+
+    /**
+     * Stacks the layouts of the weakly connected components of the given
+     * snapshot from top to bottom. SUBGRAPHS[c] is the subgraph of the nodes
+     * COMPONENT_NODES[c] of the snapshot and LEVELLED[c] was created by
+     * level() from a subgraph with the same edges. All components share the
+     * vertical scale and the horizontal gap between the levels, the bounds
+     * of the components are computed in parallel.
+     */
+    static SankeyLayout stack(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final GraphSnapshot[] SUBGRAPHS, final int[][] COMPONENT_NODES,
+                              final Builder[] LEVELLED, final long COMPONENT_NANOS) {
+        final int COMPONENTS = LEVELLED.length;
+        final int NODES      = SNAPSHOT.getNoOfNodes();
+        long      start      = System.nanoTime();
+        Builder   builder    = new Builder(SNAPSHOT, SETTINGS);
+        Builder[] components = new Builder[COMPONENTS];
+        int       maxSpan    = 0;
+        double    sumOfSums  = 0;
+        double    gaps       = (COMPONENTS - 1) * SETTINGS.getItemGap();
+        builder.stageNanos[Stage.LEVELLING.ordinal()] = COMPONENT_NANOS;
+        for (int c = 0 ; c < COMPONENTS ; c++) {
+            components[c] = new Builder(LEVELLED[c], SUBGRAPHS[c]);
+            maxSpan       = Math.max(maxSpan, components[c].maxLevel - components[c].minLevel);
+            sumOfSums    += components[c].getMaxSumOfItemsAtLevel() + components[c].getSumOfBackwardValues();
+            gaps         += (components[c].getMaxNoOfItemsAtLevel() - 1 + components[c].backwardEdges.length) * SETTINGS.getItemGap();
+            builder.stageNanos[Stage.LEVELLING.ordinal()] += LEVELLED[c].stageNanos[Stage.LEVELLING.ordinal()];
+            builder.stageNanos[Stage.ORDERING.ordinal()]  += LEVELLED[c].stageNanos[Stage.ORDERING.ordinal()];
+        }
+
+        // Every component gets the height that its fullest level needs at the shared scale
+        final double SCALE_Y        = sumOfSums > 0 ? Math.max(0, (SETTINGS.getHeight() - gaps) / sumOfSums) : 0;
+        final double HORIZONTAL_GAP = maxSpan > 0 ? (SETTINGS.getWidth() - SETTINGS.getItemWidth()) / maxSpan : 0;
+        LayoutSettings[] settings = new LayoutSettings[COMPONENTS];
+        double[]         offsetY  = new double[COMPONENTS];
+        double           y        = 0;
+        for (int c = 0 ; c < COMPONENTS ; c++) {
+            Builder component = components[c];
+            double  height    = (component.getMaxSumOfItemsAtLevel() + component.getSumOfBackwardValues()) * SCALE_Y +
+                                (component.getMaxNoOfItemsAtLevel() - 1 + component.backwardEdges.length) * SETTINGS.getItemGap();
+            double  width     = SETTINGS.getItemWidth() + (component.maxLevel - component.minLevel) * HORIZONTAL_GAP;
+            settings[c] = new LayoutSettings(width, height, SETTINGS.getItemWidth(), SETTINGS.getItemGap(), SETTINGS.getTextGap(),
+                                             SETTINGS.getRelaxationIterations(), SETTINGS.getRelaxationBudget());
+            offsetY[c]  = y;
+            y          += height + SETTINGS.getItemGap();
+        }
+        IntStream.range(0, COMPONENTS).parallel().forEach(c -> components[c].computeBounds(settings[c]));
+
+        // Merge the components level by level, every level lists the nodes of the components from top to bottom
+        int[] component    = new int[NODES];
+        int[] localIndex   = new int[NODES];
+        int   noOfLinks    = 0;
+        int   noOfBackward = 0;
+        for (int c = 0 ; c < COMPONENTS ; c++) {
+            for (int i = 0 ; i < COMPONENT_NODES[c].length ; i++) {
+                component[COMPONENT_NODES[c][i]]  = c;
+                localIndex[COMPONENT_NODES[c][i]] = i;
+            }
+            noOfLinks    += components[c].linkEdges.length;
+            noOfBackward += components[c].backwardEdges.length;
+        }
+        builder.minLevel        = 0;
+        builder.maxLevel        = maxSpan;
+        builder.scaleY          = SCALE_Y;
+        builder.levels          = new int[NODES];
+        builder.ranks           = new int[NODES];
+        builder.levelStart      = new int[maxSpan + 2];
+        builder.levelNodes      = new int[NODES];
+        builder.nodeX           = new double[NODES];
+        builder.nodeY           = new double[NODES];
+        builder.nodeWidth       = new double[NODES];
+        builder.nodeHeight      = new double[NODES];
+        builder.textX           = new double[NODES];
+        builder.textY           = new double[NODES];
+        builder.linkStart       = new int[NODES];
+        builder.linkEnd         = new int[NODES];
+        builder.linkEdges       = new int[noOfLinks];
+        builder.linkSourceY     = new double[noOfLinks];
+        builder.linkTargetY     = new double[noOfLinks];
+        builder.linkHeight      = new double[noOfLinks];
+        builder.backwardEdges   = new int[noOfBackward];
+        builder.backwardSourceY = new double[noOfBackward];
+        builder.backwardTargetY = new double[noOfBackward];
+        builder.backwardHeight  = new double[noOfBackward];
+        builder.backwardLaneY   = new double[noOfBackward];
+        int position = 0;
+        int link     = 0;
+        for (int level = 0 ; level <= maxSpan ; level++) {
+            builder.levelStart[level] = position;
+            for (int c = 0 ; c < COMPONENTS ; c++) {
+                final Builder       COMPONENT = components[c];
+                final GraphSnapshot SUBGRAPH  = SUBGRAPHS[c];
+                if (level > COMPONENT.maxLevel - COMPONENT.minLevel) { continue; }
+                for (int p = COMPONENT.levelStart[level] ; p < COMPONENT.levelStart[level + 1] ; p++) {
+                    int local = COMPONENT.levelNodes[p];
+                    int node  = COMPONENT_NODES[c][local];
+                    builder.levelNodes[position] = node;
+                    builder.levels[node]         = level;
+                    builder.ranks[node]          = position - builder.levelStart[level];
+                    position++;
+
+                    builder.nodeX[node]      = COMPONENT.nodeX[local];
+                    builder.nodeY[node]      = COMPONENT.nodeY[local] + offsetY[c];
+                    builder.nodeWidth[node]  = COMPONENT.nodeWidth[local];
+                    builder.nodeHeight[node] = COMPONENT.nodeHeight[local];
+                    builder.textX[node]      = level < maxSpan ? COMPONENT.nodeX[local] + SETTINGS.getItemWidth() + SETTINGS.getTextGap() : COMPONENT.nodeX[local] - SETTINGS.getTextGap();
+                    builder.textY[node]      = COMPONENT.textY[local] + offsetY[c];
+                    builder.linkStart[node]  = link;
+                    for (int l = COMPONENT.linkStart[local] ; l < COMPONENT.linkEnd[local] ; l++) {
+                        int edge = COMPONENT.linkEdges[l];
+                        builder.linkEdges[link]   = SNAPSHOT.getOutgoingStart(node) + edge - SUBGRAPH.getOutgoingStart(local);
+                        builder.linkSourceY[link] = COMPONENT.linkSourceY[l] + offsetY[c];
+                        builder.linkTargetY[link] = COMPONENT.linkTargetY[l] + offsetY[c];
+                        builder.linkHeight[link]  = COMPONENT.linkHeight[l];
+                        link++;
+                    }
+                    builder.linkEnd[node] = link;
+                }
+            }
+        }
+        builder.levelStart[maxSpan + 1] = position;
+        int backward = 0;
+        for (int c = 0 ; c < COMPONENTS ; c++) {
+            final Builder       COMPONENT = components[c];
+            final GraphSnapshot SUBGRAPH  = SUBGRAPHS[c];
+            for (int l = 0 ; l < COMPONENT.backwardEdges.length ; l++) {
+                int edge   = COMPONENT.backwardEdges[l];
+                int source = SUBGRAPH.getEdgeSource(edge);
+                builder.backwardEdges[backward]   = SNAPSHOT.getOutgoingStart(COMPONENT_NODES[c][source]) + edge - SUBGRAPH.getOutgoingStart(source);
+                builder.backwardSourceY[backward] = COMPONENT.backwardSourceY[l] + offsetY[c];
+                builder.backwardTargetY[backward] = COMPONENT.backwardTargetY[l] + offsetY[c];
+                builder.backwardHeight[backward]  = COMPONENT.backwardHeight[l];
+                builder.backwardLaneY[backward]   = COMPONENT.backwardLaneY[l] + offsetY[c];
+                backward++;
+            }
+        }
+        builder.stageNanos[Stage.BOUNDS.ordinal()] = System.nanoTime() - start;
+        return new SankeyLayout(builder);
+    }
+
+    public GraphSnapshot getSnapshot() { return snapshot; }
+
+    public LayoutSettings getSettings() { return settings; }
+
+    public int getMinLevel() { return minLevel; }
+
+    public int getMaxLevel() { return maxLevel; }
+
+    public int getNoOfLevels() { return levelStart.length - 1; }
+
+    public int getLevel(final int NODE) { return levels[NODE]; }
+
+    /**
+     * Returns the position of the given node within its level, 0 is the top most node.
+     */
+    public int getRank(final int NODE) { return ranks[NODE]; }
+
+    /**
+     * Nodes of the given level are getLevelNode(getLevelStart(level)) until
+     * getLevelNode(getLevelEnd(level) - 1), ordered from top to bottom.
+     */
+    public int getLevelStart(final int LEVEL) { return levelStart[LEVEL - minLevel]; }
+    public int getLevelEnd(final int LEVEL) { return levelStart[LEVEL - minLevel + 1]; }
+    public int getLevelNode(final int POSITION) { return levelNodes[POSITION]; }
+
+    public double getScaleY() { return scaleY; }
+
+    public double getNodeX(final int NODE) { return nodeX[NODE]; }
+    public double getNodeY(final int NODE) { return nodeY[NODE]; }
+    public double getNodeWidth(final int NODE) { return nodeWidth[NODE]; }
+    public double getNodeHeight(final int NODE) { return nodeHeight[NODE]; }
+
+    public double getTextX(final int NODE) { return textX[NODE]; }
+    public double getTextY(final int NODE) { return textY[NODE]; }
+
+    public int getNoOfLinks() { return linkEdges.length; }
+
+    public int getNoOfCulledEdges() { return snapshot.getNoOfEdges() - linkEdges.length - backwardEdges.length; }
+
+    /**
+     * Links of the given source node are getLinkStart(node) until getLinkEnd(node) - 1.
+     */
+    public int getLinkStart(final int NODE) { return linkStart[NODE]; }
+    public int getLinkEnd(final int NODE) { return linkEnd[NODE]; }
+
+    public int getLinkEdge(final int LINK) { return linkEdges[LINK]; }
+    public int getLinkSource(final int LINK) { return snapshot.getEdgeSource(linkEdges[LINK]); }
+    public int getLinkTarget(final int LINK) { return snapshot.getEdgeTarget(linkEdges[LINK]); }
+    public double getLinkValue(final int LINK) { return snapshot.getEdgeValue(linkEdges[LINK]); }
+
+    /**
+     * Returns the y coordinate of the upper edge of the link at its source.
+     */
+    public double getLinkSourceY(final int LINK) { return linkSourceY[LINK]; }
+    /**
+     * Returns the y coordinate of the upper edge of the link at its target.
+     */
+    public double getLinkTargetY(final int LINK) { return linkTargetY[LINK]; }
+    public double getLinkHeight(final int LINK) { return linkHeight[LINK]; }
+
+    /**
+     * Backward links are the feedback edges that close the cycles of the graph,
+     * grouped by their source.
+     */
+    public int getNoOfBackwardLinks() { return backwardEdges.length; }
+
+    public int getBackwardLinkEdge(final int LINK) { return backwardEdges[LINK]; }
+    public int getBackwardLinkSource(final int LINK) { return snapshot.getEdgeSource(backwardEdges[LINK]); }
+    public int getBackwardLinkTarget(final int LINK) { return snapshot.getEdgeTarget(backwardEdges[LINK]); }
+    public double getBackwardLinkValue(final int LINK) { return snapshot.getEdgeValue(backwardEdges[LINK]); }
+
+    /**
+     * Returns the y coordinate of the upper edge of the backward link at the right side of its source.
+     */
+    public double getBackwardLinkSourceY(final int LINK) { return backwardSourceY[LINK]; }
+    /**
+     * Returns the y coordinate of the upper edge of the backward link at the left side of its target.
+     */
+    public double getBackwardLinkTargetY(final int LINK) { return backwardTargetY[LINK]; }
+    public double getBackwardLinkHeight(final int LINK) { return backwardHeight[LINK]; }
+    /**
+     * Returns the y coordinate of the upper edge of the lane below all items
+     * in which the backward link runs from its source back to its target.
+     */
+    public double getBackwardLinkLaneY(final int LINK) { return backwardLaneY[LINK]; }
+
+    public long getStageNanos(final Stage STAGE) { return stageNanos[STAGE.ordinal()]; }
+
+    /**
+     * Returns the spatial index for hit testing, it is created on first use.
+     */
+    HitIndex getHitIndex() {
+        HitIndex index = hitIndex;
+        if (null == index) {
+            index    = new HitIndex(this);
+            hitIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the links ordered by their height, largest first, the order is created on first use.
+     */
+    int[] getLinksBySize() {
+        int[] order = linksBySize;
+        if (null == order) {
+            Integer[] links = new Integer[linkEdges.length];
+            for (int link = 0 ; link < links.length ; link++) { links[link] = link; }
+            Arrays.sort(links, (link1, link2) -> Double.compare(linkHeight[link2], linkHeight[link1]));
+            order = new int[links.length];
+            for (int i = 0 ; i < order.length ; i++) { order[i] = links[i]; }
+            linksBySize = order;
+        }
+        return order;
+    }
+
+    /**
+     * Returns a rough estimate of the heap memory used by this layout (without the snapshot).
+     */
+    public long getEstimatedBytes() {
+        return 64L + (levels.length * 4L) * 3 + levelStart.length * 4L + (nodeX.length * 8L) * 6 +
+               (linkStart.length * 4L) * 2 + linkEdges.length * 4L + (linkSourceY.length * 8L) * 3 + backwardEdges.length * 36L;
+    }
+
+
+    /**
+     * Returns the number of bytes writeTo() needs.
+     */
+    int getSerializedBytes() {
+        final long NODES = levels.length;
+        long bytes = 6 * 4 + 8 + NODES * (4 * 4 + 6 * 8) + linkEdges.length * (4L + 3 * 8) + backwardEdges.length * (4L + 4 * 8);
+        if (bytes > Integer.MAX_VALUE) { throw new IllegalStateException("Layout is too large to be serialized"); }
+        return (int) bytes;
+    }
+
+    /**
+     * Writes levels, ranks, bounds and link offsets of this layout to the
+     * given buffer, with all coordinates divided by UNIT, so that the layout
+     * can be read back for settings that are scaled by a different factor.
+     * The snapshot and the settings are not written, see LayoutStore.
+     */
+    void writeTo(final ByteBuffer BUFFER, final double UNIT) {
+        BUFFER.putInt(minLevel).putInt(maxLevel).putInt(levelStart.length).putInt(levels.length);
+        BUFFER.putDouble(scaleY / UNIT);
+        for (int[] array : new int[][] { levels, ranks, linkStart, linkEnd }) {
+            for (int value : array) { BUFFER.putInt(value); }
+        }
+        for (double[] array : new double[][] { nodeX, nodeY, nodeWidth, nodeHeight, textX, textY }) {
+            for (double value : array) { BUFFER.putDouble(value / UNIT); }
+        }
+        BUFFER.putInt(linkEdges.length);
+        for (int edge : linkEdges) { BUFFER.putInt(edge); }
+        for (double[] array : new double[][] { linkSourceY, linkTargetY, linkHeight }) {
+            for (double value : array) { BUFFER.putDouble(value / UNIT); }
+        }
+        BUFFER.putInt(backwardEdges.length);
+        for (int edge : backwardEdges) { BUFFER.putInt(edge); }
+        for (double[] array : new double[][] { backwardSourceY, backwardTargetY, backwardHeight, backwardLaneY }) {
+            for (double value : array) { BUFFER.putDouble(value / UNIT); }
+        }
+    }
+
+    /**
+     * Reads a layout of the given snapshot that was written by writeTo(),
+     * multiplying all coordinates by UNIT. The layout is checked against the
+     * snapshot, a layout that doesn't fit causes an IOException.
+     * Nothing is computed, so all stage timings of the layout are zero.
+     */
+    static SankeyLayout readFrom(final ByteBuffer BUFFER, final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS, final double UNIT) throws IOException {
+        final int NODES = SNAPSHOT.getNoOfNodes();
+        final int EDGES = SNAPSHOT.getNoOfEdges();
+        Builder builder = new Builder(SNAPSHOT, SETTINGS);
+        builder.minLevel = BUFFER.getInt();
+        builder.maxLevel = BUFFER.getInt();
+        final int NO_OF_LEVELS = BUFFER.getInt() - 1;
+        if (BUFFER.getInt() != NODES || NO_OF_LEVELS < 0 || NO_OF_LEVELS > NODES + 1) { throw new IOException("Layout doesn't fit the snapshot"); }
+        builder.scaleY     = BUFFER.getDouble() * UNIT;
+        builder.levels     = getInts(BUFFER, NODES);
+        builder.ranks      = getInts(BUFFER, NODES);
+        builder.linkStart  = getInts(BUFFER, NODES);
+        builder.linkEnd    = getInts(BUFFER, NODES);
+        builder.nodeX      = getDoubles(BUFFER, NODES, UNIT);
+        builder.nodeY      = getDoubles(BUFFER, NODES, UNIT);
+        builder.nodeWidth  = getDoubles(BUFFER, NODES, UNIT);
+        builder.nodeHeight = getDoubles(BUFFER, NODES, UNIT);
+        builder.textX      = getDoubles(BUFFER, NODES, UNIT);
+        builder.textY      = getDoubles(BUFFER, NODES, UNIT);
+
+        final int LINKS = BUFFER.getInt();
+        if (LINKS < 0 || LINKS > EDGES) { throw new IOException("Layout doesn't fit the snapshot"); }
+        builder.linkEdges   = getEdges(BUFFER, LINKS, EDGES);
+        builder.linkSourceY = getDoubles(BUFFER, LINKS, UNIT);
+        builder.linkTargetY = getDoubles(BUFFER, LINKS, UNIT);
+        builder.linkHeight  = getDoubles(BUFFER, LINKS, UNIT);
+
+        final int BACKWARD = BUFFER.getInt();
+        if (BACKWARD < 0 || LINKS + BACKWARD > EDGES) { throw new IOException("Layout doesn't fit the snapshot"); }
+        builder.backwardEdges   = getEdges(BUFFER, BACKWARD, EDGES);
+        builder.backwardSourceY = getDoubles(BUFFER, BACKWARD, UNIT);
+        builder.backwardTargetY = getDoubles(BUFFER, BACKWARD, UNIT);
+        builder.backwardHeight  = getDoubles(BUFFER, BACKWARD, UNIT);
+        builder.backwardLaneY   = getDoubles(BUFFER, BACKWARD, UNIT);
+
+        // The nodes of every level are restored from the levels and ranks, which have to be a permutation per level
+        builder.levelStart = new int[NO_OF_LEVELS + 1];
+        builder.levelNodes = new int[NODES];
+        for (int node = 0 ; node < NODES ; node++) {
+            int level = builder.levels[node] - builder.minLevel;
+            if (level < 0 || level >= NO_OF_LEVELS) { throw new IOException("Level of node " + node + " is out of range"); }
+            builder.levelStart[level + 1]++;
+        }
+        for (int level = 0 ; level < NO_OF_LEVELS ; level++) { builder.levelStart[level + 1] += builder.levelStart[level]; }
+        Arrays.fill(builder.levelNodes, -1);
+        for (int node = 0 ; node < NODES ; node++) {
+            int level    = builder.levels[node] - builder.minLevel;
+            int position = builder.levelStart[level] + builder.ranks[node];
+            if (builder.ranks[node] < 0 || position >= builder.levelStart[level + 1] || builder.levelNodes[position] >= 0) { throw new IOException("Rank of node " + node + " is invalid"); }
+            builder.levelNodes[position] = node;
+            if (builder.linkStart[node] < 0 || builder.linkEnd[node] < builder.linkStart[node] || builder.linkEnd[node] > LINKS) {
+                throw new IOException("Links of node " + node + " are out of range");
+            }
+        }
+        return new SankeyLayout(builder);
+    }
+
+    private static int[] getInts(final ByteBuffer BUFFER, final int LENGTH) {
+        int[] values = new int[LENGTH];
+        BUFFER.asIntBuffer().get(values);
+        BUFFER.position(BUFFER.position() + LENGTH * 4);
+        return values;
+    }
+
+    private static int[] getEdges(final ByteBuffer BUFFER, final int LENGTH, final int NO_OF_EDGES) throws IOException {
+        int[] edges = getInts(BUFFER, LENGTH);
+        for (int edge : edges) { if (edge < 0 || edge >= NO_OF_EDGES) { throw new IOException("Edge " + edge + " is out of range"); } }
+        return edges;
+    }
+
+    private static double[] getDoubles(final ByteBuffer BUFFER, final int LENGTH, final double UNIT) {
+        double[]     values  = new double[LENGTH];
+        DoubleBuffer doubles = BUFFER.asDoubleBuffer();
+        doubles.get(values);
+        BUFFER.position(BUFFER.position() + LENGTH * 8);
+        for (int i = 0 ; i < LENGTH ; i++) { values[i] *= UNIT; }
+        return values;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    static class Builder {
+        private final GraphSnapshot  snapshot;
+        private final LayoutSettings settings;
+        private final long[]         stageNanos;
+        private       int            minLevel;
+        private       int            maxLevel;
+        private       int[]          levels;
+        private       int[]          levelStart;
+        private       int[]          levelNodes;
+        private       int[]          ranks;
+        private       double         scaleY;
+        private       double[]       nodeX;
+        private       double[]       nodeY;
+        private       double[]       nodeWidth;
+        private       double[]       nodeHeight;
+        private       double[]       textX;
+        private       double[]       textY;
+        private       int[]          linkStart;
+        private       int[]          linkEnd;
+        private       int[]          linkEdges;
+        private       double[]       linkSourceOffset;
+        private       double[]       linkTargetOffset;
+        private       double[]       linkSourceY;
+        private       double[]       linkTargetY;
+        private       double[]       linkHeight;
+        private       FeedbackEdges  feedbackEdges;
+        private       int[]          backwardEdges;
+        private       double[]       backwardSourceOffset;
+        private       double[]       backwardTargetOffset;
+        private       double[]       backwardSourceY;
+        private       double[]       backwardTargetY;
+        private       double[]       backwardHeight;
+        private       double[]       backwardLaneY;
+        private       double[]       previousY;
+
+
+        // ******************** Constructors **********************************
+        Builder(final GraphSnapshot SNAPSHOT, final LayoutSettings SETTINGS) {
+            snapshot   = SNAPSHOT;
+            settings   = SETTINGS;
+            stageNanos = new long[Stage.values().length];
+        }
+        /**
+         * Takes over levels and link order of the given builder for a snapshot with the same edges.
+         */
+        Builder(final Builder LEVELLED, final GraphSnapshot SNAPSHOT) {
+            this(SNAPSHOT, null);
+            minLevel             = LEVELLED.minLevel;
+            maxLevel             = LEVELLED.maxLevel;
+            levels               = LEVELLED.levels;
+            levelStart           = LEVELLED.levelStart;
+            levelNodes           = LEVELLED.levelNodes;
+            ranks                = LEVELLED.ranks;
+            linkStart            = LEVELLED.linkStart;
+            linkEnd              = LEVELLED.linkEnd;
+            linkEdges            = LEVELLED.linkEdges;
+            linkSourceOffset     = LEVELLED.linkSourceOffset;
+            linkTargetOffset     = LEVELLED.linkTargetOffset;
+            feedbackEdges        = LEVELLED.feedbackEdges;
+            backwardEdges        = LEVELLED.backwardEdges;
+            backwardSourceOffset = LEVELLED.backwardSourceOffset;
+            backwardTargetOffset = LEVELLED.backwardTargetOffset;
+        }
+
+
+        // ******************** Methods ***************************************
+        int getNoOfLevels() { return null == levelStart ? 0 : levelStart.length - 1; }
+
+        /**
+         * Assigns every node to a level and defines the order of the nodes within each level.
+         * A root is on level 0, every other node is one level below the root that is reached
+         * by walking up the first incoming flows, starting at its last incoming flow.
+         * Feedback edges are ignored, so a node that is only fed by returning flows is a root.
+         * Roots that only feed into deeper levels are moved right in front of their
+         * first target level and placed on top of it.
+         */
+        void computeLevels() {
+            final int NODES = snapshot.getNoOfNodes();
+            levels        = new int[NODES];
+            ranks         = new int[NODES];
+            feedbackEdges = FeedbackEdges.of(snapshot);
+            if (0 == NODES) {
+                levelStart = new int[1];
+                levelNodes = new int[0];
+                return;
+            }
+
+            int[] chainDepth = new int[NODES];
+            Arrays.fill(chainDepth, -1);
+            int[] path = new int[NODES];
+            for (int node = 0 ; node < NODES ; node++) {
+                int lastIncoming = getIncomingEdge(node, true);
+                if (isRoot(node)) {
+                    levels[node] = 0;
+                } else if (lastIncoming >= 0) {
+                    levels[node] = 1 + getChainDepth(snapshot.getEdgeSource(lastIncoming), chainDepth, path);
+                } else {
+                    levels[node] = -1;
+                }
+            }
+
+            minLevel = Integer.MAX_VALUE;
+            maxLevel = Integer.MIN_VALUE;
+            for (int level : levels) {
+                minLevel = Math.min(minLevel, level);
+                maxLevel = Math.max(maxLevel, level);
+            }
+
+            // Move items with no incoming streams to correct level dependent on level of their outgoing items
+            int[] finalLevels = Arrays.copyOf(levels, NODES);
+            int[] moved       = new int[NODES];
+            int   noOfMoved   = 0;
+            for (int node = 0 ; node < NODES ; node++) {
+                if (levels[node] != minLevel) { continue; }
+                int minLevelOfOutgoingItems = maxLevel;
+                for (int edge = snapshot.getOutgoingStart(node) ; edge < snapshot.getOutgoingEnd(node) ; edge++) {
+                    if (feedbackEdges.contains(edge)) { continue; }
+                    minLevelOfOutgoingItems = Math.min(minLevelOfOutgoingItems, levels[snapshot.getEdgeTarget(edge)]);
+                }
+                if (minLevelOfOutgoingItems > minLevel + 1) {
+                    finalLevels[node] = minLevelOfOutgoingItems - 1;
+                    moved[noOfMoved++] = node;
+                }
+            }
+            levels = finalLevels;
+
+            // Order per level: moved items on top (last moved first), followed by the others in item order
+            final int NO_OF_LEVELS = maxLevel - minLevel + 1;
+            levelStart = new int[NO_OF_LEVELS + 1];
+            levelNodes = new int[NODES];
+            for (int node = 0 ; node < NODES ; node++) { levelStart[levels[node] - minLevel + 1]++; }
+            for (int i = 0 ; i < NO_OF_LEVELS ; i++) { levelStart[i + 1] += levelStart[i]; }
+            int[]     fill    = Arrays.copyOf(levelStart, NO_OF_LEVELS);
+            boolean[] isMoved = new boolean[NODES];
+            for (int i = noOfMoved - 1 ; i >= 0 ; i--) {
+                int node = moved[i];
+                isMoved[node] = true;
+                levelNodes[fill[levels[node] - minLevel]++] = node;
+            }
+            for (int node = 0 ; node < NODES ; node++) {
+                if (!isMoved[node]) { levelNodes[fill[levels[node] - minLevel]++] = node; }
+            }
+            for (int i = 0 ; i < NO_OF_LEVELS ; i++) {
+                for (int position = levelStart[i] ; position < levelStart[i + 1] ; position++) { ranks[levelNodes[position]] = position - levelStart[i]; }
+            }
+        }
+
+        void applyOrder(final Map<PlotItem, Integer> ORDER) {
+            long[] keys = new long[levelNodes.length];
+            for (int i = 0 ; i < getNoOfLevels() ; i++) {
+                int start = levelStart[i];
+                int end   = levelStart[i + 1];
+                for (int position = start ; position < end ; position++) {
+                    Integer rank = ORDER.get(snapshot.getItem(levelNodes[position]));
+                    keys[position] = ((long) (null == rank ? Integer.MAX_VALUE : rank) << 32) | (position - start);
+                }
+                Arrays.sort(keys, start, end);
+                int[] sorted = new int[end - start];
+                for (int position = start ; position < end ; position++) { sorted[position - start] = levelNodes[start + (int) keys[position]]; }
+                for (int position = start ; position < end ; position++) {
+                    levelNodes[position]        = sorted[position - start];
+                    ranks[levelNodes[position]] = position - start;
+                }
+            }
+        }
+
+        /**
+         * Sorts every level by the relative position the nodes had within their
+         * level of the given layout. Nodes that are not part of it get the
+         * weighted average of the positions of the nodes they are linked to,
+         * the levels are sorted from left to right so new nodes follow the
+         * final order of the levels on their left. Nodes that are not linked
+         * to any positioned node keep their default position.
+         * Remembers the previous vertical positions as start of the relaxation.
+         */
+        void applyPreviousOrder(final SankeyLayout PREVIOUS) {
+            final int NODES          = snapshot.getNoOfNodes();
+            final int NO_OF_LEVELS   = getNoOfLevels();
+            final int PRECISION      = 1 << 30;
+            double[]  position       = new double[NODES];
+            boolean[] known          = new boolean[NODES];
+            double    previousHeight = PREVIOUS.settings.getHeight();
+            previousY = new double[NODES];
+            for (int node = 0 ; node < NODES ; node++) {
+                int previous = PREVIOUS.snapshot.indexOf(snapshot.getItem(node));
+                known[node]     = previous >= 0;
+                previousY[node] = known[node] && previousHeight > 0 ? PREVIOUS.nodeY[previous] / previousHeight : Double.NaN;
+                if (!known[node]) { continue; }
+                int level = PREVIOUS.levels[previous];
+                position[node] = (PREVIOUS.ranks[previous] + 0.5) / (PREVIOUS.getLevelEnd(level) - PREVIOUS.getLevelStart(level));
+            }
+
+            long[] keys = new long[levelNodes.length];
+            for (int i = 0 ; i < NO_OF_LEVELS ; i++) {
+                int start = levelStart[i];
+                int end   = levelStart[i + 1];
+                for (int p = start ; p < end ; p++) {
+                    int node = levelNodes[p];
+                    if (!known[node]) {
+                        double sum    = 0;
+                        double weight = 0;
+                        for (int edge = snapshot.getOutgoingStart(node) ; edge < snapshot.getOutgoingEnd(node) ; edge++) {
+                            int target = snapshot.getEdgeTarget(edge);
+                            if (!known[target]) { continue; }
+                            sum    += position[target] * snapshot.getEdgeValue(edge);
+                            weight += snapshot.getEdgeValue(edge);
+                        }
+                        for (int incoming = snapshot.getIncomingStart(node) ; incoming < snapshot.getIncomingEnd(node) ; incoming++) {
+                            int edge   = snapshot.getIncomingEdge(incoming);
+                            int source = snapshot.getEdgeSource(edge);
+                            if (!known[source]) { continue; }
+                            sum    += position[source] * snapshot.getEdgeValue(edge);
+                            weight += snapshot.getEdgeValue(edge);
+                        }
+                        position[node] = weight > 0 ? sum / weight : (p - start + 0.5) / (end - start);
+                    }
+                    keys[p] = ((long) (Helper.clamp(0.0, 1.0, position[node]) * PRECISION) << 32) | (p - start);
+                }
+                Arrays.sort(keys, start, end);
+                int[] sorted = new int[end - start];
+                for (int p = start ; p < end ; p++) { sorted[p - start] = levelNodes[start + (int) keys[p]]; }
+                for (int p = start ; p < end ; p++) {
+                    int node = sorted[p - start];
+                    levelNodes[p]  = node;
+                    ranks[node]    = p - start;
+                    position[node] = (p - start + 0.5) / (end - start);
+                    known[node]    = true;
+                }
+            }
+        }
+
+        /**
+         * Orders the links between adjacent levels from top to bottom at their
+         * source and at their target and computes their offsets in value units.
+         * Backward links follow the links of their source and of their target.
+         */
+        void computeLinkOrder() {
+            final int NODES = snapshot.getNoOfNodes();
+            final int EDGES = snapshot.getNoOfEdges();
+            linkStart = new int[NODES];
+            linkEnd   = new int[NODES];
+
+            int[] edgeToLink = new int[EDGES];
+            Arrays.fill(edgeToLink, -1);
+            int noOfLinks = 0;
+            for (int edge = 0 ; edge < EDGES ; edge++) {
+                if (isLink(edge)) { noOfLinks++; }
+            }
+            linkEdges            = new int[noOfLinks];
+            linkSourceOffset     = new double[noOfLinks];
+            linkTargetOffset     = new double[noOfLinks];
+            backwardEdges        = new int[feedbackEdges.size()];
+            backwardSourceOffset = new double[feedbackEdges.size()];
+            backwardTargetOffset = new double[feedbackEdges.size()];
+            double[] sourceEnd   = new double[NODES];
+            double[] targetEnd   = new double[NODES];
+
+            // Outgoing links per source, in paint order
+            long[] keys = new long[16];
+            int    link = 0;
+            for (int position = 0 ; position < levelNodes.length ; position++) {
+                int node = levelNodes[position];
+                int n    = 0;
+                for (int edge = snapshot.getOutgoingStart(node) ; edge < snapshot.getOutgoingEnd(node) ; edge++) {
+                    if (!isLink(edge)) { continue; }
+                    int target = snapshot.getEdgeTarget(edge);
+                    if (n == keys.length) { keys = Arrays.copyOf(keys, n * 2); }
+                    keys[n++] = ((long) ranks[target] << 32) | edge;
+                }
+                Arrays.sort(keys, 0, n);
+                linkStart[node] = link;
+                double offset = 0;
+                for (int i = 0 ; i < n ; i++) {
+                    int edge = (int) keys[i];
+                    linkEdges[link]        = edge;
+                    linkSourceOffset[link] = offset;
+                    edgeToLink[edge]       = link;
+                    offset += snapshot.getEdgeValue(edge);
+                    link++;
+                }
+                linkEnd[node]   = link;
+                sourceEnd[node] = offset;
+            }
+
+            // Incoming links per target
+            for (int node = 0 ; node < NODES ; node++) {
+                int n = 0;
+                for (int position = snapshot.getIncomingStart(node) ; position < snapshot.getIncomingEnd(node) ; position++) {
+                    int edge = snapshot.getIncomingEdge(position);
+                    if (edgeToLink[edge] < 0) { continue; }
+                    if (n == keys.length) { keys = Arrays.copyOf(keys, n * 2); }
+                    keys[n++] = ((long) ranks[snapshot.getEdgeSource(edge)] << 32) | edge;
+                }
+                Arrays.sort(keys, 0, n);
+                double offset = 0;
+                for (int i = 0 ; i < n ; i++) {
+                    int edge = (int) keys[i];
+                    linkTargetOffset[edgeToLink[edge]] = offset;
+                    offset += snapshot.getEdgeValue(edge);
+                }
+                targetEnd[node] = offset;
+            }
+
+            // Backward links in the order of their sources
+            if (feedbackEdges.isEmpty()) { return; }
+            int backward = 0;
+            for (int position = 0 ; position < levelNodes.length ; position++) {
+                int node = levelNodes[position];
+                for (int edge = snapshot.getOutgoingStart(node) ; edge < snapshot.getOutgoingEnd(node) ; edge++) {
+                    if (!feedbackEdges.contains(edge)) { continue; }
+                    int    target = snapshot.getEdgeTarget(edge);
+                    double value  = snapshot.getEdgeValue(edge);
+                    backwardEdges[backward]        = edge;
+                    backwardSourceOffset[backward] = sourceEnd[node];
+                    backwardTargetOffset[backward] = targetEnd[target];
+                    sourceEnd[node]   += value;
+                    targetEnd[target] += value;
+                    backward++;
+                }
+            }
+        }
+
+        /**
+         * Stacks the nodes of each level from the bottom to the top and scales
+         * them so that the fullest level fills the available height. If there
+         * are backward links, the bottom of the area is reserved for their lanes.
+         */
+        void computeBounds(final LayoutSettings SETTINGS) {
+            final int NODES        = snapshot.getNoOfNodes();
+            final int NO_OF_LEVELS = getNoOfLevels();
+            nodeX      = new double[NODES];
+            nodeY      = new double[NODES];
+            nodeWidth  = new double[NODES];
+            nodeHeight = new double[NODES];
+            textX      = new double[NODES];
+            textY      = new double[NODES];
+
+            // Get max no of items, max sum of values etc.
+            int    maxNoOfItemsAtLevel  = getMaxNoOfItemsAtLevel();
+            double maxSumOfItemsAtLevel = getMaxSumOfItemsAtLevel();
+
+            // Define drawing parameters
+            double width         = SETTINGS.getWidth();
+            double height        = SETTINGS.getHeight();
+            double itemWidth     = SETTINGS.getItemWidth();
+            double verticalGap   = SETTINGS.getItemGap();
+            double textGap       = SETTINGS.getTextGap();
+            double horizontalGap = maxLevel > 0 ? (width - itemWidth) / maxLevel : 0;
+            double backwardSum   = getSumOfBackwardValues();
+            scaleY               = maxSumOfItemsAtLevel > 0 ? (height - (maxNoOfItemsAtLevel - 1 + backwardEdges.length) * verticalGap) / (maxSumOfItemsAtLevel + backwardSum) : 0;
+            double itemsHeight   = height - backwardSum * scaleY - backwardEdges.length * verticalGap;
+            for (int i = 0 ; i < NO_OF_LEVELS ; i++) {
+                int    level   = minLevel + i;
+                double spacerX = horizontalGap * level;
+                double spacerY = 0;
+                for (int position = levelStart[i + 1] - 1 ; position >= levelStart[i] ; position--) {
+                    int    node        = levelNodes[position];
+                    double itemHeight  = snapshot.getMaxSum(node) * scaleY;
+                    double textOffsetX = level < maxLevel ? textGap + itemWidth : -textGap;
+                    nodeX[node]      = spacerX;
+                    nodeY[node]      = (itemsHeight - itemHeight) - spacerY;
+                    nodeWidth[node]  = itemWidth;
+                    nodeHeight[node] = itemHeight;
+                    textX[node]      = spacerX + textOffsetX;
+                    textY[node]      = (itemsHeight - itemHeight * 0.5) - spacerY;
+                    spacerY += itemHeight + verticalGap;
+                }
+            }
+            if (SETTINGS.getRelaxationIterations() > 0) {
+                if (null != previousY) { startAtPreviousPositions(height, itemsHeight, verticalGap); }
+                relax(SETTINGS, itemsHeight);
+            }
+
+            final int LINKS = linkEdges.length;
+            linkSourceY = new double[LINKS];
+            linkTargetY = new double[LINKS];
+            linkHeight  = new double[LINKS];
+            for (int link = 0 ; link < LINKS ; link++) {
+                int edge = linkEdges[link];
+                linkSourceY[link] = nodeY[snapshot.getEdgeSource(edge)] + linkSourceOffset[link] * scaleY;
+                linkTargetY[link] = nodeY[snapshot.getEdgeTarget(edge)] + linkTargetOffset[link] * scaleY;
+                linkHeight[link]  = snapshot.getEdgeValue(edge) * scaleY;
+            }
+
+            final int BACKWARD_LINKS = backwardEdges.length;
+            backwardSourceY = new double[BACKWARD_LINKS];
+            backwardTargetY = new double[BACKWARD_LINKS];
+            backwardHeight  = new double[BACKWARD_LINKS];
+            backwardLaneY   = new double[BACKWARD_LINKS];
+            double laneY = itemsHeight;
+            for (int link = 0 ; link < BACKWARD_LINKS ; link++) {
+                int edge = backwardEdges[link];
+                laneY += verticalGap;
+                backwardLaneY[link]   = laneY;
+                laneY += snapshot.getEdgeValue(edge) * scaleY;
+                backwardSourceY[link] = nodeY[snapshot.getEdgeSource(edge)] + backwardSourceOffset[link] * scaleY;
+                backwardTargetY[link] = nodeY[snapshot.getEdgeTarget(edge)] + backwardTargetOffset[link] * scaleY;
+                backwardHeight[link]  = snapshot.getEdgeValue(edge) * scaleY;
+            }
+        }
+
+        /**
+         * Moves the nodes towards the weighted center of the nodes they are
+         * linked to and resolves the overlaps within each level afterwards.
+         * Every iteration only depends on the positions of the previous one,
+         * which allows to handle the levels in parallel. The order of the
+         * nodes within a level never changes and they stay above the given bottom.
+         * Stops early once no node moves by more than a twentieth of a pixel.
+         */
+        void relax(final LayoutSettings SETTINGS, final double BOTTOM) {
+            final int    NODES        = snapshot.getNoOfNodes();
+            final int    LINKS        = linkEdges.length;
+            final int    NO_OF_LEVELS = getNoOfLevels();
+            final double HEIGHT       = BOTTOM;
+            final double GAP          = SETTINGS.getItemGap();
+            final long   BUDGET       = SETTINGS.getRelaxationBudget() * 1_000_000L;
+            final long   START        = System.nanoTime();
+            final double CONVERGED    = 0.05;
+
+            // Incoming links per target
+            final int[] IN_START = new int[NODES + 1];
+            final int[] IN_LINKS = new int[LINKS];
+            for (int link = 0 ; link < LINKS ; link++) { IN_START[snapshot.getEdgeTarget(linkEdges[link]) + 1]++; }
+            for (int node = 0 ; node < NODES ; node++) { IN_START[node + 1] += IN_START[node]; }
+            int[] fill = Arrays.copyOf(IN_START, NODES);
+            for (int link = 0 ; link < LINKS ; link++) { IN_LINKS[fill[snapshot.getEdgeTarget(linkEdges[link])]++] = link; }
+
+            double[] y     = nodeY;
+            double[] next  = new double[NODES];
+            double[] moved = new double[NO_OF_LEVELS];
+            double   alpha = 0.5;
+            for (int iteration = 0 ; iteration < SETTINGS.getRelaxationIterations() ; iteration++) {
+                final double[] FROM  = y;
+                final double[] TO    = next;
+                final double   ALPHA = alpha;
+                IntStream.range(0, NO_OF_LEVELS).parallel().forEach(level -> {
+                    for (int position = levelStart[level] ; position < levelStart[level + 1] ; position++) {
+                        int    node   = levelNodes[position];
+                        double sum    = 0;
+                        double weight = 0;
+                        // Position at which the link to the neighbour would be horizontal
+                        for (int link = linkStart[node] ; link < linkEnd[node] ; link++) {
+                            double value = snapshot.getEdgeValue(linkEdges[link]);
+                            sum    += (FROM[snapshot.getEdgeTarget(linkEdges[link])] + (linkTargetOffset[link] - linkSourceOffset[link]) * scaleY) * value;
+                            weight += value;
+                        }
+                        for (int i = IN_START[node] ; i < IN_START[node + 1] ; i++) {
+                            int    link  = IN_LINKS[i];
+                            double value = snapshot.getEdgeValue(linkEdges[link]);
+                            sum    += (FROM[snapshot.getEdgeSource(linkEdges[link])] + (linkSourceOffset[link] - linkTargetOffset[link]) * scaleY) * value;
+                            weight += value;
+                        }
+                        TO[node] = weight > 0 ? FROM[node] + (sum / weight - FROM[node]) * ALPHA : FROM[node];
+                    }
+                    resolveCollisions(TO, levelStart[level], levelStart[level + 1], HEIGHT, GAP);
+                    double maxMove = 0;
+                    for (int position = levelStart[level] ; position < levelStart[level + 1] ; position++) {
+                        int node = levelNodes[position];
+                        maxMove = Math.max(maxMove, Math.abs(TO[node] - FROM[node]));
+                    }
+                    moved[level] = maxMove;
+                });
+                y     = TO;
+                next  = FROM;
+                alpha *= 0.99;
+                if (Arrays.stream(moved).max().orElse(0) < CONVERGED) { break; }
+                if (BUDGET > 0 && System.nanoTime() - START > BUDGET) { break; }
+            }
+            nodeY = y;
+            for (int node = 0 ; node < NODES ; node++) { textY[node] = nodeY[node] + nodeHeight[node] * 0.5; }
+        }
+
+        // Nodes without a previous position are placed right below the node above them
+        private void startAtPreviousPositions(final double HEIGHT, final double BOTTOM, final double GAP) {
+            for (int i = 0 ; i < getNoOfLevels() ; i++) {
+                double top = 0;
+                for (int position = levelStart[i] ; position < levelStart[i + 1] ; position++) {
+                    int node = levelNodes[position];
+                    if (!Double.isNaN(previousY[node])) { nodeY[node] = previousY[node] * HEIGHT; }
+                    if (Double.isNaN(previousY[node]) || nodeY[node] < top) { nodeY[node] = top; }
+                    top = nodeY[node] + nodeHeight[node] + GAP;
+                }
+                resolveCollisions(nodeY, levelStart[i], levelStart[i + 1], BOTTOM, GAP);
+            }
+        }
+
+        // Pushes overlapping nodes down from the top and then up from the bottom
+        private void resolveCollisions(final double[] Y, final int START, final int END, final double HEIGHT, final double GAP) {
+            double top = 0;
+            for (int position = START ; position < END ; position++) {
+                int node = levelNodes[position];
+                if (Y[node] < top) { Y[node] = top; }
+                top = Y[node] + nodeHeight[node] + GAP;
+            }
+            double bottom = HEIGHT;
+            for (int position = END - 1 ; position >= START ; position--) {
+                int node = levelNodes[position];
+                if (Y[node] + nodeHeight[node] > bottom) { Y[node] = bottom - nodeHeight[node]; }
+                bottom = Y[node] - GAP;
+            }
+        }
+
+        int getMaxNoOfItemsAtLevel() {
+            int maxNoOfItemsAtLevel = 0;
+            for (int i = 0 ; i < getNoOfLevels() ; i++) { maxNoOfItemsAtLevel = Math.max(maxNoOfItemsAtLevel, levelStart[i + 1] - levelStart[i]); }
+            return maxNoOfItemsAtLevel;
+        }
+
+        double getSumOfBackwardValues() {
+            double sum = 0;
+            for (int edge : backwardEdges) { sum += snapshot.getEdgeValue(edge); }
+            return sum;
+        }
+
+        double getMaxSumOfItemsAtLevel() {
+            double maxSumOfItemsAtLevel = 0;
+            for (int i = 0 ; i < getNoOfLevels() ; i++) {
+                double sum = 0;
+                for (int position = levelStart[i] ; position < levelStart[i + 1] ; position++) { sum += snapshot.getMaxSum(levelNodes[position]); }
+                maxSumOfItemsAtLevel = Math.max(maxSumOfItemsAtLevel, sum);
+            }
+            return maxSumOfItemsAtLevel;
+        }
+
+        private boolean isRoot(final int NODE) { return snapshot.hasOutgoing(NODE) && getIncomingEdge(NODE, false) < 0; }
+
+        // Links are the edges between adjacent levels that don't close a cycle
+        private boolean isLink(final int EDGE) {
+            return levels[snapshot.getEdgeTarget(EDGE)] == levels[snapshot.getEdgeSource(EDGE)] + 1 && !feedbackEdges.contains(EDGE);
+        }
+
+        // First or last incoming edge of the given node that is no feedback edge, -1 if there is none
+        private int getIncomingEdge(final int NODE, final boolean LAST) {
+            final int START = snapshot.getIncomingStart(NODE);
+            final int END   = snapshot.getIncomingEnd(NODE);
+            for (int i = 0 ; i < END - START ; i++) {
+                int edge = snapshot.getIncomingEdge(LAST ? END - 1 - i : START + i);
+                if (!feedbackEdges.contains(edge)) { return edge; }
+            }
+            return -1;
+        }
+
+        // Number of steps from the given node up to a root following the first incoming flows, without feedback edges there is no cycle on the way
+        private int getChainDepth(final int NODE, final int[] CHAIN_DEPTH, final int[] PATH) {
+            int length = 0;
+            int node   = NODE;
+            while (CHAIN_DEPTH[node] < 0) {
+                int firstIncoming = getIncomingEdge(node, false);
+                if (firstIncoming < 0) {
+                    CHAIN_DEPTH[node] = 0;
+                    break;
+                }
+                PATH[length++] = node;
+                node           = snapshot.getEdgeSource(firstIncoming);
+            }
+            int depth = CHAIN_DEPTH[node];
+            for (int i = length - 1 ; i >= 0 ; i--) {
+                depth++;
+                CHAIN_DEPTH[PATH[i]] = depth;
+            }
+            return CHAIN_DEPTH[NODE];
+        }
+    }
+}
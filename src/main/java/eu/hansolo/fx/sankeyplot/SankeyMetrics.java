@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+
+/**
+ * Immutable snapshot of the layout and paint timings of a SankeyPlot.
+ * Obtain a fresh instance with SankeyPlot.getMetrics().
+ */
+public class SankeyMetrics {
+    public enum Stage { LEVELLING, ORDERING, BOUNDS, REDRAW }
+
+    private final Map<Stage, Timing> timings;
+    private final long               layoutCount;
+    private final long               redrawCount;
+    private final long               cachedRedrawCount;
+    private final int                noOfNodes;
+    private final int                noOfEdges;
+    private final int                noOfLevels;
+    private final int                linksDrawn;
+    private final int                linksCulled;
+
+
+    // ******************** Constructors **************************************
+    SankeyMetrics(final Map<Stage, Timing> TIMINGS, final long LAYOUT_COUNT, final long REDRAW_COUNT, final long CACHED_REDRAW_COUNT,
+                  final int NO_OF_NODES, final int NO_OF_EDGES, final int NO_OF_LEVELS,
+                  final int LINKS_DRAWN, final int LINKS_CULLED) {
+        timings           = Collections.unmodifiableMap(new EnumMap<>(TIMINGS));
+        layoutCount       = LAYOUT_COUNT;
+        redrawCount       = REDRAW_COUNT;
+        cachedRedrawCount = CACHED_REDRAW_COUNT;
+        noOfNodes         = NO_OF_NODES;
+        noOfEdges         = NO_OF_EDGES;
+        noOfLevels        = NO_OF_LEVELS;
+        linksDrawn        = LINKS_DRAWN;
+        linksCulled       = LINKS_CULLED;
+    }
+
+
+    // ******************** Methods *******************************************
+    public Map<Stage, Timing> getTimings() { return timings; }
+    public Timing getTiming(final Stage STAGE) { return timings.getOrDefault(STAGE, Timing.EMPTY); }
+
+    public long getLayoutCount() { return layoutCount; }
+
+    public long getRedrawCount() { return redrawCount; }
+
+    /**
+     * Number of redraws that only showed the cached image of the plot,
+     * they are included in the redraw count.
+     */
+    public long getCachedRedrawCount() { return cachedRedrawCount; }
+
+    public int getNoOfNodes() { return noOfNodes; }
+
+    public int getNoOfEdges() { return noOfEdges; }
+
+    public int getNoOfLevels() { return noOfLevels; }
+
+    public int getLinksDrawn() { return linksDrawn; }
+
+    public int getLinksCulled() { return linksCulled; }
+
+    @Override public String toString() {
+        StringBuilder builder = new StringBuilder().append("layouts: ").append(layoutCount)
+                                                   .append(", redraws: ").append(redrawCount)
+                                                   .append(", cached redraws: ").append(cachedRedrawCount)
+                                                   .append(", nodes: ").append(noOfNodes)
+                                                   .append(", edges: ").append(noOfEdges)
+                                                   .append(", levels: ").append(noOfLevels)
+                                                   .append(", links drawn: ").append(linksDrawn)
+                                                   .append(", links culled: ").append(linksCulled);
+        timings.forEach((stage, timing) -> builder.append("\n").append(stage).append(" -> ").append(timing));
+        return builder.toString();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static class Timing {
+        static final Timing EMPTY = new Timing(0, 0, 0, 0);
+        private final long count;
+        private final long lastNanos;
+        private final long meanNanos;
+        private final long p99Nanos;
+
+
+        // ******************** Constructors **********************************
+        Timing(final long COUNT, final long LAST_NANOS, final long MEAN_NANOS, final long P99_NANOS) {
+            count     = COUNT;
+            lastNanos = LAST_NANOS;
+            meanNanos = MEAN_NANOS;
+            p99Nanos  = P99_NANOS;
+        }
+
+
+        // ******************** Methods ***************************************
+        public long getCount() { return count; }
+
+        public long getLastNanos() { return lastNanos; }
+        public double getLastMillis() { return lastNanos / 1_000_000.0; }
+
+        public long getMeanNanos() { return meanNanos; }
+        public double getMeanMillis() { return meanNanos / 1_000_000.0; }
+
+        public long getP99Nanos() { return p99Nanos; }
+        public double getP99Millis() { return p99Nanos / 1_000_000.0; }
+
+        @Override public String toString() {
+            return new StringBuilder().append("count: ").append(count)
+                                      .append(", last: ").append(getLastMillis()).append(" ms")
+                                      .append(", mean: ").append(getMeanMillis()).append(" ms")
+                                      .append(", p99: ").append(getP99Millis()).append(" ms")
+                                      .toString();
+        }
+    }
+}
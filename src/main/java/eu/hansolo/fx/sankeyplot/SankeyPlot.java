@@ -16,9 +16,11 @@
 
 package eu.hansolo.fx.sankeyplot;
 
-import eu.hansolo.fx.sankeyplot.tools.CtxBounds;
+import eu.hansolo.fx.sankeyplot.FlowTracer.Trace;
+import eu.hansolo.fx.sankeyplot.SankeyMetrics.Stage;
 import eu.hansolo.fx.sankeyplot.tools.Helper;
-import eu.hansolo.fx.sankeyplot.tools.Point;
+import eu.hansolo.fx.sankeyplot.tools.NumberFormatter;
+import javafx.animation.AnimationTimer;
 import javafx.beans.DefaultProperty;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.BooleanPropertyBase;
@@ -26,32 +28,48 @@ import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.DoublePropertyBase;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.IntegerPropertyBase;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.LongPropertyBase;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ObjectPropertyBase;
+import javafx.beans.property.StringProperty;
+import javafx.beans.property.StringPropertyBase;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.geometry.Rectangle2D;
 import javafx.geometry.VPos;
 import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.CycleMethod;
 import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
 import javafx.scene.paint.Stop;
+import javafx.scene.shape.FillRule;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 import javafx.scene.text.Font;
 import javafx.scene.text.TextAlignment;
+import javafx.scene.transform.Transform;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -64,29 +82,47 @@ import java.util.stream.Collectors;
 @DefaultProperty("children")
 public class SankeyPlot extends Region {
     public enum StreamFillMode { COLOR, GRADIENT }
-    private static final double                           PREFERRED_WIDTH      = 600;
-    private static final double                           PREFERRED_HEIGHT     = 400;
-    private static final double                           MINIMUM_WIDTH        = 50;
-    private static final double                           MINIMUM_HEIGHT       = 50;
-    private static final double                           MAXIMUM_WIDTH        = 2048;
-    private static final double                           MAXIMUM_HEIGHT       = 2048;
-    private static final Color                            DEFAULT_STREAM_COLOR = Color.rgb(164, 164, 164, 0.55);
-    private static final Color                            DEFAULT_ITEM_COLOR   = Color.rgb(164, 164, 164);
-    private static final int                              DEFAULT_ITEM_WIDTH   = 20;
-    private static final int                              DEFAULT_NODE_GAP     = 20;
-    private static final double                           DEFAULT_OPACITY      = 0.55;
+    public enum ValueLabel { NONE, VALUE, PERCENTAGE, VALUE_AND_PERCENTAGE }
+    private static final double                           PREFERRED_WIDTH            = 600;
+    private static final double                           PREFERRED_HEIGHT           = 400;
+    private static final double                           MINIMUM_WIDTH              = 50;
+    private static final double                           MINIMUM_HEIGHT             = 50;
+    private static final double                           MAXIMUM_WIDTH              = 2048;
+    private static final double                           MAXIMUM_HEIGHT             = 2048;
+    private static final Color                            DEFAULT_STREAM_COLOR       = Color.rgb(164, 164, 164, 0.55);
+    private static final Color                            DEFAULT_ITEM_COLOR         = Color.rgb(164, 164, 164);
+    private static final int                              DEFAULT_ITEM_WIDTH         = 20;
+    private static final int                              DEFAULT_NODE_GAP           = 20;
+    private static final double                           DEFAULT_OPACITY            = 0.55;
+    private static final long                             DEFAULT_ANIMATION_DURATION = 500;
+    private static final double                           DIMMED_ALPHA               = 0.2;
+    private static final long                             PROGRESSIVE_BUDGET         = 8_000_000;
+    private static final long                             DEFAULT_RELAXATION_BUDGET  = 50;
+    private static final int                              DEFAULT_MAX_PARTICLES      = 2000;
+    private static final Color                            DEFAULT_PARTICLE_COLOR     = Color.rgb(255, 255, 255, 0.8);
     private              double                           size;
     private              double                           width;
     private              double                           height;
     private              Canvas                           canvas;
     private              GraphicsContext                  ctx;
+    private              Painter                          painter;
+    private              Canvas                           highlights;
+    private              GraphicsContext                  highlightsCtx;
+    private              Painter                          highlightsPainter;
+    private              Canvas                           overlay;
+    private              GraphicsContext                  overlayCtx;
+    private              Painter                          overlayPainter;
+    private              Canvas                           particles;
+    private              GraphicsContext                  particlesCtx;
+    private              Tooltip                          tooltip;
     private              ObservableList<PlotItem>         items;
     private              PlotItemEventListener            itemListener;
     private              ListChangeListener<PlotItem>     itemListListener;
-    private              Map<Integer, List<PlotItemData>> itemsPerLevel;
-    private              int                              minLevel;
-    private              int                              maxLevel;
-    private              double                           scaleY;
+    private              ChangeSetListener                changeSetListener;
+    private              ChangeBus                        changeBus;
+    private     volatile GraphSnapshot                    snapshot;
+    private     volatile SankeyLayout                     layout;
+    private     volatile FlowAnalytics                    analytics;
     private              StreamFillMode                   _streamFillMode;
     private              ObjectProperty<StreamFillMode>   streamFillMode;
     private              Color                            _streamColor;
@@ -103,14 +139,91 @@ public class SankeyPlot extends Region {
     private              BooleanProperty                  autoItemGap;
     private              int                              _decimals;
     private              IntegerProperty                  decimals;
+    private              ValueLabel                       _itemValueLabel;
+    private              ObjectProperty<ValueLabel>       itemValueLabel;
+    private              ValueLabel                       _linkValueLabel;
+    private              ObjectProperty<ValueLabel>       linkValueLabel;
+    private              NumberFormatter                  formatter;
+    private              double[]                         levelSums;
+    private              SankeyLayout                     levelSumsLayout;
     private              boolean                          _showFlowDirection;
     private              BooleanProperty                  showFlowDirection;
+    private              boolean                          _showFlowParticles;
+    private              BooleanProperty                  showFlowParticles;
+    private              Color                            _particleColor;
+    private              ObjectProperty<Color>            particleColor;
+    private              int                              _maxParticles;
+    private              IntegerProperty                  maxParticles;
+    private              FlowParticles                    flowParticles;
+    private              AnimationTimer                   particleTimer;
     private              boolean                          _useItemColor;
     private              BooleanProperty                  useItemColor;
     private              Color                            _itemColor;
     private              ObjectProperty<Color>            itemColor;
     private              double                           _connectionOpacity;
     private              DoubleProperty                   connectionOpacity;
+    private              boolean                          _animated;
+    private              BooleanProperty                  animated;
+    private              long                             _animationDuration;
+    private              LongProperty                     animationDuration;
+    private              LayoutTransition                 transition;
+    private              AnimationTimer                   transitionTimer;
+    private              long                             transitionStart;
+    private              boolean                          transitionRunning;
+    private              Paint[]                          linkPaints;
+    private              SankeyLayout                     linkPaintsLayout;
+    private              double                           linkPaintsOpacity;
+    private              boolean                          _mergeStreams;
+    private              BooleanProperty                  mergeStreams;
+    private              LinkBatches                      linkBatches;
+    private              boolean                          _levelOfDetail;
+    private              BooleanProperty                  levelOfDetail;
+    private              LinkPainter                      linkPainter;
+    private              boolean                          _progressive;
+    private              BooleanProperty                  progressive;
+    private              AnimationTimer                   progressiveTimer;
+    private              SankeyLayout                     progressiveLayout;
+    private              int                              progressivePosition;
+    private              long                             progressiveNanos;
+    private              List<Object>                     staticKey;
+    private              WritableImage                    staticImage;
+    private              boolean                          staticImageValid;
+    private              boolean                          canvasShowsStatic;
+    private              boolean                          _separateComponents;
+    private              BooleanProperty                  separateComponents;
+    private              boolean                          _stableOrder;
+    private              BooleanProperty                  stableOrder;
+    private              ComponentLayouter                componentLayouter;
+    private              LayoutStore                      layoutStore;
+    private              int                              _relaxationIterations;
+    private              IntegerProperty                  relaxationIterations;
+    private              long                             _relaxationBudget;
+    private              LongProperty                     relaxationBudget;
+    private              boolean                          _interactive;
+    private              BooleanProperty                  interactive;
+    private              SankeyLayout                     hoveredLayout;
+    private              int                              hoveredNode;
+    private              int                              hoveredLink;
+    private              List<PlotItemEventListener>      listeners;
+    private              PlotItem                         _tracedItem;
+    private              ObjectProperty<PlotItem>         tracedItem;
+    private              String                           _searchText;
+    private              StringProperty                   searchText;
+    private              NameIndex                        nameIndex;
+    private              List<PlotItem>                   searchMatches;
+    private              SankeyLayout                     searchLayout;
+    private              int[]                            searchNodes;
+    private              int[]                            searchLinks;
+    private              FlowTracer                       tracer;
+    private              Trace                            trace;
+    private              MetricsRecorder                  metrics;
+    private              FlowIngestor                     flowIngestor;
+    private              FlowWindow                       flowWindow;
+    private              AnimationTimer                   flowTimer;
+    private              FlowBatch                        flowBatch;
+    private              Set<PlotItem>                    flowItemsToAdd;
+    private              Set<PlotItem>                    flowItemsKnown;
+    private              SankeyTimeline                   timeline;
 
 
     // ******************** Constructors **************************************
@@ -119,33 +232,68 @@ public class SankeyPlot extends Region {
 
         items              = FXCollections.observableArrayList();
         itemListener       = e -> redraw();
-        itemListListener   = c -> {
-            /*
-            while (c.next()) {
-                if (c.wasAdded()) {
-                    //c.getAddedSubList().forEach(addedItem -> addedItem.setOnChartItemEvent(itemListener));
-                } else if (c.wasRemoved()) {
-                    //c.getRemoved().forEach(removedItem -> removedItem.removeChartItemEventListener(itemListener));
-                }
+        // The snapshot finds the added and removed items itself, setAll() with the same items changes nothing
+        itemListListener   = c -> refresh();
+        changeSetListener  = changes -> refresh();
+
+        snapshot           = GraphSnapshot.EMPTY;
+        layout             = SankeyLayout.compute(snapshot, new LayoutSettings(0, 0, 0, 0, 0));
+        metrics            = new MetricsRecorder();
+        flowBatch          = new FlowBatch();
+        flowItemsToAdd     = new LinkedHashSet<>();
+        flowTimer          = new AnimationTimer() {
+            @Override public void handle(final long NOW) { drainFlows(); }
+        };
+        transition         = new LayoutTransition();
+        transitionTimer    = new AnimationTimer() {
+            @Override public void handle(final long NOW) { animateTransition(NOW); }
+        };
+        linkPaints         = new Paint[0];
+        linkPainter        = new LinkPainter();
+        formatter          = new NumberFormatter();
+        progressiveTimer   = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                RedrawEvent sliceEvent = new RedrawEvent();
+                sliceEvent.begin();
+                paintProgressively(sliceEvent);
             }
-            */
-            prepareData();
         };
-
-        itemsPerLevel      = new LinkedHashMap<>();
-
-        _streamFillMode    = StreamFillMode.COLOR;
-        _streamColor       = DEFAULT_STREAM_COLOR;
-        _textColor         = Color.BLACK;
-        _itemWidth         = DEFAULT_ITEM_WIDTH;
-        _autoItemWidth     = true;
-        _itemGap           = DEFAULT_NODE_GAP;
-        _autoItemGap       = true;
-        _decimals          = 0;
-        _showFlowDirection = false;
-        _useItemColor      = true;
-        _itemColor         = DEFAULT_ITEM_COLOR;
-        _connectionOpacity = DEFAULT_OPACITY;
+        flowParticles      = new FlowParticles(DEFAULT_MAX_PARTICLES);
+        particleTimer      = new AnimationTimer() {
+            @Override public void handle(final long NOW) { animateParticles(NOW); }
+        };
+        hoveredNode        = -1;
+        hoveredLink        = -1;
+        listeners          = new CopyOnWriteArrayList<>();
+        searchMatches      = Collections.emptyList();
+
+        _streamFillMode       = StreamFillMode.COLOR;
+        _streamColor          = DEFAULT_STREAM_COLOR;
+        _textColor            = Color.BLACK;
+        _itemWidth            = DEFAULT_ITEM_WIDTH;
+        _autoItemWidth        = true;
+        _itemGap              = DEFAULT_NODE_GAP;
+        _autoItemGap          = true;
+        _decimals             = 0;
+        _itemValueLabel       = ValueLabel.NONE;
+        _linkValueLabel       = ValueLabel.NONE;
+        _showFlowDirection    = false;
+        _showFlowParticles    = false;
+        _particleColor        = DEFAULT_PARTICLE_COLOR;
+        _maxParticles         = DEFAULT_MAX_PARTICLES;
+        _useItemColor         = true;
+        _itemColor            = DEFAULT_ITEM_COLOR;
+        _connectionOpacity    = DEFAULT_OPACITY;
+        _animated             = false;
+        _animationDuration    = DEFAULT_ANIMATION_DURATION;
+        _interactive          = true;
+        _mergeStreams         = false;
+        _levelOfDetail        = true;
+        _progressive          = false;
+        _separateComponents   = false;
+        _stableOrder          = false;
+        _relaxationIterations = 0;
+        _relaxationBudget     = DEFAULT_RELAXATION_BUDGET;
 
         initGraphics();
         registerListeners();
@@ -165,16 +313,36 @@ public class SankeyPlot extends Region {
 
         getStyleClass().add("sankey-plot");
 
-        canvas = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
-        ctx    = canvas.getGraphicsContext2D();
+        canvas  = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        ctx     = canvas.getGraphicsContext2D();
+        painter = new CanvasPainter(ctx);
 
-        getChildren().setAll(canvas);
+        // Search results and hover highlights are drawn on canvases of their own so they never trigger a redraw of the plot
+        highlights        = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        highlightsCtx     = highlights.getGraphicsContext2D();
+        highlightsPainter = new CanvasPainter(highlightsCtx);
+
+        overlay        = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        overlayCtx     = overlay.getGraphicsContext2D();
+        overlayPainter = new CanvasPainter(overlayCtx);
+
+        // Flow particles are animated on a canvas of their own below the hover overlay
+        particles    = new Canvas(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+        particlesCtx = particles.getGraphicsContext2D();
+        particles.setMouseTransparent(true);
+
+        tooltip = new Tooltip();
+
+        getChildren().setAll(canvas, highlights, particles, overlay);
     }
 
     private void registerListeners() {
         widthProperty().addListener(o -> resize());
         heightProperty().addListener(o -> resize());
         items.addListener(itemListListener);
+        overlay.addEventHandler(MouseEvent.MOUSE_MOVED, e -> hover(e.getX(), e.getY(), e.getScreenX(), e.getScreenY()));
+        overlay.addEventHandler(MouseEvent.MOUSE_EXITED, e -> hover(-1, -1, 0, 0));
+        overlay.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> click(e.getX(), e.getY()));
     }
 
 
@@ -192,21 +360,62 @@ public class SankeyPlot extends Region {
 
     @Override public ObservableList<Node> getChildren() { return super.getChildren(); }
 
-    public void dispose() { items.removeListener(itemListListener); }
+    public void dispose() {
+        flowTimer.stop();
+        transitionTimer.stop();
+        progressiveTimer.stop();
+        particleTimer.stop();
+        if (null != timeline) { timeline.detach(); }
+        items.removeListener(itemListListener);
+        if (null != changeBus) { changeBus.removeListener(changeSetListener); }
+    }
+
+    /**
+     * Writes the plot at its current size as SVG to the given writer, without
+     * trace, search highlights, hover effects and running transitions. Only
+     * to be called on the FX application thread.
+     */
+    public void writeSvg(final Writer WRITER) throws IOException {
+        SvgPainter       svgPainter = new SvgPainter(width, height, ctx.getFont());
+        LayoutTransition geometry   = new LayoutTransition();
+        geometry.jumpTo(layout);
+        Painter canvasPainter = painter;
+        painter = svgPainter;
+        try {
+            paintLayout(geometry, null);
+        } finally {
+            painter = canvasPainter;
+        }
+        svgPainter.writeTo(WRITER);
+    }
 
     public List<PlotItem> getItems() { return items; }
     public void setItems(final PlotItem... ITEMS) { setItems(Arrays.asList(ITEMS)); }
     public void setItems(final List<PlotItem> ITEMS) {
+        // Changing the list triggers prepareData() via the itemListListener
         items.setAll(ITEMS);
-        prepareData();
     }
     public void addItem(final PlotItem ITEM) {
-        if (!items.contains(ITEM)) { items.add(ITEM); }
-        prepareData();
+        if (items.contains(ITEM)) {
+            refresh();
+        } else {
+            items.add(ITEM);
+        }
     }
     public void removeItem(final PlotItem ITEM) {
-        if (items.contains(ITEM)) { items.remove(ITEM); }
-        prepareData();
+        if (items.contains(ITEM)) {
+            items.remove(ITEM);
+        } else {
+            refresh();
+        }
+    }
+
+    /**
+     * Lays out the items again if they or their flows were modified since
+     * the last layout. Changes of the list of items are picked up automatically.
+     */
+    public void refresh() {
+        if (null != timeline || !snapshot.isCurrent(items)) { prepareData(); }
     }
 
     public StreamFillMode getStreamFillMode() { return null == streamFillMode ? _streamFillMode : streamFillMode.get(); }
@@ -381,6 +590,57 @@ public class SankeyPlot extends Region {
         return decimals;
     }
 
+    public ValueLabel getItemValueLabel() { return null == itemValueLabel ? _itemValueLabel : itemValueLabel.get(); }
+    /**
+     * Defines the label below the name of every item. The percentage is the
+     * share of the item in the sum of all items of its level.
+     */
+    public void setItemValueLabel(final ValueLabel LABEL) {
+        if (null == itemValueLabel) {
+            _itemValueLabel = LABEL;
+            redraw();
+        } else {
+            itemValueLabel.set(LABEL);
+        }
+    }
+    public ObjectProperty<ValueLabel> itemValueLabelProperty() {
+        if (null == itemValueLabel) {
+            itemValueLabel = new ObjectPropertyBase<ValueLabel>(_itemValueLabel) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "itemValueLabel"; }
+            };
+            _itemValueLabel = null;
+        }
+        return itemValueLabel;
+    }
+
+    public ValueLabel getLinkValueLabel() { return null == linkValueLabel ? _linkValueLabel : linkValueLabel.get(); }
+    /**
+     * Defines the label in the middle of every stream that is high enough
+     * for the text. The percentage is the share of the stream in all
+     * outgoing streams of its source.
+     */
+    public void setLinkValueLabel(final ValueLabel LABEL) {
+        if (null == linkValueLabel) {
+            _linkValueLabel = LABEL;
+            redraw();
+        } else {
+            linkValueLabel.set(LABEL);
+        }
+    }
+    public ObjectProperty<ValueLabel> linkValueLabelProperty() {
+        if (null == linkValueLabel) {
+            linkValueLabel = new ObjectPropertyBase<ValueLabel>(_linkValueLabel) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "linkValueLabel"; }
+            };
+            _linkValueLabel = null;
+        }
+        return linkValueLabel;
+    }
+
     public boolean getShowFlowDirection() { return null == showFlowDirection ? _showFlowDirection : showFlowDirection.get(); }
     public void setShowFlowDirection(final boolean SHOW) {
         if (null == showFlowDirection) {
@@ -401,6 +661,75 @@ public class SankeyPlot extends Region {
         return showFlowDirection;
     }
 
+    public boolean getShowFlowParticles() { return null == showFlowParticles ? _showFlowParticles : showFlowParticles.get(); }
+    /**
+     * Animates particles along the links that move faster and are denser
+     * the larger the value of a link is.
+     */
+    public void setShowFlowParticles(final boolean SHOW) {
+        if (null == showFlowParticles) {
+            _showFlowParticles = SHOW;
+            updateParticleTimer();
+        } else {
+            showFlowParticles.set(SHOW);
+        }
+    }
+    public BooleanProperty showFlowParticlesProperty() {
+        if (null == showFlowParticles) {
+            showFlowParticles = new BooleanPropertyBase(_showFlowParticles) {
+                @Override protected void invalidated() { updateParticleTimer(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "showFlowParticles"; }
+            };
+        }
+        return showFlowParticles;
+    }
+
+    public Color getParticleColor() { return null == particleColor ? _particleColor : particleColor.get(); }
+    public void setParticleColor(final Color COLOR) {
+        if (null == particleColor) {
+            _particleColor = COLOR;
+        } else {
+            particleColor.set(COLOR);
+        }
+    }
+    public ObjectProperty<Color> particleColorProperty() {
+        if (null == particleColor) {
+            particleColor = new ObjectPropertyBase<Color>(_particleColor) {
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "particleColor"; }
+            };
+            _particleColor = null;
+        }
+        return particleColor;
+    }
+
+    public int getMaxParticles() { return null == maxParticles ? _maxParticles : maxParticles.get(); }
+    /**
+     * Maximum number of flow particles of all links together, 2000 by default.
+     */
+    public void setMaxParticles(final int MAX) {
+        if (null == maxParticles) {
+            _maxParticles = Helper.clamp(0, 100_000, MAX);
+            flowParticles.setMaxParticles(_maxParticles);
+        } else {
+            maxParticles.set(MAX);
+        }
+    }
+    public IntegerProperty maxParticlesProperty() {
+        if (null == maxParticles) {
+            maxParticles = new IntegerPropertyBase(_maxParticles) {
+                @Override protected void invalidated() {
+                    set(Helper.clamp(0, 100_000, get()));
+                    flowParticles.setMaxParticles(get());
+                }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "maxParticles"; }
+            };
+        }
+        return maxParticles;
+    }
+
     public boolean getUseItemColor() { return null == useItemColor ? _useItemColor : useItemColor.get(); }
     public void setUseItemColor(final boolean USE) {
         if (null == useItemColor) {
@@ -464,6 +793,367 @@ public class SankeyPlot extends Region {
         return connectionOpacity;
     }
 
+    public boolean isMergeStreams() { return null == mergeStreams ? _mergeStreams : mergeStreams.get(); }
+    /**
+     * If true, all streams with the same paint are filled at once, which is a
+     * lot faster for large graphs. Overlapping streams are then painted only
+     * once, so they don't add up their translucency like separate streams do.
+     * Streams of a traced item are always painted separately.
+     */
+    public void setMergeStreams(final boolean MERGE) {
+        if (null == mergeStreams) {
+            _mergeStreams = MERGE;
+            redraw();
+        } else {
+            mergeStreams.set(MERGE);
+        }
+    }
+    public BooleanProperty mergeStreamsProperty() {
+        if (null == mergeStreams) {
+            mergeStreams = new BooleanPropertyBase(_mergeStreams) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "mergeStreams"; }
+            };
+        }
+        return mergeStreams;
+    }
+
+    public boolean isLevelOfDetail() { return null == levelOfDetail ? _levelOfDetail : levelOfDetail.get(); }
+    /**
+     * If true, the detail of the plot depends on its size in pixels. Thin
+     * streams are drawn as simple polygons, streams below half a pixel are
+     * merged into bands and labels are skipped when the plot is too small
+     * to show them legibly.
+     */
+    public void setLevelOfDetail(final boolean LEVEL_OF_DETAIL) {
+        if (null == levelOfDetail) {
+            _levelOfDetail = LEVEL_OF_DETAIL;
+            redraw();
+        } else {
+            levelOfDetail.set(LEVEL_OF_DETAIL);
+        }
+    }
+    public BooleanProperty levelOfDetailProperty() {
+        if (null == levelOfDetail) {
+            levelOfDetail = new BooleanPropertyBase(_levelOfDetail) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "levelOfDetail"; }
+            };
+        }
+        return levelOfDetail;
+    }
+
+    public boolean isProgressive() { return null == progressive ? _progressive : progressive.get(); }
+    /**
+     * If true, the streams are painted in the order of their size, largest
+     * first, across as many pulses as needed to stay within a frame budget
+     * on each pulse. Items and labels are painted last. Flow traces and
+     * animated transitions are always painted at once.
+     */
+    public void setProgressive(final boolean PROGRESSIVE) {
+        if (null == progressive) {
+            _progressive = PROGRESSIVE;
+            redraw();
+        } else {
+            progressive.set(PROGRESSIVE);
+        }
+    }
+    public BooleanProperty progressiveProperty() {
+        if (null == progressive) {
+            progressive = new BooleanPropertyBase(_progressive) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "progressive"; }
+            };
+        }
+        return progressive;
+    }
+
+    public boolean isSeparateComponents() { return null == separateComponents ? _separateComponents : separateComponents.get(); }
+    /**
+     * If true, every group of items that is not connected to the other items
+     * is laid out on its own and the groups are stacked from top to bottom.
+     * The groups are laid out in parallel and a group that didn't change
+     * keeps its levels and order.
+     */
+    public void setSeparateComponents(final boolean SEPARATE) {
+        if (null == separateComponents) {
+            _separateComponents = SEPARATE;
+            prepareData();
+        } else {
+            separateComponents.set(SEPARATE);
+        }
+    }
+    public BooleanProperty separateComponentsProperty() {
+        if (null == separateComponents) {
+            separateComponents = new BooleanPropertyBase(_separateComponents) {
+                @Override protected void invalidated() { prepareData(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "separateComponents"; }
+            };
+        }
+        return separateComponents;
+    }
+
+    public boolean isStableOrder() { return null == stableOrder ? _stableOrder : stableOrder.get(); }
+    /**
+     * If true, every new layout keeps the order of the items within each
+     * level from the layout before and inserts new items next to the items
+     * they are linked to, so the items don't move around when the data is
+     * updated. The relaxation continues from the previous positions. Takes
+     * effect with the next layout, has no effect on separate components.
+     */
+    public void setStableOrder(final boolean STABLE) {
+        if (null == stableOrder) {
+            _stableOrder = STABLE;
+        } else {
+            stableOrder.set(STABLE);
+        }
+    }
+    public BooleanProperty stableOrderProperty() {
+        if (null == stableOrder) {
+            stableOrder = new BooleanPropertyBase(_stableOrder) {
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "stableOrder"; }
+            };
+        }
+        return stableOrder;
+    }
+
+    public int getRelaxationIterations() { return null == relaxationIterations ? _relaxationIterations : relaxationIterations.get(); }
+    /**
+     * Number of iterations that move the items towards the weighted center
+     * of the items they are connected to, which straightens the streams.
+     * 0 (the default) keeps the items stacked from the bottom.
+     */
+    public void setRelaxationIterations(final int ITERATIONS) {
+        if (null == relaxationIterations) {
+            _relaxationIterations = Helper.clamp(0, 1000, ITERATIONS);
+            prepareData();
+        } else {
+            relaxationIterations.set(ITERATIONS);
+        }
+    }
+    public IntegerProperty relaxationIterationsProperty() {
+        if (null == relaxationIterations) {
+            relaxationIterations = new IntegerPropertyBase(_relaxationIterations) {
+                @Override protected void invalidated() {
+                    set(Helper.clamp(0, 1000, get()));
+                    prepareData();
+                }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "relaxationIterations"; }
+            };
+        }
+        return relaxationIterations;
+    }
+
+    public long getRelaxationBudget() { return null == relaxationBudget ? _relaxationBudget : relaxationBudget.get(); }
+    /**
+     * Maximum time in ms the relaxation may take per layout, 0 for no limit.
+     */
+    public void setRelaxationBudget(final long BUDGET) {
+        if (null == relaxationBudget) {
+            _relaxationBudget = Helper.clamp(0, 10000, BUDGET);
+            prepareData();
+        } else {
+            relaxationBudget.set(BUDGET);
+        }
+    }
+    public LongProperty relaxationBudgetProperty() {
+        if (null == relaxationBudget) {
+            relaxationBudget = new LongPropertyBase(_relaxationBudget) {
+                @Override protected void invalidated() {
+                    set(Helper.clamp(0, 10000, get()));
+                    prepareData();
+                }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "relaxationBudget"; }
+            };
+        }
+        return relaxationBudget;
+    }
+
+    public boolean isAnimated() { return null == animated ? _animated : animated.get(); }
+    /**
+     * If true, changes of the values or of the items are animated from the
+     * previous layout to the new one, changes of the size are never animated.
+     */
+    public void setAnimated(final boolean ANIMATED) {
+        if (null == animated) {
+            _animated = ANIMATED;
+        } else {
+            animated.set(ANIMATED);
+        }
+    }
+    public BooleanProperty animatedProperty() {
+        if (null == animated) {
+            animated = new BooleanPropertyBase(_animated) {
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "animated"; }
+            };
+        }
+        return animated;
+    }
+
+    public long getAnimationDuration() { return null == animationDuration ? _animationDuration : animationDuration.get(); }
+    public void setAnimationDuration(final long DURATION) {
+        if (null == animationDuration) {
+            _animationDuration = Helper.clamp(10, 10000, DURATION);
+        } else {
+            animationDuration.set(DURATION);
+        }
+    }
+    public LongProperty animationDurationProperty() {
+        if (null == animationDuration) {
+            animationDuration = new LongPropertyBase(_animationDuration) {
+                @Override protected void invalidated() { set(Helper.clamp(10, 10000, get())); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "animationDuration"; }
+            };
+        }
+        return animationDuration;
+    }
+
+    public boolean isInteractive() { return null == interactive ? _interactive : interactive.get(); }
+    /**
+     * If true, nodes and flows under the mouse are highlighted, their details
+     * are shown in a tooltip and ENTERED, EXITED and CLICKED events are fired.
+     */
+    public void setInteractive(final boolean INTERACTIVE) {
+        if (null == interactive) {
+            _interactive = INTERACTIVE;
+            if (!INTERACTIVE) { clearHover(); }
+        } else {
+            interactive.set(INTERACTIVE);
+        }
+    }
+    public BooleanProperty interactiveProperty() {
+        if (null == interactive) {
+            interactive = new BooleanPropertyBase(_interactive) {
+                @Override protected void invalidated() { if (!get()) { clearHover(); } }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "interactive"; }
+            };
+        }
+        return interactive;
+    }
+
+    public PlotItem getTracedItem() { return null == tracedItem ? _tracedItem : tracedItem.get(); }
+    /**
+     * Emphasizes all flows that feed into the given item or derive from it,
+     * everything else is dimmed. Pass null to show all flows again.
+     * Clicking on an item in an interactive plot traces it.
+     */
+    public void setTracedItem(final PlotItem ITEM) {
+        if (null == tracedItem) {
+            _tracedItem = ITEM;
+            redraw();
+        } else {
+            tracedItem.set(ITEM);
+        }
+    }
+    public ObjectProperty<PlotItem> tracedItemProperty() {
+        if (null == tracedItem) {
+            tracedItem = new ObjectPropertyBase<PlotItem>(_tracedItem) {
+                @Override protected void invalidated() { redraw(); }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "tracedItem"; }
+            };
+            _tracedItem = null;
+        }
+        return tracedItem;
+    }
+
+    public String getSearchText() { return null == searchText ? _searchText : searchText.get(); }
+    /**
+     * Highlights the items found by search() for the given text together with
+     * their flows. Pass null or an empty text to remove the highlights.
+     */
+    public void setSearchText(final String TEXT) {
+        if (null == searchText) {
+            _searchText = TEXT;
+            updateSearchMatches();
+            drawSearchHighlights();
+        } else {
+            searchText.set(TEXT);
+        }
+    }
+    public StringProperty searchTextProperty() {
+        if (null == searchText) {
+            searchText = new StringPropertyBase(_searchText) {
+                @Override protected void invalidated() {
+                    updateSearchMatches();
+                    drawSearchHighlights();
+                }
+                @Override public Object getBean() { return SankeyPlot.this; }
+                @Override public String getName() { return "searchText"; }
+            };
+            _searchText = null;
+        }
+        return searchText;
+    }
+
+    /**
+     * Returns the items of the current layout that have a name or a word in
+     * their name that starts with the given text, ignoring case and accents.
+     * The name index is built on the first search and afterwards only updated
+     * for the items that were added, removed or renamed in the meantime.
+     */
+    public List<PlotItem> search(final String TEXT) {
+        if (null == TEXT || TEXT.trim().isEmpty()) { return Collections.emptyList(); }
+        if (null == nameIndex) { nameIndex = new NameIndex(); }
+        nameIndex.update(layout.getSnapshot());
+        return nameIndex.search(TEXT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the trace of the traced item in the current layout or null.
+     */
+    public Trace getFlowTrace() { return getFlowTrace(layout); }
+
+    public FlowIngestor getFlowIngestor() { return flowIngestor; }
+    /**
+     * Attaches a FlowIngestor whose accumulated deltas will be drained and
+     * applied to the items once per pulse. Producers may post to the ingestor
+     * from any thread while the plot itself is only touched on the FX thread.
+     * Pass null to detach the current ingestor.
+     */
+    public void setFlowIngestor(final FlowIngestor INGESTOR) {
+        flowIngestor = INGESTOR;
+        updateFlowTimer();
+    }
+
+    public FlowWindow getFlowWindow() { return flowWindow; }
+    /**
+     * Attaches a FlowWindow whose window totals will be used as the values of
+     * the flows. Once per pulse the window is advanced to the current time and
+     * only the flows whose totals changed are updated.
+     * Pass null to detach the current window.
+     */
+    public void setFlowWindow(final FlowWindow WINDOW) {
+        flowWindow = WINDOW;
+        updateFlowTimer();
+    }
+
+    private void updateFlowTimer() {
+        if (null == flowIngestor && null == flowWindow) {
+            flowTimer.stop();
+        } else {
+            flowTimer.start();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the timings of the layout stages and of redraw()
+     * together with the counts of the last layout and redraw. Timings are also
+     * emitted as JDK Flight Recorder events (category "SankeyPlot").
+     */
+    public SankeyMetrics getMetrics() { return metrics.snapshot(); }
+    public void resetMetrics() { metrics.reset(); }
+
     public List<PlotItem> getItemsWithOnlyOutgoing() {
         //return getItems().stream().filter(PlotItem::hasOutgoing).filter(not(PlotItem::hasIncoming)).collect(Collectors.toList());
         return getItems().stream().filter(item -> item.hasOutgoing() && !item.hasIncoming()).collect(Collectors.toList());
@@ -483,95 +1173,283 @@ public class SankeyPlot extends Region {
         Collections.sort(OUTGOING, Comparator.comparing(item -> INCOMING.indexOf(item)));
     }
 
-    private double getSumFromDataItems(final List<PlotItemData> DATA_ITEMS) {
-        return DATA_ITEMS.stream().map(plotItemData -> plotItemData.getPlotItem()).mapToDouble(PlotItem::getMaxSum).sum();
+    private void drainFlows() {
+        flowItemsToAdd.clear();
+        int changed = 0;
+        if (null != flowIngestor && flowIngestor.hasPendingUpdates()) { changed += flowIngestor.drain(this::applyFlowDelta); }
+        if (null != flowWindow) {
+            flowWindow.advance(System.currentTimeMillis());
+            changed += flowWindow.drain(this::applyWindowValue);
+        }
+        flowItemsKnown = null;
+        if (0 == changed) { return; }
+
+        flowBatch.apply();
+        if (flowItemsToAdd.isEmpty()) {
+            prepareData();
+        } else {
+            // Adding the items triggers prepareData() via the itemListListener
+            items.addAll(flowItemsToAdd);
+        }
+    }
+    private void applyFlowDelta(final PlotItem SOURCE, final PlotItem TARGET, final double DELTA) {
+        applyFlowValue(SOURCE, TARGET, flowBatch.getValue(SOURCE, TARGET) + DELTA);
+    }
+    private void applyWindowValue(final PlotItem SOURCE, final PlotItem TARGET, final double VALUE) {
+        // Flows without events within the window are gone
+        if (VALUE <= 0) {
+            flowBatch.remove(SOURCE, TARGET);
+        } else {
+            applyFlowValue(SOURCE, TARGET, VALUE);
+        }
+    }
+    private void applyFlowValue(final PlotItem SOURCE, final PlotItem TARGET, final double VALUE) {
+        if (!SOURCE.getOutgoing().containsKey(TARGET)) {
+            addFlowItem(SOURCE);
+            addFlowItem(TARGET);
+        }
+        flowBatch.set(SOURCE, TARGET, VALUE);
+    }
+    private void addFlowItem(final PlotItem ITEM) {
+        if (snapshot.indexOf(ITEM) >= 0 || flowItemsToAdd.contains(ITEM)) { return; }
+        // The snapshot of a timeline doesn't have to contain all items, the set of items is only built if needed
+        if (null == flowItemsKnown) {
+            flowItemsKnown = Collections.newSetFromMap(new IdentityHashMap<>());
+            flowItemsKnown.addAll(items);
+        }
+        if (!flowItemsKnown.contains(ITEM)) { flowItemsToAdd.add(ITEM); }
+    }
+
+    /**
+     * Returns the immutable snapshot of the graph the current layout is based on.
+     * It can be read from any thread, e.g. for export or analytics in the background.
+     */
+    public GraphSnapshot getSnapshot() { return snapshot; }
+
+    /**
+     * Returns the immutable layout that is currently drawn.
+     */
+    public SankeyLayout getLayout() { return layout; }
+
+    /**
+     * Returns the flow analytics of the current graph. They are computed on
+     * the first call after the graph changed and can be read from any thread,
+     * e.g. for tooltips or reports.
+     */
+    public FlowAnalytics getAnalytics() {
+        SankeyLayout  currentLayout    = layout;
+        FlowAnalytics currentAnalytics = analytics;
+        if (null == currentAnalytics || currentAnalytics.getSnapshot().getVersion() != currentLayout.getSnapshot().getVersion()) {
+            currentAnalytics = FlowAnalytics.of(currentLayout);
+            analytics        = currentAnalytics;
+        }
+        return currentAnalytics;
+    }
+
+    public LayoutStore getLayoutStore() { return layoutStore; }
+    /**
+     * Loads the layouts from the given store instead of computing them as
+     * long as the graph and the layout settings didn't change, computed
+     * layouts are saved to the store in the background. The store keeps
+     * the most recently used layouts within its size, so it also copes with
+     * graphs that change all the time. Pass null to always compute the layouts.
+     */
+    public void setLayoutStore(final LayoutStore STORE) { layoutStore = STORE; }
+
+    public ChangeBus getChangeBus() { return changeBus; }
+    /**
+     * Lays out the items again after every flush of the given bus, so items
+     * that are part of the bus can be modified in place without calling
+     * refresh(). The bus only holds the plot weakly.
+     */
+    public void setChangeBus(final ChangeBus BUS) {
+        if (BUS == changeBus) { return; }
+        if (null != changeBus) { changeBus.removeListener(changeSetListener); }
+        changeBus = BUS;
+        if (null != changeBus) {
+            changeBus.addListener(changeSetListener);
+            refresh();
+        }
+    }
+
+    public SankeyTimeline getTimeline() { return timeline; }
+    /**
+     * Shows the frames of the given timeline instead of the items of the plot
+     * until the timeline is removed again by passing null.
+     */
+    public void setTimeline(final SankeyTimeline TIMELINE) {
+        if (TIMELINE == timeline) { return; }
+        if (null != timeline) { timeline.detach(); }
+        timeline = TIMELINE;
+        if (null == timeline) {
+            prepareData();
+        } else {
+            timeline.attach(this);
+        }
+    }
+
+    /**
+     * Draws the given precomputed layout, used by the SankeyTimeline.
+     */
+    void showLayout(final SankeyLayout LAYOUT) {
+        layout   = LAYOUT;
+        snapshot = LAYOUT.getSnapshot();
+        showCurrentLayout();
+    }
+
+    public LayoutSettings getLayoutSettings() {
+        double itemWidth = isAutoItemWidth() ? size * 0.025 : getItemWidth();
+        double itemGap   = isAutoItemGap() ? size * 0.025 : getItemGap();
+        return new LayoutSettings(width, height, itemWidth, itemGap, size * 0.0125, getRelaxationIterations(), getRelaxationBudget());
     }
 
     private void prepareData() {
-        // Split all items to levels
-        itemsPerLevel.clear();
-        items.forEach(item -> {
-            int level = item.getLevel();
-            if (itemsPerLevel.keySet().contains(level)) {
-                itemsPerLevel.get(level).add(new PlotItemData(item));
-            } else {
-                itemsPerLevel.put(level, new ArrayList<>());
-                itemsPerLevel.get(level).add(new PlotItemData(item));
-            }
-        });
-
-        // Get min- and max level
-        minLevel = itemsPerLevel.keySet().stream().mapToInt(Integer::intValue).min().getAsInt();
-        maxLevel = itemsPerLevel.keySet().stream().mapToInt(Integer::intValue).max().getAsInt();
-
-        // Move items with no incoming streams to correct level dependent on level of their outgoing items
-        List<PlotItemData> minLevelItems = itemsPerLevel.get(minLevel);
-        Map<PlotItemData, Integer> itemsToMove = new LinkedHashMap<>();
-        for (PlotItemData plotItemData : minLevelItems) {
-            int minLevelOfOutgoingItems = maxLevel;
-            int maxLevelOfOutgoingItems = minLevel;
-            for(PlotItem plotItem : plotItemData.getPlotItem().getOutgoing().keySet()) {
-                int levelOfItem = plotItem.getLevel();
-                minLevelOfOutgoingItems = Math.min(minLevelOfOutgoingItems, levelOfItem);
-                maxLevelOfOutgoingItems = Math.max(maxLevelOfOutgoingItems, levelOfItem);
-            }
-            if (minLevelOfOutgoingItems > minLevel + 1) { itemsToMove.put(plotItemData, minLevelOfOutgoingItems - 1); }
+        if (null != timeline) {
+            timeline.refresh();
+            return;
+        }
+
+        // Only take a new snapshot if the items or their flows changed
+        if (!snapshot.isCurrent(items)) { snapshot = GraphSnapshot.of(items, snapshot); }
+
+        // Stored layouts are not used for a warm start, they might order the items differently
+        final LayoutSettings SETTINGS = getLayoutSettings();
+        final SankeyLayout   PREVIOUS = isStableOrder() && !isSeparateComponents() && layout.getSnapshot().getNoOfNodes() > 0 ? layout : null;
+        final SankeyLayout   STORED   = null == PREVIOUS ? loadLayout(SETTINGS) : null;
+        if (null != STORED) {
+            layout = STORED;
+        } else if (isSeparateComponents()) {
+            if (null == componentLayouter) { componentLayouter = new ComponentLayouter(); }
+            layout = componentLayouter.compute(snapshot, SETTINGS, null);
+        } else {
+            componentLayouter = null;
+            layout            = SankeyLayout.compute(snapshot, SETTINGS, null, PREVIOUS);
         }
-        itemsToMove.forEach((itemData, newLevel) -> {
-            minLevelItems.remove(itemData);
-            //itemsPerLevel.get(newLevel).add(itemData);
-            itemsPerLevel.get(newLevel).add(0, itemData);
-        });
+        if (null == STORED && null == PREVIOUS && null != layoutStore) { layoutStore.saveLater(layout, isSeparateComponents()); }
 
-        // Reverse items in at each level
-        itemsPerLevel.forEach((level, items) -> Collections.reverse(items));
+        metrics.recordStage(Stage.LEVELLING, layout.getStageNanos(Stage.LEVELLING));
+        metrics.recordStage(Stage.ORDERING, layout.getStageNanos(Stage.ORDERING));
+        metrics.recordStage(Stage.BOUNDS, layout.getStageNanos(Stage.BOUNDS));
+        metrics.recordLayout(snapshot.getNoOfNodes(), snapshot.getNoOfEdges(), layout.getNoOfLevels());
 
-        // Sort outgoing and incoming items at each level dependent on the order of former and next level items
-        for (int level = minLevel ; level <= maxLevel ; level++) {
-            List<PlotItemData> itemData = itemsPerLevel.get(level);
-            if (level < maxLevel) {
-                List<PlotItem> nextLevelItems = itemsPerLevel.get(level + 1).stream().map(plotItemData -> plotItemData.getPlotItem()).collect(Collectors.toList());
-                itemData.forEach(id -> id.getPlotItem().sortOutgoingByGivenList(nextLevelItems));
-            }
-            if (level > minLevel) {
-                List<PlotItem> formerLevelItems = itemsPerLevel.get(level - 1).stream().map(plotItemData -> plotItemData.getPlotItem()).collect(Collectors.toList());
-                itemData.forEach(id -> id.getPlotItem().sortIncomingByGivenList(formerLevelItems));
-            }
+        showCurrentLayout();
+    }
+
+    private SankeyLayout loadLayout(final LayoutSettings SETTINGS) {
+        if (null == layoutStore) { return null; }
+        try {
+            return layoutStore.load(snapshot, SETTINGS, isSeparateComponents());
+        } catch (IOException e) {
+            // A broken layout file is replaced by the layout that is computed instead
+            return null;
         }
+    }
 
-        // Get max no of items, max sum of values etc.
-        int    maxNoOfItemsAtLevel  = 0;
-        double maxSumOfItemsAtLevel = 0;
-        for (int i = minLevel ; i <= maxLevel ; i++) {
-            List<PlotItemData> items = itemsPerLevel.get(i);
-            maxNoOfItemsAtLevel  = Math.max(maxNoOfItemsAtLevel, items.size());
-            maxSumOfItemsAtLevel = Math.max(maxSumOfItemsAtLevel, getSumFromDataItems(items));
-        }
-
-        // Define drawing parameters
-        double itemWidth     = isAutoItemWidth() ? size * 0.025 : getItemWidth();
-        double verticalGap   = isAutoItemGap() ? size * 0.025 : getItemGap();
-        double textGap       = size * 0.0125;
-        double maxSum        = maxSumOfItemsAtLevel;
-        int    maxItems      = maxNoOfItemsAtLevel;
-        double horizontalGap = (width - itemWidth) / maxLevel;
-        scaleY               = (height - (maxItems - 1) * verticalGap) / maxSum;
-        double spacerX;
-        double spacerY;
-        for (int level = minLevel ; level <= maxLevel ; level++) {
-            spacerY = 0;
-            spacerX = horizontalGap * level;
-            for (PlotItemData itemData : itemsPerLevel.get(level)) {
-                PlotItem item        = itemData.getPlotItem();
-                double   itemHeight  = item.getMaxSum() * scaleY;
-                double   textOffsetX = level < maxLevel ? textGap + itemWidth : -textGap;
-                itemData.setBounds(spacerX , (height - itemHeight) - spacerY, itemWidth, itemHeight);
-                itemData.setTextPoint(spacerX + textOffsetX, (height - itemHeight * 0.5) - spacerY);
-                spacerY += itemHeight + verticalGap;
-            }
+    private void showCurrentLayout() {
+        clearHover();
+        SankeyLayout shown = transition.getLayout();
+        if (isAnimated() && null != shown && shown != layout && shown.getSettings().equals(layout.getSettings())) {
+            transition.start(layout);
+            transitionStart   = System.nanoTime();
+            transitionRunning = true;
+            transitionTimer.start();
+        } else {
+            transitionTimer.stop();
+            transitionRunning = false;
+            transition.jumpTo(layout);
         }
+        // The items might have been renamed, the highlights are drawn by redraw()
+        updateSearchMatches();
+        redraw();
+    }
 
+    private void animateTransition(final long NOW) {
+        double fraction = (NOW - transitionStart) / (getAnimationDuration() * 1_000_000.0);
+        if (fraction >= 1.0) {
+            transitionTimer.stop();
+            transition.interpolate(1.0);
+        } else {
+            // Ease in and out
+            fraction = Helper.clamp(0.0, 1.0, fraction);
+            transition.interpolate(fraction * fraction * (3.0 - 2.0 * fraction));
+        }
         redraw();
+        // The last frame is still painted at once, so the transition doesn't end with an empty plot
+        if (fraction >= 1.0) {
+            transitionRunning = false;
+            drawSearchHighlights();
+        }
+    }
+
+    private void updateParticleTimer() {
+        if (getShowFlowParticles()) {
+            particleTimer.start();
+        } else {
+            particleTimer.stop();
+            particlesCtx.clearRect(0, 0, particles.getWidth(), particles.getHeight());
+        }
+    }
+
+    private void animateParticles(final long NOW) {
+        particlesCtx.clearRect(0, 0, particles.getWidth(), particles.getHeight());
+        // The particles follow the links of the layout, not the links of a running transition
+        if (transitionRunning || width <= 0 || height <= 0) { return; }
+        flowParticles.update(layout, size, NOW);
+        flowParticles.draw(particlesCtx, getParticleColor());
+    }
+
+    private Trace getFlowTrace(final SankeyLayout LAYOUT) {
+        PlotItem item = getTracedItem();
+        if (null == item) { return null; }
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        int node = SNAPSHOT.indexOf(item);
+        if (node < 0) { return null; }
+        if (null != trace && trace.getSnapshot() == SNAPSHOT && trace.getNode() == node) { return trace; }
+        // The tracer keeps its reachable sets as long as the edges between the items don't change
+        if (null == tracer) {
+            tracer = new FlowTracer(SNAPSHOT);
+        } else {
+            tracer.update(SNAPSHOT);
+        }
+        trace = tracer.trace(node);
+        return trace;
+    }
+
+    /**
+     * Returns the gradients of the links of the given layout, they are only
+     * created again if the layout or the opacity changed.
+     */
+    private Paint[] getLinkPaints(final SankeyLayout LAYOUT, final double OPACITY) {
+        if (LAYOUT == linkPaintsLayout && Double.compare(OPACITY, linkPaintsOpacity) == 0) { return linkPaints; }
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        linkPaints = new Paint[LAYOUT.getNoOfLinks()];
+        for (int link = 0 ; link < linkPaints.length ; link++) {
+            linkPaints[link] = new LinearGradient(0, 0, 1, 0,
+                                                  true, CycleMethod.NO_CYCLE,
+                                                  new Stop(0, Helper.getColorWithOpacity(SNAPSHOT.getColor(LAYOUT.getLinkSource(link)), OPACITY)),
+                                                  new Stop(1, Helper.getColorWithOpacity(SNAPSHOT.getColor(LAYOUT.getLinkTarget(link)), OPACITY)));
+        }
+        linkPaintsLayout  = LAYOUT;
+        linkPaintsOpacity = OPACITY;
+        return linkPaints;
+    }
+
+
+    /**
+     * Returns the sum of the items of every level of the given layout, they
+     * are only summed up again if the layout changed.
+     */
+    private double[] getLevelSums(final SankeyLayout LAYOUT) {
+        if (LAYOUT == levelSumsLayout) { return levelSums; }
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        levelSums = new double[LAYOUT.getNoOfLevels()];
+        for (int level = LAYOUT.getMinLevel() ; level <= LAYOUT.getMaxLevel() ; level++) {
+            for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) {
+                levelSums[level - LAYOUT.getMinLevel()] += SNAPSHOT.getMaxSum(LAYOUT.getLevelNode(position));
+            }
+        }
+        levelSumsLayout = LAYOUT;
+        return levelSums;
     }
 
 
@@ -585,6 +1463,15 @@ public class SankeyPlot extends Region {
             canvas.setWidth(width);
             canvas.setHeight(height);
             canvas.relocate((getWidth() - width) * 0.5, (getHeight() - height) * 0.5);
+            highlights.setWidth(width);
+            highlights.setHeight(height);
+            highlights.relocate((getWidth() - width) * 0.5, (getHeight() - height) * 0.5);
+            particles.setWidth(width);
+            particles.setHeight(height);
+            particles.relocate((getWidth() - width) * 0.5, (getHeight() - height) * 0.5);
+            overlay.setWidth(width);
+            overlay.setHeight(height);
+            overlay.relocate((getWidth() - width) * 0.5, (getHeight() - height) * 0.5);
 
             ctx.setTextBaseline(VPos.CENTER);
             ctx.setFont(Font.font(Helper.clamp(8, 24, size * 0.025)));
@@ -594,135 +1481,595 @@ public class SankeyPlot extends Region {
     }
 
     private void redraw() {
+        RedrawEvent redrawEvent = new RedrawEvent();
+        redrawEvent.begin();
+        long redrawStart = System.nanoTime();
+
+        // A progressive redraw that is still running is outdated now
+        progressiveTimer.stop();
+        progressiveLayout = null;
+
+        // Pin the layout, all drawing is done against this one version of the graph
+        if (transition.getLayout() != layout) {
+            transitionTimer.stop();
+            transitionRunning = false;
+            transition.jumpTo(layout);
+        }
+        drawSearchHighlights();
+        final LayoutTransition GEOMETRY = transition;
+        final SankeyLayout     LAYOUT   = GEOMETRY.getLayout();
+        final GraphSnapshot    SNAPSHOT = LAYOUT.getSnapshot();
+        final Trace            TRACE    = getFlowTrace(LAYOUT);
+
+        // The plot without a trace only changes with the layout or the paint properties, so it's reused as an image
+        List<Object> key = transitionRunning ? null : getStaticKey(LAYOUT);
+        if (null == key || !key.equals(staticKey)) {
+            staticKey        = key;
+            staticImageValid = false;
+        } else if (compositeStatic(GEOMETRY, TRACE, redrawEvent)) {
+            return;
+        }
+        canvasShowsStatic = false;
+
         ctx.clearRect(0, 0, width, height);
-        boolean useItemColor         = getUseItemColor();
-        Color   itemColor            = getItemColor();
-        Color   textColor            = getTextColor();
-        boolean showFlowDirection    = getShowFlowDirection();
-        double  showDirectionOffsetX = size * 0.01875;
-        double  connectionOpacity    = getConnectionOpacity();
+        if (isProgressive() && !transitionRunning && null == TRACE) {
+            progressiveLayout   = LAYOUT;
+            progressivePosition = 0;
+            progressiveNanos    = 0;
+            paintProgressively(redrawEvent);
+            if (null != progressiveLayout) { progressiveTimer.start(); }
+            return;
+        }
+
+        paintLayout(GEOMETRY, TRACE);
+
+        canvasShowsStatic = null == TRACE && null != staticKey;
+
+        int linksDrawn  = LAYOUT.getNoOfLinks() + LAYOUT.getNoOfBackwardLinks();
+        int linksCulled = LAYOUT.getNoOfCulledEdges();
+        metrics.recordStage(Stage.REDRAW, System.nanoTime() - redrawStart);
+        metrics.recordRedraw(linksDrawn, linksCulled);
+        redrawEvent.commit(SNAPSHOT.getNoOfNodes(), LAYOUT.getNoOfLevels(), linksDrawn, linksCulled);
+    }
+
+    /**
+     * Paints the plot with the current painter, dimmed with the traced flows
+     * on top if a trace is given.
+     */
+    private void paintLayout(final LayoutTransition GEOMETRY, final Trace TRACE) {
+        final SankeyLayout  LAYOUT   = GEOMETRY.getLayout();
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        boolean        showFlowDirection    = getShowFlowDirection();
+        double         showDirectionOffsetX = size * 0.01875;
+        double         connectionOpacity    = getConnectionOpacity();
+        StreamFillMode streamFillMode       = getStreamFillMode();
+        Color          streamColor          = getStreamColor();
+        int            minLevel             = LAYOUT.getMinLevel();
+        int            maxLevel             = LAYOUT.getMaxLevel();
+        Paint[]        gradients            = StreamFillMode.GRADIENT == streamFillMode ? getLinkPaints(LAYOUT, connectionOpacity) : null;
+        Trace          trace                = TRACE;
+        boolean        mergeStreams         = isMergeStreams() && null == trace;
+        boolean        levelOfDetail        = isLevelOfDetail();
+        boolean        showLabels           = !levelOfDetail || size * 0.025 >= LinkPainter.MIN_LEGIBLE_FONT_SIZE;
+
+        // Every node and link needs at most one value label per frame
+        formatter.ensureCapacity(SNAPSHOT.getNoOfNodes() + LAYOUT.getNoOfLinks());
+
+        if (mergeStreams) { fillMergedLinks(GEOMETRY, streamFillMode, streamColor, connectionOpacity, showFlowDirection ? showDirectionOffsetX : 0, levelOfDetail); }
+        drawBackwardLinks(GEOMETRY, trace, false);
+
+        // The level of detail only applies to untraced links, the traced part of a link has to match the dimmed link
+        linkPainter.begin(painter, true, levelOfDetail);
 
         // Draw bezier curves between items
         for (int level = minLevel ; level <= maxLevel ; level++) {
-            List<PlotItemData> itemDataInLevel = itemsPerLevel.get(level);
-            int nextLevel   = level + 1;
-
-            // Go through all item data of the current level
-            for (PlotItemData itemData : itemDataInLevel) {
-                PlotItem  item   = itemData.getPlotItem();
-                CtxBounds bounds = itemData.getBounds();
+            // Go through all items of the current level
+            for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) {
+                int    node   = LAYOUT.getLevelNode(position);
+                double minX   = GEOMETRY.nodeX[node];
+                double maxX   = minX + GEOMETRY.nodeWidth[node];
 
                 // Outgoing
-                if (level < maxLevel) {
-                    List<PlotItemData> nextLevelItemDataList = itemsPerLevel.get(nextLevel);
-                    for (PlotItem outgoingItem : item.getOutgoing().keySet()) {
-                        Optional<PlotItemData> targetItemDataOptional = nextLevelItemDataList.stream().filter(id -> id.getPlotItem().equals(outgoingItem)).findFirst();
-                        if (!targetItemDataOptional.isPresent()) { continue; }
-
-                        PlotItemData targetItemData   = targetItemDataOptional.get();
-                        CtxBounds    targetItemBounds = targetItemData.getBounds();
-                        PlotItem     targetItem       = targetItemData.getPlotItem();
-
-                        // Calculate y start position in target item dependent on item index in target incoming
-                        double targetIncomingOffsetY = 0;
-                        for (PlotItem incomingItem : targetItem.getIncoming().keySet()) {
-                            if (incomingItem.equals(item)) { break; }
-                            targetIncomingOffsetY += targetItem.getIncoming().get(incomingItem) * scaleY;
+                for (int link = LAYOUT.getLinkStart(node) ; link < LAYOUT.getLinkEnd(node) && !mergeStreams ; link++) {
+                    int    target        = LAYOUT.getLinkTarget(link);
+                    double targetMinX    = GEOMETRY.nodeX[target];
+                    double sourceY       = GEOMETRY.linkSourceY[link];
+                    double targetY       = GEOMETRY.linkTargetY[link];
+                    double valueY        = GEOMETRY.linkHeight[link];
+
+                    // Set Gradient from current item to outgoing items
+                    Paint paint = StreamFillMode.COLOR == streamFillMode ? streamColor : gradients[link];
+
+                    // Draw the bezier curve
+                    if (null == trace) {
+                        linkPainter.addLink(paint, node, maxX, targetMinX, sourceY, targetY, valueY, showFlowDirection ? showDirectionOffsetX : 0);
+                    } else {
+                        painter.setFill(paint);
+                        // Dim the whole flow and emphasize the part that belongs to the traced item
+                        double value      = LAYOUT.getLinkValue(link);
+                        double tracedFlow = trace.getEdgeFlow(LAYOUT.getLinkEdge(link));
+                        painter.setGlobalAlpha(DIMMED_ALPHA);
+                        fillLink(painter, maxX, targetMinX, sourceY, targetY, valueY, showFlowDirection ? showDirectionOffsetX : 0);
+                        painter.setGlobalAlpha(1.0);
+                        if (tracedFlow > 0 && value > 0) {
+                            fillLink(painter, maxX, targetMinX, sourceY, targetY, valueY * Math.min(1.0, tracedFlow / value), showFlowDirection ? showDirectionOffsetX : 0);
                         }
+                    }
+                }
+                linkPainter.flush();
 
-                        // Calculate the offset in x direction for the bezier curve control points
-                        double ctrlPointOffsetX = (targetItemBounds.getMinX() - bounds.getMaxX()) * 0.25;
+                // Draw item boxes with their labels
+                drawNode(GEOMETRY, node, level == maxLevel, trace, showLabels);
+            }
+        }
+        if (showLabels) { drawLinkLabels(GEOMETRY); }
+    }
 
-                        // Calculate the value of the current item in y direction
-                        double valueY = item.getOutgoing().get(outgoingItem) * scaleY;
+    /**
+     * Paints the next links of a progressive redraw in the order of their
+     * size until the budget of this pulse is used up, the items and labels
+     * are painted once all links are done. Every slice is committed as an
+     * event of its own, so the events don't contain the time between pulses.
+     */
+    private void paintProgressively(final RedrawEvent SLICE_EVENT) {
+        final SankeyLayout LAYOUT = progressiveLayout;
+        if (null == LAYOUT) { return; }
+        if (LAYOUT != transition.getLayout()) {
+            // Another layout is shown meanwhile, its redraw starts over
+            progressiveTimer.stop();
+            progressiveLayout = null;
+            SLICE_EVENT.commit(LAYOUT.getSnapshot().getNoOfNodes(), LAYOUT.getNoOfLevels(), 0, 0, false, true);
+            return;
+        }
+        long                   sliceStart           = System.nanoTime();
+        int                    firstPosition        = progressivePosition;
+        final LayoutTransition GEOMETRY             = transition;
+        final int[]            LINKS                = LAYOUT.getLinksBySize();
+        StreamFillMode         streamFillMode       = getStreamFillMode();
+        Color                  streamColor          = getStreamColor();
+        Paint[]                gradients            = StreamFillMode.GRADIENT == streamFillMode ? getLinkPaints(LAYOUT, getConnectionOpacity()) : null;
+        double                 showDirectionOffsetX = getShowFlowDirection() ? size * 0.01875 : 0;
+
+        linkPainter.begin(painter, true, isLevelOfDetail());
+        while (progressivePosition < LINKS.length) {
+            int link   = LINKS[progressivePosition++];
+            int source = LAYOUT.getLinkSource(link);
+            linkPainter.addLink(StreamFillMode.COLOR == streamFillMode ? streamColor : gradients[link], source,
+                                GEOMETRY.nodeX[source] + GEOMETRY.nodeWidth[source], GEOMETRY.nodeX[LAYOUT.getLinkTarget(link)],
+                                GEOMETRY.linkSourceY[link], GEOMETRY.linkTargetY[link], GEOMETRY.linkHeight[link], showDirectionOffsetX);
+            // Reading the clock is not free, so it is only checked every 64 links
+            if ((progressivePosition & 63) == 0 && System.nanoTime() - sliceStart > PROGRESSIVE_BUDGET) { break; }
+        }
+        linkPainter.flush();
+
+        if (progressivePosition == LINKS.length) {
+            boolean showLabels = !isLevelOfDetail() || size * 0.025 >= LinkPainter.MIN_LEGIBLE_FONT_SIZE;
+            formatter.ensureCapacity(LAYOUT.getSnapshot().getNoOfNodes() + LAYOUT.getNoOfLinks());
+            drawBackwardLinks(GEOMETRY, null, false);
+            for (int level = LAYOUT.getMinLevel() ; level <= LAYOUT.getMaxLevel() ; level++) {
+                for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) {
+                    drawNode(GEOMETRY, LAYOUT.getLevelNode(position), level == LAYOUT.getMaxLevel(), null, showLabels);
+                }
+            }
+            if (showLabels) { drawLinkLabels(GEOMETRY); }
+            progressiveTimer.stop();
+            progressiveLayout = null;
+            canvasShowsStatic = null != staticKey;
+        }
+        progressiveNanos += System.nanoTime() - sliceStart;
+
+        boolean lastSlice   = null == progressiveLayout;
+        int     linksCulled = LAYOUT.getNoOfCulledEdges();
+        SLICE_EVENT.commit(LAYOUT.getSnapshot().getNoOfNodes(), LAYOUT.getNoOfLevels(), progressivePosition - firstPosition + (lastSlice ? LAYOUT.getNoOfBackwardLinks() : 0),
+                           lastSlice ? linksCulled : 0, false, true);
+        if (lastSlice) {
+            metrics.recordStage(Stage.REDRAW, progressiveNanos);
+            metrics.recordRedraw(LAYOUT.getNoOfLinks() + LAYOUT.getNoOfBackwardLinks(), linksCulled);
+        }
+    }
 
-                        // Set Gradient from current item to outgoing items
-                        if (StreamFillMode.COLOR == getStreamFillMode()) {
-                            ctx.setFill(getStreamColor());
-                        } else {
-                            ctx.setFill(new LinearGradient(0, 0, 1, 0,
-                                                           true, CycleMethod.NO_CYCLE,
-                                                           new Stop(0, Helper.getColorWithOpacity(item.getColor(), connectionOpacity)),
-                                                           new Stop(1, Helper.getColorWithOpacity(outgoingItem.getColor(), connectionOpacity))));
-                        }
+    /**
+     * Shows the plot by means of the cached image of the plot without a trace.
+     * The image is taken from the canvas the first time the plot has to be
+     * shown differently, returns false if the plot has to be painted.
+     * Such a redraw is recorded as a cached redraw.
+     */
+    private boolean compositeStatic(final LayoutTransition GEOMETRY, final Trace TRACE, final RedrawEvent EVENT) {
+        long compositeStart = System.nanoTime();
+        // Nothing to do if the canvas shows the plot without a trace already
+        if (null != TRACE || !canvasShowsStatic) {
+            if (!staticImageValid) {
+                if (!canvasShowsStatic) { return false; }
+                staticImage      = snapshotCanvas();
+                staticImageValid = true;
+            }
+            ctx.clearRect(0, 0, width, height);
+            if (null == TRACE) {
+                ctx.drawImage(staticImage, 0, 0, width, height);
+            } else {
+                // Dim the whole plot and paint the traced flows and items on top of it
+                ctx.setGlobalAlpha(DIMMED_ALPHA);
+                ctx.drawImage(staticImage, 0, 0, width, height);
+                ctx.setGlobalAlpha(1.0);
+                drawTracedFlows(GEOMETRY, TRACE);
+            }
+            canvasShowsStatic = null == TRACE;
+        }
 
-                        // Draw the bezier curve
-                        ctx.beginPath();
-                        ctx.moveTo(bounds.getMaxX(), bounds.getMinY() + itemData.getOutgoingOffsetY());
-                        if (showFlowDirection) {
-                            ctx.bezierCurveTo(bounds.getMaxX() + ctrlPointOffsetX, bounds.getMinY() + itemData.getOutgoingOffsetY(),
-                                              targetItemBounds.getMinX() - ctrlPointOffsetX, targetItemBounds.getMinY() + targetIncomingOffsetY,
-                                              targetItemBounds.getMinX() - showDirectionOffsetX, targetItemBounds.getMinY() + targetIncomingOffsetY);
-                            ctx.lineTo(targetItemBounds.getMinX(), targetItemBounds.getMinY() + targetIncomingOffsetY + valueY * 0.5);
-                            ctx.lineTo(targetItemBounds.getMinX() - showDirectionOffsetX, targetItemBounds.getMinY() + targetIncomingOffsetY + valueY);
-                        } else {
-                            ctx.bezierCurveTo(bounds.getMaxX() + ctrlPointOffsetX, bounds.getMinY() + itemData.getOutgoingOffsetY(),
-                                              targetItemBounds.getMinX() - ctrlPointOffsetX, targetItemBounds.getMinY() + targetIncomingOffsetY,
-                                              targetItemBounds.getMinX(), targetItemBounds.getMinY() + targetIncomingOffsetY);
-                            ctx.lineTo(targetItemBounds.getMinX(), targetItemBounds.getMinY() + targetIncomingOffsetY + valueY);
-                        }
+        final SankeyLayout LAYOUT = GEOMETRY.getLayout();
+        metrics.recordStage(Stage.REDRAW, System.nanoTime() - compositeStart);
+        metrics.recordCachedRedraw();
+        EVENT.commit(LAYOUT.getSnapshot().getNoOfNodes(), LAYOUT.getNoOfLevels(), 0, LAYOUT.getNoOfCulledEdges(), true, false);
+        return true;
+    }
 
-                        itemData.addToOutgoingOffset(valueY);
-                        targetItemData.addToIncomingOffset(valueY);
-                        ctx.bezierCurveTo(targetItemBounds.getMinX() - ctrlPointOffsetX, targetItemBounds.getMinY() + targetIncomingOffsetY + valueY,
-                                          bounds.getMaxX() + ctrlPointOffsetX, bounds.getMinY() + itemData.getOutgoingOffsetY(),
-                                          bounds.getMaxX(), bounds.getMinY() + itemData.getOutgoingOffsetY());
-                        ctx.lineTo(bounds.getMaxX(), bounds.getMinY() + itemData.getOutgoingOffsetY());
-                        ctx.closePath();
-                        ctx.fill();
-                    }
-                }
+    private void drawTracedFlows(final LayoutTransition GEOMETRY, final Trace TRACE) {
+        final SankeyLayout LAYOUT               = GEOMETRY.getLayout();
+        StreamFillMode     streamFillMode       = getStreamFillMode();
+        Color              streamColor          = getStreamColor();
+        Paint[]            gradients            = StreamFillMode.GRADIENT == streamFillMode ? getLinkPaints(LAYOUT, getConnectionOpacity()) : null;
+        double             showDirectionOffsetX = getShowFlowDirection() ? size * 0.01875 : 0;
+        boolean            showLabels           = !isLevelOfDetail() || size * 0.025 >= LinkPainter.MIN_LEGIBLE_FONT_SIZE;
+        for (int link = 0 ; link < LAYOUT.getNoOfLinks() ; link++) {
+            double value      = LAYOUT.getLinkValue(link);
+            double tracedFlow = TRACE.getEdgeFlow(LAYOUT.getLinkEdge(link));
+            if (tracedFlow <= 0 || value <= 0) { continue; }
+            int source = LAYOUT.getLinkSource(link);
+            painter.setFill(StreamFillMode.COLOR == streamFillMode ? streamColor : gradients[link]);
+            fillLink(painter, GEOMETRY.nodeX[source] + GEOMETRY.nodeWidth[source], GEOMETRY.nodeX[LAYOUT.getLinkTarget(link)], GEOMETRY.linkSourceY[link],
+                     GEOMETRY.linkTargetY[link], GEOMETRY.linkHeight[link] * Math.min(1.0, tracedFlow / value), showDirectionOffsetX);
+        }
+        drawBackwardLinks(GEOMETRY, TRACE, true);
+        for (int level = LAYOUT.getMinLevel() ; level <= LAYOUT.getMaxLevel() ; level++) {
+            for (int position = LAYOUT.getLevelStart(level) ; position < LAYOUT.getLevelEnd(level) ; position++) {
+                int node = LAYOUT.getLevelNode(position);
+                if (TRACE.isTraced(node)) { drawNode(GEOMETRY, node, level == LAYOUT.getMaxLevel(), null, showLabels); }
+            }
+        }
+    }
 
-                // Draw item boxes with their labels
-                ctx.setFill(useItemColor ? item.getColor() : itemColor);
-                ctx.fillRect(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+    /**
+     * Everything the plot without a trace depends on.
+     */
+    private List<Object> getStaticKey(final SankeyLayout LAYOUT) {
+        return Arrays.asList(LAYOUT, width, height, Helper.getOutputScale(canvas), getStreamFillMode(), getStreamColor(), getTextColor(), getShowFlowDirection(),
+                             getUseItemColor(), getItemColor(), getConnectionOpacity(), isMergeStreams(), isLevelOfDetail(), getItemValueLabel(), getLinkValueLabel(),
+                             getDecimals());
+    }
+
+    /**
+     * Copies the canvas into the cached image at the output scale of the screen, so it stays sharp on HiDPI screens.
+     */
+    private WritableImage snapshotCanvas() {
+        double scale       = Helper.getOutputScale(canvas);
+        int    imageWidth  = (int) Math.ceil(width * scale);
+        int    imageHeight = (int) Math.ceil(height * scale);
+        if (null == staticImage || staticImage.getWidth() != imageWidth || staticImage.getHeight() != imageHeight) {
+            staticImage = new WritableImage(imageWidth, imageHeight);
+        }
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        parameters.setTransform(Transform.scale(scale, scale));
+        parameters.setViewport(new Rectangle2D(canvas.getLayoutX() * scale, canvas.getLayoutY() * scale, imageWidth, imageHeight));
+        return canvas.snapshot(parameters, staticImage);
+    }
+
+    private void drawNode(final LayoutTransition GEOMETRY, final int NODE, final boolean LAST_LEVEL, final Trace TRACE, final boolean SHOW_LABELS) {
+        final GraphSnapshot SNAPSHOT = GEOMETRY.getLayout().getSnapshot();
+        if (null != TRACE) { painter.setGlobalAlpha(TRACE.isTraced(NODE) ? 1.0 : DIMMED_ALPHA); }
+        painter.setFill(getUseItemColor() ? SNAPSHOT.getColor(NODE) : getItemColor());
+        painter.fillRect(GEOMETRY.nodeX[NODE], GEOMETRY.nodeY[NODE], GEOMETRY.nodeWidth[NODE], GEOMETRY.nodeHeight[NODE]);
+
+        if (SHOW_LABELS) {
+            // The value goes into a second line below the name
+            ValueLabel valueLabel = getItemValueLabel();
+            double     lineOffset = null == valueLabel || ValueLabel.NONE == valueLabel ? 0 : painter.getFont().getSize() * 0.6;
+            painter.setFill(getTextColor());
+            painter.setTextAlign(LAST_LEVEL ? TextAlignment.RIGHT : TextAlignment.LEFT);
+            painter.fillText(SNAPSHOT.getName(NODE), GEOMETRY.textX[NODE], GEOMETRY.textY[NODE] - lineOffset);
+            if (lineOffset > 0) {
+                final SankeyLayout LAYOUT   = GEOMETRY.getLayout();
+                double             levelSum = getLevelSums(LAYOUT)[LAYOUT.getLevel(NODE) - LAYOUT.getMinLevel()];
+                double             value    = SNAPSHOT.getMaxSum(NODE);
+                painter.fillText(getValueText(valueLabel, value, levelSum > 0 ? value / levelSum : 0), GEOMETRY.textX[NODE], GEOMETRY.textY[NODE] + lineOffset);
+            }
+        }
+        painter.setGlobalAlpha(1.0);
+    }
+
+    /**
+     * Fills all links batch by batch, every batch is one path with a sub path per link.
+     */
+    private void fillMergedLinks(final LayoutTransition GEOMETRY, final StreamFillMode STREAM_FILL_MODE, final Color STREAM_COLOR, final double OPACITY,
+                                 final double DIRECTION_OFFSET_X, final boolean LEVEL_OF_DETAIL) {
+        final SankeyLayout LAYOUT = GEOMETRY.getLayout();
+        if (null == linkBatches || !linkBatches.isValidFor(LAYOUT, STREAM_FILL_MODE, OPACITY)) { linkBatches = new LinkBatches(LAYOUT, STREAM_FILL_MODE, OPACITY); }
+        painter.setFillRule(FillRule.NON_ZERO);
+        for (int batch = 0 ; batch < linkBatches.getNoOfBatches() ; batch++) {
+            painter.setFill(StreamFillMode.COLOR == STREAM_FILL_MODE ? STREAM_COLOR : linkBatches.getPaint(batch));
+            painter.beginPath();
+            linkPainter.begin(painter, false, LEVEL_OF_DETAIL);
+            for (int position = linkBatches.getBatchStart(batch) ; position < linkBatches.getBatchEnd(batch) ; position++) {
+                int link   = linkBatches.getLink(position);
+                int source = LAYOUT.getLinkSource(link);
+                linkPainter.addLink(null, source, GEOMETRY.nodeX[source] + GEOMETRY.nodeWidth[source], GEOMETRY.nodeX[LAYOUT.getLinkTarget(link)],
+                                    GEOMETRY.linkSourceY[link], GEOMETRY.linkTargetY[link], GEOMETRY.linkHeight[link], DIRECTION_OFFSET_X);
+            }
+            linkPainter.flush();
+            painter.fill();
+        }
+    }
+
+    /**
+     * Draws the value labels of the links in the middle of every link that is
+     * high enough for the text.
+     */
+    private void drawLinkLabels(final LayoutTransition GEOMETRY) {
+        final ValueLabel LABEL = getLinkValueLabel();
+        if (null == LABEL || ValueLabel.NONE == LABEL) { return; }
+        final SankeyLayout  LAYOUT     = GEOMETRY.getLayout();
+        final GraphSnapshot SNAPSHOT   = LAYOUT.getSnapshot();
+        final double        MIN_HEIGHT = painter.getFont().getSize();
+        painter.setFill(getTextColor());
+        painter.setTextAlign(TextAlignment.CENTER);
+        for (int link = 0 ; link < LAYOUT.getNoOfLinks() ; link++) {
+            double valueY = GEOMETRY.linkHeight[link];
+            if (valueY < MIN_HEIGHT) { continue; }
+            int    source = LAYOUT.getLinkSource(link);
+            double value  = LAYOUT.getLinkValue(link);
+            double sum    = SNAPSHOT.getSumOfOutgoing(source);
+            double x      = (GEOMETRY.nodeX[source] + GEOMETRY.nodeWidth[source] + GEOMETRY.nodeX[LAYOUT.getLinkTarget(link)]) * 0.5;
+            double y      = (GEOMETRY.linkSourceY[link] + GEOMETRY.linkTargetY[link] + valueY) * 0.5;
+            painter.fillText(getValueText(LABEL, value, sum > 0 ? value / sum : 0), x, y);
+        }
+    }
+
+    private String getValueText(final ValueLabel LABEL, final double VALUE, final double FRACTION) {
+        final int DECIMALS = getDecimals();
+        switch (LABEL) {
+            case PERCENTAGE          : return formatter.formatPercentage(FRACTION, DECIMALS);
+            case VALUE_AND_PERCENTAGE: return formatter.format(VALUE, FRACTION, DECIMALS);
+            default                  : return formatter.format(VALUE, DECIMALS);
+        }
+    }
 
-                ctx.setFill(textColor);
-                ctx.setTextAlign(level == maxLevel ? TextAlignment.RIGHT : TextAlignment.LEFT);
-                ctx.fillText(item.getName(), itemData.getTextPoint().getX(), itemData.getTextPoint().getY());
+    /**
+     * Draws the backward links as bands that leave their source to the right,
+     * run back in their lane below all items and enter their target from the
+     * left. With a trace the bands are dimmed and their traced part is drawn
+     * on top, TRACED_ONLY skips the dimmed bands.
+     */
+    private void drawBackwardLinks(final LayoutTransition GEOMETRY, final Trace TRACE, final boolean TRACED_ONLY) {
+        final SankeyLayout  LAYOUT   = GEOMETRY.getLayout();
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        if (0 == LAYOUT.getNoOfBackwardLinks()) { return; }
+        boolean colorMode = StreamFillMode.COLOR == getStreamFillMode();
+        Color   color     = getStreamColor();
+        double  opacity   = getConnectionOpacity();
+        painter.save();
+        painter.setLineCap(StrokeLineCap.BUTT);
+        painter.setLineJoin(StrokeLineJoin.ROUND);
+        for (int link = 0 ; link < LAYOUT.getNoOfBackwardLinks() ; link++) {
+            int    source  = LAYOUT.getBackwardLinkSource(link);
+            int    target  = LAYOUT.getBackwardLinkTarget(link);
+            double value   = LAYOUT.getBackwardLinkValue(link);
+            double valueY  = LAYOUT.getBackwardLinkHeight(link);
+            double sourceX = GEOMETRY.nodeX[source] + GEOMETRY.nodeWidth[source];
+            double targetX = GEOMETRY.nodeX[target];
+            // Keep the ends at the items while a transition moves them
+            double sourceY = GEOMETRY.nodeY[source] + LAYOUT.getBackwardLinkSourceY(link) - LAYOUT.getNodeY(source);
+            double targetY = GEOMETRY.nodeY[target] + LAYOUT.getBackwardLinkTargetY(link) - LAYOUT.getNodeY(target);
+            double laneY   = LAYOUT.getBackwardLinkLaneY(link);
+            painter.setStroke(colorMode ? color : Helper.getColorWithOpacity(SNAPSHOT.getColor(source), opacity));
+            if (!TRACED_ONLY) {
+                if (null != TRACE) { painter.setGlobalAlpha(DIMMED_ALPHA); }
+                strokeBackwardLink(sourceX, sourceY, targetX, targetY, laneY, valueY);
+                painter.setGlobalAlpha(1.0);
             }
+            if (null == TRACE) { continue; }
+            double tracedFlow = TRACE.getEdgeFlow(LAYOUT.getBackwardLinkEdge(link));
+            if (tracedFlow > 0 && value > 0) { strokeBackwardLink(sourceX, sourceY, targetX, targetY, laneY, valueY * Math.min(1.0, tracedFlow / value)); }
         }
+        painter.restore();
     }
 
+    // Strokes the center line of a backward link with the height of the link as line width
+    private void strokeBackwardLink(final double SOURCE_X, final double SOURCE_Y, final double TARGET_X, final double TARGET_Y, final double LANE_Y, final double HEIGHT) {
+        double half    = HEIGHT * 0.5;
+        double offsetX = half + size * 0.01875;
+        double rightX  = SOURCE_X + offsetX;
+        double leftX   = TARGET_X - offsetX;
+        double startY  = SOURCE_Y + half;
+        double endY    = TARGET_Y + half;
+        double laneY   = LANE_Y + half;
+        double radius  = Math.max(0, Math.min(offsetX, Math.min(laneY - startY, laneY - endY) * 0.5));
+        painter.setLineWidth(HEIGHT);
+        painter.beginPath();
+        painter.moveTo(SOURCE_X, startY);
+        painter.arcTo(rightX, startY, rightX, laneY, radius);
+        painter.arcTo(rightX, laneY, leftX, laneY, radius);
+        painter.arcTo(leftX, laneY, leftX, endY, radius);
+        painter.arcTo(leftX, endY, TARGET_X, endY, radius);
+        painter.lineTo(TARGET_X, endY);
+        painter.stroke();
+    }
 
-    // ******************** Inner Classes *************************************
-    private class PlotItemData {
-        private PlotItem  plotItem;
-        private CtxBounds bounds;           // bounds of the item rectangle
-        private Point     textPoint;        // point where text will be drawn
-        private double    incomingOffsetY;  // offset in y direction of already added incoming bezier curves
-        private double    outgoingOffsetY;  // offset in y direction of already added outgoing bezier curves
+    private void fillLink(final Painter PAINTER, final double MAX_X, final double TARGET_MIN_X, final double SOURCE_Y, final double TARGET_Y, final double VALUE_Y,
+                          final double DIRECTION_OFFSET_X) {
+        PAINTER.beginPath();
+        LinkPainter.addCurvePath(PAINTER, MAX_X, TARGET_MIN_X, SOURCE_Y, TARGET_Y, VALUE_Y, DIRECTION_OFFSET_X);
+        PAINTER.fill();
+    }
 
 
-        // ******************** Constructors **********************************
-        public PlotItemData(final PlotItem ITEM) {
-            plotItem       = ITEM;
-            bounds         = new CtxBounds();
-            textPoint      = new Point();
-            incomingOffsetY = 0;
-            outgoingOffsetY = 0;
+    // ******************** Interaction ***************************************
+    private void hover(final double X, final double Y, final double SCREEN_X, final double SCREEN_Y) {
+        if (!isInteractive()) { return; }
+        final SankeyLayout LAYOUT = layout;
+        int node = -1;
+        int link = -1;
+        if (X >= 0 && Y >= 0) {
+            HitIndex index = LAYOUT.getHitIndex();
+            node = index.getNodeAt(X, Y);
+            link = node < 0 ? index.getLinkAt(X, Y) : -1;
         }
+        if (LAYOUT == hoveredLayout && node == hoveredNode && link == hoveredLink) { return; }
 
+        fireHoverEvent(PlotItemEventType.EXITED);
+        hoveredLayout = LAYOUT;
+        hoveredNode   = node;
+        hoveredLink   = link;
+        fireHoverEvent(PlotItemEventType.ENTERED);
 
-        // ******************** Methods *******************************************
-        public PlotItem getPlotItem() { return plotItem; }
+        drawOverlay();
+        if (node < 0 && link < 0) {
+            tooltip.hide();
+        } else {
+            tooltip.setText(getTooltipText(LAYOUT, node, link));
+            tooltip.show(overlay, SCREEN_X + 12, SCREEN_Y + 12);
+        }
+    }
 
-        public CtxBounds getBounds() { return bounds; }
-        public void setBounds(final double X, final double Y, final double WIDTH, final double HEIGHT) {
-            bounds.set(X, Y, WIDTH, HEIGHT);
+    private void click(final double X, final double Y) {
+        if (!isInteractive()) { return; }
+        final SankeyLayout LAYOUT = layout;
+        HitIndex index = LAYOUT.getHitIndex();
+        int      node  = index.getNodeAt(X, Y);
+        int      link  = node < 0 ? index.getLinkAt(X, Y) : -1;
+        if (node >= 0) {
+            PlotItem item = LAYOUT.getSnapshot().getItem(node);
+            setTracedItem(item == getTracedItem() ? null : item);
+        } else if (link < 0) {
+            setTracedItem(null);
         }
+        fireEvent(LAYOUT, node, link, PlotItemEventType.CLICKED);
+    }
 
-        public Point getTextPoint() { return textPoint; }
-        public void setTextPoint(final double X, final double Y) { textPoint.set(X, Y); }
+    private void clearHover() {
+        if (null != hoveredLayout) {
+            fireHoverEvent(PlotItemEventType.EXITED);
+            hoveredLayout = null;
+            hoveredNode   = -1;
+            hoveredLink   = -1;
+            tooltip.hide();
+        }
+        drawOverlay();
+    }
 
-        public double getIncomingOffsetY() { return incomingOffsetY; }
-        public void setIncomingOffsetY(final double OFFSET) { incomingOffsetY = OFFSET; }
-        public void addToIncomingOffset(final double ADD) { incomingOffsetY += ADD; }
-        public void resetIncomingOffset() { incomingOffsetY = 0; }
+    private void fireHoverEvent(final PlotItemEventType TYPE) {
+        if (null != hoveredLayout) { fireEvent(hoveredLayout, hoveredNode, hoveredLink, TYPE); }
+    }
 
-        public double getOutgoingOffsetY() { return outgoingOffsetY; }
-        public void setOutgoingOffsetY(final double OFFSET) { outgoingOffsetY = OFFSET; }
-        public void addToOutgoingOffset(final double ADD) { outgoingOffsetY += ADD; }
-        public void resetOutgoingOffset() { outgoingOffsetY = 0; }
+    private void fireEvent(final SankeyLayout LAYOUT, final int NODE, final int LINK, final PlotItemEventType TYPE) {
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        if (NODE >= 0) {
+            firePlotItemEvent(new PlotItemEvent(SNAPSHOT.getItem(NODE), TYPE));
+        } else if (LINK >= 0) {
+            firePlotItemEvent(new PlotItemEvent(SNAPSHOT.getItem(LAYOUT.getLinkSource(LINK)), SNAPSHOT.getItem(LAYOUT.getLinkTarget(LINK)), TYPE));
+        }
+    }
+
+    private String getTooltipText(final SankeyLayout LAYOUT, final int NODE, final int LINK) {
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        final int           DECIMALS = getDecimals();
+        StringBuilder       text     = new StringBuilder();
+        if (NODE >= 0) {
+            text.append(SNAPSHOT.getName(NODE));
+            if (null != SNAPSHOT.getDescription(NODE) && !SNAPSHOT.getDescription(NODE).isEmpty()) { text.append("\n").append(SNAPSHOT.getDescription(NODE)); }
+            text.append("\n").append(formatter.format(SNAPSHOT.getMaxSum(NODE), DECIMALS));
+        } else {
+            int source = LAYOUT.getLinkSource(LINK);
+            int target = LAYOUT.getLinkTarget(LINK);
+            text.append(SNAPSHOT.getName(source)).append(" \u2192 ").append(SNAPSHOT.getName(target))
+                .append("\n").append(formatter.format(LAYOUT.getLinkValue(LINK), DECIMALS));
+        }
+        return text.toString();
+    }
+
+    private void updateSearchMatches() {
+        searchMatches = search(getSearchText());
+        searchLayout  = null;
+    }
+
+    /**
+     * Draws the found items and all flows that start or end at them in the
+     * layout the transition ends with, nothing is drawn while it is running.
+     */
+    private void drawSearchHighlights() {
+        highlightsCtx.clearRect(0, 0, highlights.getWidth(), highlights.getHeight());
+        if (searchMatches.isEmpty() || transitionRunning) { return; }
+        final SankeyLayout LAYOUT = layout;
+        if (LAYOUT != searchLayout) { resolveSearchMatches(LAYOUT); }
+
+        // Painting the flows a second time doubles their opacity
+        final boolean COLOR_MODE       = StreamFillMode.COLOR == getStreamFillMode();
+        final Paint[] PAINTS           = COLOR_MODE ? null : getLinkPaints(LAYOUT, getConnectionOpacity());
+        final double  DIRECTION_OFFSET = getShowFlowDirection() ? size * 0.01875 : 0;
+        highlightsCtx.setFill(getStreamColor());
+        for (int link : searchLinks) {
+            int source = LAYOUT.getLinkSource(link);
+            int target = LAYOUT.getLinkTarget(link);
+            if (!COLOR_MODE) { highlightsCtx.setFill(PAINTS[link]); }
+            fillLink(highlightsPainter, LAYOUT.getNodeX(source) + LAYOUT.getNodeWidth(source), LAYOUT.getNodeX(target), LAYOUT.getLinkSourceY(link),
+                     LAYOUT.getLinkTargetY(link), LAYOUT.getLinkHeight(link), DIRECTION_OFFSET);
+        }
+        highlightsCtx.setStroke(getTextColor());
+        highlightsCtx.setLineWidth(2);
+        for (int node : searchNodes) {
+            highlightsCtx.strokeRect(LAYOUT.getNodeX(node), LAYOUT.getNodeY(node), LAYOUT.getNodeWidth(node), LAYOUT.getNodeHeight(node));
+        }
     }
+
+    private void resolveSearchMatches(final SankeyLayout LAYOUT) {
+        final GraphSnapshot SNAPSHOT = LAYOUT.getSnapshot();
+        boolean[] found     = new boolean[SNAPSHOT.getNoOfNodes()];
+        int[]     nodes     = new int[searchMatches.size()];
+        int       noOfNodes = 0;
+        for (PlotItem item : searchMatches) {
+            int node = SNAPSHOT.indexOf(item);
+            if (node < 0) { continue; }
+            found[node]        = true;
+            nodes[noOfNodes++] = node;
+        }
+        int[] links     = new int[16];
+        int   noOfLinks = 0;
+        for (int link = 0 ; link < LAYOUT.getNoOfLinks() ; link++) {
+            if (!found[LAYOUT.getLinkSource(link)] && !found[LAYOUT.getLinkTarget(link)]) { continue; }
+            if (noOfLinks == links.length) { links = Arrays.copyOf(links, noOfLinks * 2); }
+            links[noOfLinks++] = link;
+        }
+        searchNodes  = Arrays.copyOf(nodes, noOfNodes);
+        searchLinks  = Arrays.copyOf(links, noOfLinks);
+        searchLayout = LAYOUT;
+    }
+
+    private void drawOverlay() {
+        overlayCtx.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        final SankeyLayout LAYOUT = hoveredLayout;
+        if (null == LAYOUT) { return; }
+        if (hoveredNode >= 0) {
+            overlayCtx.setStroke(getTextColor());
+            overlayCtx.setLineWidth(2);
+            overlayCtx.strokeRect(LAYOUT.getNodeX(hoveredNode), LAYOUT.getNodeY(hoveredNode), LAYOUT.getNodeWidth(hoveredNode), LAYOUT.getNodeHeight(hoveredNode));
+        } else if (hoveredLink >= 0) {
+            // Painting the flow a second time doubles its opacity
+            int source = LAYOUT.getLinkSource(hoveredLink);
+            int target = LAYOUT.getLinkTarget(hoveredLink);
+            overlayCtx.setFill(StreamFillMode.COLOR == getStreamFillMode() ? getStreamColor() : getLinkPaints(LAYOUT, getConnectionOpacity())[hoveredLink]);
+            fillLink(overlayPainter, LAYOUT.getNodeX(source) + LAYOUT.getNodeWidth(source), LAYOUT.getNodeX(target), LAYOUT.getLinkSourceY(hoveredLink),
+                     LAYOUT.getLinkTargetY(hoveredLink), LAYOUT.getLinkHeight(hoveredLink), getShowFlowDirection() ? size * 0.01875 : 0);
+        }
+    }
+
+
+    // ******************** Event Handling ************************************
+    /**
+     * Listeners receive the ENTERED, EXITED and CLICKED events of the nodes
+     * and flows of the plot. Events of flows carry the target of the flow.
+     */
+    public void setOnPlotItemEvent(final PlotItemEventListener LISTENER) { addPlotItemEventListener(LISTENER); }
+    public void addPlotItemEventListener(final PlotItemEventListener LISTENER) { if (!listeners.contains(LISTENER)) { listeners.add(LISTENER); } }
+    public void removePlotItemEventListener(final PlotItemEventListener LISTENER) { if (listeners.contains(LISTENER)) { listeners.remove(LISTENER); } }
+
+    public void firePlotItemEvent(final PlotItemEvent EVENT) { listeners.forEach(listener -> listener.onChartItemEvent(EVENT)); }
 }
@@ -17,14 +17,17 @@
 package eu.hansolo.fx.sankeyplot;
 
 import eu.hansolo.fx.sankeyplot.SankeyPlot.StreamFillMode;
+import eu.hansolo.fx.sankeyplot.SankeyPlot.ValueLabel;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Dimension2D;
 import javafx.geometry.Insets;
@@ -77,6 +80,16 @@ public class SankeyPlotBuilder<B extends SankeyPlotBuilder<B>> {
         return (B)this;
     }
 
+    public final B itemValueLabel(final ValueLabel LABEL) {
+        properties.put("itemValueLabel", new SimpleObjectProperty<>(LABEL));
+        return (B)this;
+    }
+
+    public final B linkValueLabel(final ValueLabel LABEL) {
+        properties.put("linkValueLabel", new SimpleObjectProperty<>(LABEL));
+        return (B)this;
+    }
+
     public final B showFlowDirection(final boolean SHOW) {
         properties.put("showFlowDirection", new SimpleBooleanProperty(SHOW));
         return (B)this;
@@ -117,6 +130,71 @@ public class SankeyPlotBuilder<B extends SankeyPlotBuilder<B>> {
         return (B)this;
     }
 
+    public final B mergeStreams(final boolean MERGE) {
+        properties.put("mergeStreams", new SimpleBooleanProperty(MERGE));
+        return (B)this;
+    }
+
+    public final B levelOfDetail(final boolean LEVEL_OF_DETAIL) {
+        properties.put("levelOfDetail", new SimpleBooleanProperty(LEVEL_OF_DETAIL));
+        return (B)this;
+    }
+
+    public final B showFlowParticles(final boolean SHOW) {
+        properties.put("showFlowParticles", new SimpleBooleanProperty(SHOW));
+        return (B)this;
+    }
+
+    public final B particleColor(final Color COLOR) {
+        properties.put("particleColor", new SimpleObjectProperty<>(COLOR));
+        return (B)this;
+    }
+
+    public final B maxParticles(final int MAX) {
+        properties.put("maxParticles", new SimpleIntegerProperty(MAX));
+        return (B)this;
+    }
+
+    public final B progressive(final boolean PROGRESSIVE) {
+        properties.put("progressive", new SimpleBooleanProperty(PROGRESSIVE));
+        return (B)this;
+    }
+
+    public final B separateComponents(final boolean SEPARATE) {
+        properties.put("separateComponents", new SimpleBooleanProperty(SEPARATE));
+        return (B)this;
+    }
+
+    public final B stableOrder(final boolean STABLE) {
+        properties.put("stableOrder", new SimpleBooleanProperty(STABLE));
+        return (B)this;
+    }
+
+    public final B relaxationIterations(final int ITERATIONS) {
+        properties.put("relaxationIterations", new SimpleIntegerProperty(ITERATIONS));
+        return (B)this;
+    }
+
+    public final B relaxationBudget(final long BUDGET) {
+        properties.put("relaxationBudget", new SimpleLongProperty(BUDGET));
+        return (B)this;
+    }
+
+    public final B animated(final boolean ANIMATED) {
+        properties.put("animated", new SimpleBooleanProperty(ANIMATED));
+        return (B)this;
+    }
+
+    public final B animationDuration(final long DURATION) {
+        properties.put("animationDuration", new SimpleLongProperty(DURATION));
+        return (B)this;
+    }
+
+    public final B interactive(final boolean INTERACTIVE) {
+        properties.put("interactive", new SimpleBooleanProperty(INTERACTIVE));
+        return (B)this;
+    }
+
     public final B prefSize(final double WIDTH, final double HEIGHT) {
         properties.put("prefSize", new SimpleObjectProperty<>(new Dimension2D(WIDTH, HEIGHT)));
         return (B)this;
@@ -243,6 +321,10 @@ public class SankeyPlotBuilder<B extends SankeyPlotBuilder<B>> {
                 CONTROL.setTextColor(((ObjectProperty<Color>) properties.get(key)).get());
             } else if ("decimals".equals(key)) {
                 CONTROL.setDecimals(((IntegerProperty) properties.get(key)).get());
+            } else if ("itemValueLabel".equals(key)) {
+                CONTROL.setItemValueLabel(((ObjectProperty<ValueLabel>) properties.get(key)).get());
+            } else if ("linkValueLabel".equals(key)) {
+                CONTROL.setLinkValueLabel(((ObjectProperty<ValueLabel>) properties.get(key)).get());
             } else if ("showFlowDirection".equals(key)) {
                 CONTROL.setShowFlowDirection(((BooleanProperty) properties.get(key)).get());
             } else if ("itemWidth".equals(key)) {
@@ -259,6 +341,32 @@ public class SankeyPlotBuilder<B extends SankeyPlotBuilder<B>> {
                 CONTROL.setItemColor(((ObjectProperty<Color>) properties.get(key)).get());
             } else if ("connectionOpacity".equals(key)) {
                 CONTROL.setConnectionOpacity(((DoubleProperty) properties.get(key)).get());
+            } else if ("mergeStreams".equals(key)) {
+                CONTROL.setMergeStreams(((BooleanProperty) properties.get(key)).get());
+            } else if ("levelOfDetail".equals(key)) {
+                CONTROL.setLevelOfDetail(((BooleanProperty) properties.get(key)).get());
+            } else if ("showFlowParticles".equals(key)) {
+                CONTROL.setShowFlowParticles(((BooleanProperty) properties.get(key)).get());
+            } else if ("particleColor".equals(key)) {
+                CONTROL.setParticleColor(((ObjectProperty<Color>) properties.get(key)).get());
+            } else if ("maxParticles".equals(key)) {
+                CONTROL.setMaxParticles(((IntegerProperty) properties.get(key)).get());
+            } else if ("progressive".equals(key)) {
+                CONTROL.setProgressive(((BooleanProperty) properties.get(key)).get());
+            } else if ("separateComponents".equals(key)) {
+                CONTROL.setSeparateComponents(((BooleanProperty) properties.get(key)).get());
+            } else if ("stableOrder".equals(key)) {
+                CONTROL.setStableOrder(((BooleanProperty) properties.get(key)).get());
+            } else if ("relaxationIterations".equals(key)) {
+                CONTROL.setRelaxationIterations(((IntegerProperty) properties.get(key)).get());
+            } else if ("relaxationBudget".equals(key)) {
+                CONTROL.setRelaxationBudget(((LongProperty) properties.get(key)).get());
+            } else if ("animated".equals(key)) {
+                CONTROL.setAnimated(((BooleanProperty) properties.get(key)).get());
+            } else if ("animationDuration".equals(key)) {
+                CONTROL.setAnimationDuration(((LongProperty) properties.get(key)).get());
+            } else if ("interactive".equals(key)) {
+                CONTROL.setInteractive(((BooleanProperty) properties.get(key)).get());
             }
         }
         return CONTROL;
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.IntegerPropertyBase;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Replays a sequence of GraphSnapshots in a SankeyPlot (see SankeyPlot.setTimeline()).
+ * The layouts of the frames (keyframes) are precomputed on a background thread
+ * ahead of the current frame and kept in a cache that is bounded by the estimated
+ * memory of the layouts, the least recently shown keyframes are evicted first.
+ * All frames share one node order (the order in which the items appear first in
+ * the sequence), so every item keeps its relative position from frame to frame.
+ * The frame property can be bound to a Slider to scrub through the timeline,
+ * play() and pause() step through it automatically.
+ * Except for getKeyframe() all methods have to be called on the FX application thread.
+ */
+public class SankeyTimeline {
+    public  static final    long                                 DEFAULT_MAX_CACHE_BYTES = 64 * 1024 * 1024;
+    public  static final    int                                  DEFAULT_LOOK_AHEAD      = 16;
+    private        final    List<GraphSnapshot>                  frames;
+    private        final    Map<PlotItem, Integer>               order;
+    private        final    LinkedHashMap<Integer, SankeyLayout> keyframes;
+    private        final    Set<Integer>                         scheduled;
+    private        final    ExecutorService                      executor;
+    private        final    IntegerProperty                      frame;
+    private        final    BooleanProperty                      playing;
+    private        final    AnimationTimer                       player;
+    private                 long                                 maxCacheBytes;
+    private                 long                                 cacheBytes;
+    private                 int                                  lookAhead;
+    private                 double                               framesPerSecond;
+    private                 long                                 lastFrameTime;
+    private        volatile LayoutSettings                       settings;
+    private                 SankeyPlot                           plot;
+
+
+    // ******************** Constructors **************************************
+    public SankeyTimeline(final List<GraphSnapshot> FRAMES) {
+        if (null == FRAMES || FRAMES.isEmpty()) { throw new IllegalArgumentException("Timeline needs at least one frame"); }
+        frames          = Collections.unmodifiableList(new ArrayList<>(FRAMES));
+        order           = new HashMap<>();
+        keyframes       = new LinkedHashMap<>(16, 0.75f, true);
+        scheduled       = new HashSet<>();
+        executor        = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SankeyTimeline");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        maxCacheBytes   = DEFAULT_MAX_CACHE_BYTES;
+        lookAhead       = DEFAULT_LOOK_AHEAD;
+        framesPerSecond = 10;
+        frame           = new IntegerPropertyBase(0) {
+            @Override protected void invalidated() {
+                int clamped = Math.max(0, Math.min(frames.size() - 1, get()));
+                if (clamped != get()) {
+                    set(clamped);
+                } else {
+                    show();
+                }
+            }
+            @Override public Object getBean() { return SankeyTimeline.this; }
+            @Override public String getName() { return "frame"; }
+        };
+        playing         = new SimpleBooleanProperty(SankeyTimeline.this, "playing", false);
+        player          = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                if (NOW - lastFrameTime < 1_000_000_000 / framesPerSecond) { return; }
+                lastFrameTime = NOW;
+                if (getFrame() < getNoOfFrames() - 1) {
+                    setFrame(getFrame() + 1);
+                } else {
+                    pause();
+                }
+            }
+        };
+
+        // One order for all frames keeps the items from jumping between frames
+        for (GraphSnapshot snapshot : frames) {
+            for (int node = 0 ; node < snapshot.getNoOfNodes() ; node++) { order.putIfAbsent(snapshot.getItem(node), order.size()); }
+        }
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getNoOfFrames() { return frames.size(); }
+
+    public GraphSnapshot getSnapshot(final int FRAME) { return frames.get(FRAME); }
+
+    public int getFrame() { return frame.get(); }
+    public void setFrame(final int FRAME) { frame.set(FRAME); }
+    public IntegerProperty frameProperty() { return frame; }
+
+    public boolean isPlaying() { return playing.get(); }
+    public ReadOnlyBooleanProperty playingProperty() { return playing; }
+
+    public double getFramesPerSecond() { return framesPerSecond; }
+    public void setFramesPerSecond(final double FRAMES_PER_SECOND) {
+        if (FRAMES_PER_SECOND <= 0) { throw new IllegalArgumentException("Frames per second must be positive"); }
+        framesPerSecond = FRAMES_PER_SECOND;
+    }
+
+    /**
+     * Number of frames after the current frame whose keyframes are computed in the background.
+     */
+    public int getLookAhead() { return lookAhead; }
+    public void setLookAhead(final int LOOK_AHEAD) { lookAhead = Math.max(0, LOOK_AHEAD); }
+
+    public long getMaxCacheBytes() { return maxCacheBytes; }
+    public void setMaxCacheBytes(final long MAX_CACHE_BYTES) {
+        synchronized (keyframes) {
+            maxCacheBytes = Math.max(0, MAX_CACHE_BYTES);
+            evict();
+        }
+    }
+
+    public long getCacheBytes() { synchronized (keyframes) { return cacheBytes; } }
+
+    public int getNoOfCachedKeyframes() { synchronized (keyframes) { return keyframes.size(); } }
+
+    public void play() {
+        if (isPlaying()) { return; }
+        if (getFrame() == getNoOfFrames() - 1) { setFrame(0); }
+        lastFrameTime = System.nanoTime();
+        playing.set(true);
+        player.start();
+    }
+
+    public void pause() {
+        player.stop();
+        playing.set(false);
+    }
+
+    /**
+     * Returns the keyframe of the given frame for the given settings, either from
+     * the cache or by computing it on the calling thread.
+     */
+    public SankeyLayout getKeyframe(final int FRAME, final LayoutSettings SETTINGS) {
+        if (SETTINGS.equals(settings)) {
+            synchronized (keyframes) {
+                SankeyLayout keyframe = keyframes.get(FRAME);
+                if (null != keyframe) { return keyframe; }
+            }
+        }
+        SankeyLayout keyframe = SankeyLayout.compute(frames.get(FRAME), SETTINGS, order);
+        cache(FRAME, keyframe);
+        return keyframe;
+    }
+
+    /**
+     * Stops playing and the background computation, the timeline can't be used afterwards.
+     */
+    public void dispose() {
+        pause();
+        executor.shutdownNow();
+        if (null != plot) { plot.setTimeline(null); }
+        synchronized (keyframes) {
+            keyframes.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    void attach(final SankeyPlot PLOT) {
+        plot = PLOT;
+        refresh();
+    }
+
+    void detach() {
+        pause();
+        plot = null;
+    }
+
+    /**
+     * Shows the current frame with the current settings of the plot, called
+     * by the plot whenever its layout settings might have changed.
+     */
+    void refresh() {
+        if (null == plot) { return; }
+        LayoutSettings plotSettings = plot.getLayoutSettings();
+        if (!plotSettings.equals(settings)) {
+            // Keyframes are only valid for the settings they were computed with
+            synchronized (keyframes) {
+                settings = plotSettings;
+                keyframes.clear();
+                scheduled.clear();
+                cacheBytes = 0;
+            }
+        }
+        show();
+    }
+
+    private void show() {
+        if (null == plot) { return; }
+        final LayoutSettings SETTINGS = settings;
+        if (null == SETTINGS) { return; }
+        int current = getFrame();
+        plot.showLayout(getKeyframe(current, SETTINGS));
+        precompute(current, SETTINGS);
+    }
+
+    private void precompute(final int FRAME, final LayoutSettings SETTINGS) {
+        int last = Math.min(frames.size() - 1, FRAME + lookAhead);
+        for (int i = FRAME + 1 ; i <= last ; i++) {
+            final int NEXT = i;
+            synchronized (keyframes) {
+                if (keyframes.containsKey(NEXT) || !scheduled.add(NEXT)) { continue; }
+            }
+            executor.execute(() -> {
+                // Skip frames whose settings are outdated by the time the task runs
+                if (SETTINGS.equals(settings)) { cache(NEXT, SankeyLayout.compute(frames.get(NEXT), SETTINGS, order)); }
+                synchronized (keyframes) { scheduled.remove(NEXT); }
+            });
+        }
+    }
+
+    private void cache(final int FRAME, final SankeyLayout KEYFRAME) {
+        synchronized (keyframes) {
+            if (!KEYFRAME.getSettings().equals(settings)) { return; }
+            SankeyLayout previous = keyframes.put(FRAME, KEYFRAME);
+            if (null != previous) { cacheBytes -= previous.getEstimatedBytes(); }
+            cacheBytes += KEYFRAME.getEstimatedBytes();
+            evict();
+        }
+    }
+
+    private void evict() {
+        // Keep at least the most recently used keyframe, which is usually the one on screen
+        Iterator<SankeyLayout> iterator = keyframes.values().iterator();
+        while (cacheBytes > maxCacheBytes && keyframes.size() > 1) {
+            cacheBytes -= iterator.next().getEstimatedBytes();
+            iterator.remove();
+        }
+    }
+}
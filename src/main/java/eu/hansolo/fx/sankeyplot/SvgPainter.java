@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
+import javafx.scene.paint.Stop;
+import javafx.scene.shape.FillRule;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Paints into an SVG document that is kept in memory until it is written by
+ * writeTo(). Every fill and stroke becomes an element of its own, linear
+ * gradients become definitions that are shared by all elements with an
+ * equal gradient. Coordinates are rounded to 1/100 of a pixel.
+ * Other paints than colors and linear gradients are painted as black.
+ */
+final class SvgPainter implements Painter {
+    private final double              width;
+    private final double              height;
+    private final Font                font;
+    private final StringBuilder       body;
+    private final StringBuilder       defs;
+    private final Map<Paint, String>  gradientIds;
+    private final StringBuilder       path;
+    private final Deque<State>        states;
+    private       State               state;
+    private       boolean             hasCurrentPoint;
+    private       double              currentX;
+    private       double              currentY;
+    private       double              subpathX;
+    private       double              subpathY;
+
+
+    // ******************** Constructors **************************************
+    SvgPainter(final double WIDTH, final double HEIGHT, final Font FONT) {
+        width       = WIDTH;
+        height      = HEIGHT;
+        font        = FONT;
+        body        = new StringBuilder();
+        defs        = new StringBuilder();
+        gradientIds = new HashMap<>();
+        path        = new StringBuilder();
+        states      = new ArrayDeque<>();
+        state       = new State();
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public Font getFont() { return font; }
+
+    @Override public void setFill(final Paint PAINT) { state.fill = PAINT; }
+
+    @Override public void setStroke(final Paint PAINT) { state.stroke = PAINT; }
+
+    @Override public void setGlobalAlpha(final double ALPHA) { state.alpha = ALPHA; }
+
+    @Override public void setLineWidth(final double WIDTH) { state.lineWidth = WIDTH; }
+
+    @Override public void setLineCap(final StrokeLineCap CAP) { state.lineCap = CAP; }
+
+    @Override public void setLineJoin(final StrokeLineJoin JOIN) { state.lineJoin = JOIN; }
+
+    @Override public void setFillRule(final FillRule RULE) { state.fillRule = RULE; }
+
+    @Override public void setTextAlign(final TextAlignment ALIGNMENT) { state.textAlign = ALIGNMENT; }
+
+    @Override public void save() { states.push(new State(state)); }
+
+    @Override public void restore() { if (!states.isEmpty()) { state = states.pop(); } }
+
+    @Override public void fillRect(final double X, final double Y, final double WIDTH, final double HEIGHT) {
+        body.append("<rect x=\"");
+        appendNumber(body, X).append("\" y=\"");
+        appendNumber(body, Y).append("\" width=\"");
+        appendNumber(body, WIDTH).append("\" height=\"");
+        appendNumber(body, HEIGHT).append('"');
+        appendPaint("fill", state.fill);
+        appendAlpha();
+        body.append("/>\n");
+    }
+
+    @Override public void fillText(final String TEXT, final double X, final double Y) {
+        if (null == TEXT || TEXT.isEmpty()) { return; }
+        body.append("<text x=\"");
+        appendNumber(body, X).append("\" y=\"");
+        appendNumber(body, Y).append("\" font-family=\"");
+        // Viewers that don't know the family of the font fall back to a sans-serif font
+        appendEscaped(font.getFamily()).append(", sans-serif\" font-size=\"");
+        appendNumber(body, font.getSize()).append("\" dominant-baseline=\"central\"");
+        switch (state.textAlign) {
+            case CENTER: body.append(" text-anchor=\"middle\""); break;
+            case RIGHT : body.append(" text-anchor=\"end\""); break;
+            default    : break;
+        }
+        appendPaint("fill", state.fill);
+        appendAlpha();
+        body.append('>');
+        appendEscaped(TEXT).append("</text>\n");
+    }
+
+    @Override public void beginPath() {
+        path.setLength(0);
+        hasCurrentPoint = false;
+    }
+
+    @Override public void moveTo(final double X, final double Y) {
+        path.append('M');
+        appendPoint(X, Y);
+        subpathX = X;
+        subpathY = Y;
+    }
+
+    @Override public void lineTo(final double X, final double Y) {
+        if (!hasCurrentPoint) {
+            moveTo(X, Y);
+            return;
+        }
+        path.append('L');
+        appendPoint(X, Y);
+    }
+
+    @Override public void bezierCurveTo(final double CONTROL_X1, final double CONTROL_Y1, final double CONTROL_X2, final double CONTROL_Y2, final double X, final double Y) {
+        if (!hasCurrentPoint) { moveTo(CONTROL_X1, CONTROL_Y1); }
+        path.append('C');
+        appendNumber(path, CONTROL_X1).append(' ');
+        appendNumber(path, CONTROL_Y1).append(' ');
+        appendNumber(path, CONTROL_X2).append(' ');
+        appendNumber(path, CONTROL_Y2).append(' ');
+        appendPoint(X, Y);
+    }
+
+    /**
+     * Adds a line to the point where the circle with the given radius touches
+     * both tangents through (X1, Y1) and an arc along the circle from there
+     * to the second tangent, like the arcTo() of a canvas.
+     */
+    @Override public void arcTo(final double X1, final double Y1, final double X2, final double Y2, final double RADIUS) {
+        if (!hasCurrentPoint) { moveTo(X1, Y1); }
+        double fromX     = currentX - X1;
+        double fromY     = currentY - Y1;
+        double toX       = X2 - X1;
+        double toY       = Y2 - Y1;
+        double fromRange = Math.hypot(fromX, fromY);
+        double toRange   = Math.hypot(toX, toY);
+        double cross     = fromX * toY - fromY * toX;
+        if (RADIUS <= 0 || fromRange == 0 || toRange == 0 || Math.abs(cross) < 1e-9 * fromRange * toRange) {
+            lineTo(X1, Y1);
+            return;
+        }
+        fromX /= fromRange;
+        fromY /= fromRange;
+        toX   /= toRange;
+        toY   /= toRange;
+        // Distance of the tangent points from the corner
+        double angle    = Math.acos(Math.max(-1, Math.min(1, fromX * toX + fromY * toY)));
+        double distance = RADIUS / Math.tan(angle * 0.5);
+        lineTo(X1 + fromX * distance, Y1 + fromY * distance);
+        path.append('A');
+        appendNumber(path, RADIUS).append(' ');
+        appendNumber(path, RADIUS).append(" 0 0 ").append(cross < 0 ? '1' : '0').append(' ');
+        appendPoint(X1 + toX * distance, Y1 + toY * distance);
+    }
+
+    @Override public void closePath() {
+        if (!hasCurrentPoint) { return; }
+        path.append('Z');
+        currentX = subpathX;
+        currentY = subpathY;
+    }
+
+    @Override public void fill() {
+        if (path.length() == 0) { return; }
+        body.append("<path d=\"").append(path).append('"');
+        appendPaint("fill", state.fill);
+        if (FillRule.EVEN_ODD == state.fillRule) { body.append(" fill-rule=\"evenodd\""); }
+        appendAlpha();
+        body.append("/>\n");
+    }
+
+    @Override public void stroke() {
+        if (path.length() == 0) { return; }
+        body.append("<path d=\"").append(path).append("\" fill=\"none\"");
+        appendPaint("stroke", state.stroke);
+        body.append(" stroke-width=\"");
+        appendNumber(body, state.lineWidth).append("\" stroke-linecap=\"").append(state.lineCap.name().toLowerCase(Locale.ROOT))
+            .append("\" stroke-linejoin=\"").append(state.lineJoin.name().toLowerCase(Locale.ROOT)).append('"');
+        appendAlpha();
+        body.append("/>\n");
+    }
+
+    void writeTo(final Writer WRITER) throws IOException {
+        StringBuilder header = new StringBuilder("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        appendNumber(header, width).append("\" height=\"");
+        appendNumber(header, height).append("\" viewBox=\"0 0 ");
+        appendNumber(header, width).append(' ');
+        appendNumber(header, height).append("\">\n");
+        WRITER.append(header);
+        if (defs.length() > 0) { WRITER.append("<defs>\n").append(defs).append("</defs>\n"); }
+        WRITER.append(body).append("</svg>\n");
+        WRITER.flush();
+    }
+
+    private void appendPoint(final double X, final double Y) {
+        appendNumber(path, X).append(' ');
+        appendNumber(path, Y);
+        hasCurrentPoint = true;
+        currentX        = X;
+        currentY        = Y;
+    }
+
+    private void appendPaint(final String ATTRIBUTE, final Paint PAINT) {
+        body.append(' ').append(ATTRIBUTE).append("=\"");
+        if (PAINT instanceof LinearGradient) {
+            body.append("url(#").append(getGradientId((LinearGradient) PAINT)).append(")\"");
+            return;
+        }
+        Color color = PAINT instanceof Color ? (Color) PAINT : Color.BLACK;
+        appendColor(body, color).append('"');
+        if (color.getOpacity() < 1) {
+            body.append(' ').append(ATTRIBUTE).append("-opacity=\"");
+            appendNumber(body, color.getOpacity()).append('"');
+        }
+    }
+
+    private void appendAlpha() {
+        if (state.alpha >= 1) { return; }
+        body.append(" opacity=\"");
+        appendNumber(body, state.alpha).append('"');
+    }
+
+    private String getGradientId(final LinearGradient GRADIENT) {
+        String id = gradientIds.get(GRADIENT);
+        if (null != id) { return id; }
+        id = "g" + gradientIds.size();
+        gradientIds.put(GRADIENT, id);
+        defs.append("<linearGradient id=\"").append(id).append("\" x1=\"");
+        appendNumber(defs, GRADIENT.getStartX()).append("\" y1=\"");
+        appendNumber(defs, GRADIENT.getStartY()).append("\" x2=\"");
+        appendNumber(defs, GRADIENT.getEndX()).append("\" y2=\"");
+        appendNumber(defs, GRADIENT.getEndY()).append('"');
+        if (!GRADIENT.isProportional()) { defs.append(" gradientUnits=\"userSpaceOnUse\""); }
+        if (CycleMethod.REFLECT == GRADIENT.getCycleMethod()) {
+            defs.append(" spreadMethod=\"reflect\"");
+        } else if (CycleMethod.REPEAT == GRADIENT.getCycleMethod()) {
+            defs.append(" spreadMethod=\"repeat\"");
+        }
+        defs.append(">\n");
+        for (Stop stop : GRADIENT.getStops()) {
+            defs.append("<stop offset=\"");
+            appendNumber(defs, stop.getOffset()).append("\" stop-color=\"");
+            appendColor(defs, stop.getColor()).append('"');
+            if (stop.getColor().getOpacity() < 1) {
+                defs.append(" stop-opacity=\"");
+                appendNumber(defs, stop.getColor().getOpacity()).append('"');
+            }
+            defs.append("/>\n");
+        }
+        defs.append("</linearGradient>\n");
+        return id;
+    }
+
+    private StringBuilder appendEscaped(final String TEXT) {
+        for (int i = 0 ; i < TEXT.length() ; i++) {
+            char c = TEXT.charAt(i);
+            switch (c) {
+                case '&' : body.append("&amp;"); break;
+                case '<' : body.append("&lt;"); break;
+                case '>' : body.append("&gt;"); break;
+                case '"' : body.append("&quot;"); break;
+                default  :
+                    // Control characters are not allowed in XML
+                    if (c >= 0x20 || '\t' == c) { body.append(c); }
+                    break;
+            }
+        }
+        return body;
+    }
+
+    private static StringBuilder appendColor(final StringBuilder BUILDER, final Color COLOR) {
+        int rgb = (int) Math.round(COLOR.getRed() * 255) << 16 | (int) Math.round(COLOR.getGreen() * 255) << 8 | (int) Math.round(COLOR.getBlue() * 255);
+        String hex = Integer.toHexString(rgb);
+        BUILDER.append('#');
+        for (int i = hex.length() ; i < 6 ; i++) { BUILDER.append('0'); }
+        return BUILDER.append(hex);
+    }
+
+    private static StringBuilder appendNumber(final StringBuilder BUILDER, final double NUMBER) {
+        long hundredths = Math.round(NUMBER * 100);
+        return 0 == hundredths % 100 ? BUILDER.append(hundredths / 100) : BUILDER.append(hundredths / 100.0);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class State {
+        private Paint          fill;
+        private Paint          stroke;
+        private double         alpha;
+        private double         lineWidth;
+        private StrokeLineCap  lineCap;
+        private StrokeLineJoin lineJoin;
+        private FillRule       fillRule;
+        private TextAlignment  textAlign;
+
+
+        // ******************** Constructors **********************************
+        State() {
+            fill      = Color.BLACK;
+            stroke    = Color.BLACK;
+            alpha     = 1.0;
+            lineWidth = 1.0;
+            lineCap   = StrokeLineCap.SQUARE;
+            lineJoin  = StrokeLineJoin.MITER;
+            fillRule  = FillRule.NON_ZERO;
+            textAlign = TextAlignment.LEFT;
+        }
+        State(final State STATE) {
+            fill      = STATE.fill;
+            stroke    = STATE.stroke;
+            alpha     = STATE.alpha;
+            lineWidth = STATE.lineWidth;
+            lineCap   = STATE.lineCap;
+            lineJoin  = STATE.lineJoin;
+            fillRule  = STATE.fillRule;
+            textAlign = STATE.textAlign;
+        }
+    }
+}
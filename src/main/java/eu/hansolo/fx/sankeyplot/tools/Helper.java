@@ -16,14 +16,19 @@
 
 package eu.hansolo.fx.sankeyplot.tools;
 
+import javafx.scene.Node;
 import javafx.scene.paint.Color;
+import javafx.stage.Window;
 
+import java.lang.reflect.Method;
 import java.util.Locale;
 import java.util.function.Predicate;
 
 
 public class Helper {
-    public  static final String[] ABBREVIATIONS = { "k", "M", "G", "T", "P", "E", "Z", "Y" };
+    public  static final String[] ABBREVIATIONS  = { "k", "M", "G", "T", "P", "E", "Z", "Y" };
+    private static final Method   OUTPUT_SCALE_X = getWindowMethod("getOutputScaleX");
+    private static final Method   OUTPUT_SCALE_Y = getWindowMethod("getOutputScaleY");
 
     public static final int clamp(final int MIN, final int MAX, final int VALUE) {
         if (VALUE < MIN) return MIN;
@@ -107,5 +112,27 @@ public class Helper {
         return niceFraction * Math.pow(10, exponent);
     }
 
+    /**
+     * Returns the scale of the output of the window that shows the given node,
+     * 1.0 if the node is not showing or the runtime doesn't provide it (Java 8).
+     */
+    public static final double getOutputScale(final Node NODE) {
+        if (null == OUTPUT_SCALE_X || null == OUTPUT_SCALE_Y) { return 1.0; }
+        if (null == NODE.getScene() || null == NODE.getScene().getWindow()) { return 1.0; }
+        Window window = NODE.getScene().getWindow();
+        try {
+            return Math.max((Double) OUTPUT_SCALE_X.invoke(window), (Double) OUTPUT_SCALE_Y.invoke(window));
+        } catch (ReflectiveOperationException e) {
+            return 1.0;
+        }
+    }
+    private static Method getWindowMethod(final String NAME) {
+        try {
+            return Window.class.getMethod(NAME);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     public static <T> Predicate<T> not(Predicate<T> predicate) { return predicate.negate(); }
 }
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+
+/**
+ * Pull parser for JSON (RFC 8259) that reads one token at a time from a
+ * fixed size buffer, so the memory it needs doesn't depend on the size of
+ * the document. Only the text of the current name, string or number is
+ * kept. Names are cached, so the names that are repeated in every object
+ * of an array are only created once.
+ * Malformed documents cause an IOException with the line and column of the
+ * error. Not thread safe.
+ */
+public class JsonReader implements Closeable {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int      EMPTY_DOCUMENT    = 0;
+    private static final int      NONEMPTY_DOCUMENT = 1;
+    private static final int      EMPTY_ARRAY       = 2;
+    private static final int      NONEMPTY_ARRAY    = 3;
+    private static final int      EMPTY_OBJECT      = 4;
+    private static final int      NONEMPTY_OBJECT   = 5;
+    private static final int      DANGLING_NAME     = 6;
+    private static final int      NAME_CACHE_SIZE   = 64;
+    private static final int      MAX_LONG_DIGITS   = 18;
+    private        final Reader   in;
+    private        final char[]   buffer;
+    private              int      pos;
+    private              int      limit;
+    private              long     bufferOffset;
+    private              int      line;
+    private              long     lineStart;
+    private              int[]    stack;
+    private              int      depth;
+    private              Token    peeked;
+    private              boolean  peekedBoolean;
+    private              char[]   text;
+    private              int      textLength;
+    private              boolean  integral;
+    private        final String[] names;
+
+
+    // ******************** Constructors **************************************
+    public JsonReader(final Reader IN) {
+        if (null == IN) { throw new IllegalArgumentException("Reader must not be null"); }
+        in        = IN;
+        buffer    = new char[8192];
+        line      = 1;
+        stack     = new int[32];
+        stack[0]  = EMPTY_DOCUMENT;
+        depth     = 1;
+        text      = new char[64];
+        names     = new String[NAME_CACHE_SIZE];
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (null == peeked) { peeked = doPeek(); }
+        return peeked;
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return Token.END_ARRAY != token && Token.END_OBJECT != token && Token.END_DOCUMENT != token;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return getName();
+    }
+
+    /**
+     * Returns the next string, numbers are returned as they were written.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (Token.STRING != token && Token.NUMBER != token) { throw syntaxError("Expected a string but was " + token); }
+        peeked = null;
+        return new String(text, 0, textLength);
+    }
+
+    /**
+     * Returns the next number, strings that contain a number are converted.
+     */
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (Token.NUMBER == token && integral && textLength <= MAX_LONG_DIGITS) {
+            peeked = null;
+            return parseLong();
+        }
+        if (Token.STRING != token && Token.NUMBER != token) { throw syntaxError("Expected a number but was " + token); }
+        try {
+            double number = Double.parseDouble(new String(text, 0, textLength));
+            peeked = null;
+            return number;
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was \"" + new String(text, 0, textLength) + "\"");
+        }
+    }
+
+    public int nextInt() throws IOException {
+        double number = nextDouble();
+        if (number != (int) number) { throw syntaxError("Expected an int but was " + number); }
+        return (int) number;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value including all values that are nested in it.
+     */
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            Token token = peek();
+            if (Token.END_DOCUMENT == token) { throw syntaxError("Unexpected end of document"); }
+            peeked = null;
+            if (Token.BEGIN_ARRAY == token) {
+                push(EMPTY_ARRAY);
+                nesting++;
+            } else if (Token.BEGIN_OBJECT == token) {
+                push(EMPTY_OBJECT);
+                nesting++;
+            } else if (Token.END_ARRAY == token || Token.END_OBJECT == token) {
+                depth--;
+                nesting--;
+            }
+        } while (nesting > 0);
+    }
+
+    @Override public void close() throws IOException {
+        peeked   = null;
+        stack[0] = NONEMPTY_DOCUMENT;
+        depth    = 1;
+        in.close();
+    }
+
+    private void expect(final Token TOKEN) throws IOException {
+        Token token = peek();
+        if (TOKEN != token) { throw syntaxError("Expected " + TOKEN + " but was " + token); }
+        peeked = null;
+    }
+
+    private void push(final int SCOPE) {
+        if (depth == stack.length) { stack = Arrays.copyOf(stack, depth * 2); }
+        stack[depth++] = SCOPE;
+    }
+
+    private Token doPeek() throws IOException {
+        final int SCOPE = stack[depth - 1];
+        int c;
+        if (EMPTY_ARRAY == SCOPE || NONEMPTY_ARRAY == SCOPE) {
+            stack[depth - 1] = NONEMPTY_ARRAY;
+            c = nextNonWhitespace();
+            if (']' == c) { return Token.END_ARRAY; }
+            if (NONEMPTY_ARRAY == SCOPE) {
+                if (',' != c) { throw syntaxError("Expected ',' or ']'"); }
+                c = nextNonWhitespace();
+            }
+        } else if (EMPTY_OBJECT == SCOPE || NONEMPTY_OBJECT == SCOPE) {
+            stack[depth - 1] = DANGLING_NAME;
+            c = nextNonWhitespace();
+            if ('}' == c) { return Token.END_OBJECT; }
+            if (NONEMPTY_OBJECT == SCOPE) {
+                if (',' != c) { throw syntaxError("Expected ',' or '}'"); }
+                c = nextNonWhitespace();
+            }
+            if ('"' != c) { throw syntaxError("Expected a name"); }
+            readString();
+            return Token.NAME;
+        } else if (DANGLING_NAME == SCOPE) {
+            stack[depth - 1] = NONEMPTY_OBJECT;
+            if (':' != nextNonWhitespace()) { throw syntaxError("Expected ':'"); }
+            c = nextNonWhitespace();
+        } else if (EMPTY_DOCUMENT == SCOPE) {
+            stack[depth - 1] = NONEMPTY_DOCUMENT;
+            c = nextNonWhitespace();
+        } else {
+            c = skipWhitespace();
+            if (-1 == c) { return Token.END_DOCUMENT; }
+            throw syntaxError("Expected end of document");
+        }
+
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"': readString(); return Token.STRING;
+            case 't': readLiteral("rue"); peekedBoolean = true; return Token.BOOLEAN;
+            case 'f': readLiteral("alse"); peekedBoolean = false; return Token.BOOLEAN;
+            case 'n': readLiteral("ull"); return Token.NULL;
+            default :
+                if ('-' == c || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            bufferOffset += limit;
+            pos   = 0;
+            limit = Math.max(0, in.read(buffer, 0, buffer.length));
+            if (0 == limit) { return -1; }
+        }
+        return buffer[pos++];
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if ('\n' == c) {
+                line++;
+                lineStart = bufferOffset + pos;
+            } else if (' ' != c && '\t' != c && '\r' != c) {
+                return c;
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = skipWhitespace();
+        if (-1 == c) { throw syntaxError("Unexpected end of document"); }
+        return c;
+    }
+
+    private void readLiteral(final String REST) throws IOException {
+        for (int i = 0 ; i < REST.length() ; i++) {
+            if (read() != REST.charAt(i)) { throw syntaxError("Unexpected literal"); }
+        }
+    }
+
+    private void readNumber(final char FIRST) throws IOException {
+        textLength = 0;
+        integral   = true;
+        append(FIRST);
+        while (true) {
+            if (pos == limit && -1 == peekChar()) { break; }
+            char c = buffer[pos];
+            if (c >= '0' && c <= '9') {
+                append(c);
+            } else if ('.' == c || 'e' == c || 'E' == c || '+' == c || '-' == c) {
+                integral = false;
+                append(c);
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if ('-' == text[textLength - 1] || ('-' == FIRST && 1 == textLength)) { throw syntaxError("Malformed number"); }
+    }
+
+    // Makes the next character available at buffer[pos] without consuming it
+    private int peekChar() throws IOException {
+        if (pos < limit) { return buffer[pos]; }
+        bufferOffset += limit;
+        pos   = 0;
+        limit = Math.max(0, in.read(buffer, 0, buffer.length));
+        return 0 == limit ? -1 : buffer[0];
+    }
+
+    private double parseLong() {
+        boolean negative = '-' == text[0];
+        long    number   = 0;
+        for (int i = negative ? 1 : 0 ; i < textLength ; i++) { number = number * 10 + (text[i] - '0'); }
+        return negative ? -number : number;
+    }
+
+    private void readString() throws IOException {
+        textLength = 0;
+        while (true) {
+            // Copy everything up to the next quote or escape at once
+            int start = pos;
+            while (pos < limit && '"' != buffer[pos] && '\\' != buffer[pos]) {
+                if (buffer[pos] < 0x20) { throw syntaxError("Unescaped control character in string"); }
+                pos++;
+            }
+            append(buffer, start, pos - start);
+            int c = read();
+            if ('"' == c) { return; }
+            if (-1 == c) { throw syntaxError("Unterminated string"); }
+            if ('\\' == c) { append(readEscape()); }
+            else if (c >= 0 && c < 0x20) { throw syntaxError("Unescaped control character in string"); }
+            else { append((char) c); }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"' : return '"';
+            case '\\': return '\\';
+            case '/' : return '/';
+            case 'b' : return '\b';
+            case 'f' : return '\f';
+            case 'n' : return '\n';
+            case 'r' : return '\r';
+            case 't' : return '\t';
+            case 'u' :
+                int code = 0;
+                for (int i = 0 ; i < 4 ; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) { throw syntaxError("Malformed unicode escape"); }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default  : throw syntaxError("Malformed escape");
+        }
+    }
+
+    private void append(final char C) {
+        if (textLength == text.length) { text = Arrays.copyOf(text, textLength * 2); }
+        text[textLength++] = C;
+    }
+    private void append(final char[] CHARS, final int START, final int LENGTH) {
+        if (textLength + LENGTH > text.length) { text = Arrays.copyOf(text, Math.max(textLength + LENGTH, textLength * 2)); }
+        System.arraycopy(CHARS, START, text, textLength, LENGTH);
+        textLength += LENGTH;
+    }
+
+    private String getName() {
+        int hash = 0;
+        for (int i = 0 ; i < textLength ; i++) { hash = 31 * hash + text[i]; }
+        final int SLOT   = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String    cached = names[SLOT];
+        if (null != cached && cached.length() == textLength) {
+            boolean equal = true;
+            for (int i = 0 ; i < textLength && equal ; i++) { equal = cached.charAt(i) == text[i]; }
+            if (equal) { return cached; }
+        }
+        names[SLOT] = new String(text, 0, textLength);
+        return names[SLOT];
+    }
+
+    private IOException syntaxError(final String MESSAGE) {
+        long position = bufferOffset + pos;
+        return new IOException(MESSAGE + " at line " + line + " column " + (position - lineStart));
+    }
+}
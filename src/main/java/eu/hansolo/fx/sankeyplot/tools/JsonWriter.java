@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot.tools;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+
+/**
+ * Writes compact JSON (RFC 8259) token by token to the given writer, the
+ * counterpart of JsonReader. Commas and colons are inserted automatically,
+ * calls that would produce malformed JSON cause an IllegalStateException.
+ * Integral numbers are written without a fraction, e.g. 10 instead of 10.0.
+ * Wrap the given writer in a BufferedWriter if it isn't buffered.
+ * Not thread safe.
+ */
+public class JsonWriter implements Closeable, Flushable {
+    private static final int     EMPTY_DOCUMENT    = 0;
+    private static final int     NONEMPTY_DOCUMENT = 1;
+    private static final int     EMPTY_ARRAY       = 2;
+    private static final int     NONEMPTY_ARRAY    = 3;
+    private static final int     EMPTY_OBJECT      = 4;
+    private static final int     NONEMPTY_OBJECT   = 5;
+    private static final int     DANGLING_NAME     = 6;
+    private static final double  MAX_LONG          = 1e15;
+    private static final char[]  HEX_DIGITS        = "0123456789abcdef".toCharArray();
+    private        final Writer  out;
+    private              int[]   stack;
+    private              int     depth;
+
+
+    // ******************** Constructors **************************************
+    public JsonWriter(final Writer OUT) {
+        if (null == OUT) { throw new IllegalArgumentException("Writer must not be null"); }
+        out      = OUT;
+        stack    = new int[32];
+        stack[0] = EMPTY_DOCUMENT;
+        depth    = 1;
+    }
+
+
+    // ******************** Methods *******************************************
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        out.write('[');
+        return this;
+    }
+    public JsonWriter endArray() throws IOException {
+        if (EMPTY_ARRAY != stack[depth - 1] && NONEMPTY_ARRAY != stack[depth - 1]) { throw new IllegalStateException("Not in an array"); }
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        out.write('{');
+        return this;
+    }
+    public JsonWriter endObject() throws IOException {
+        if (EMPTY_OBJECT != stack[depth - 1] && NONEMPTY_OBJECT != stack[depth - 1]) { throw new IllegalStateException("Not in an object or a value is missing"); }
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter name(final String NAME) throws IOException {
+        if (null == NAME) { throw new IllegalArgumentException("Name must not be null"); }
+        final int SCOPE = stack[depth - 1];
+        if (EMPTY_OBJECT != SCOPE && NONEMPTY_OBJECT != SCOPE) { throw new IllegalStateException("Names are only allowed in objects"); }
+        if (NONEMPTY_OBJECT == SCOPE) { out.write(','); }
+        stack[depth - 1] = DANGLING_NAME;
+        writeString(NAME);
+        return this;
+    }
+
+    /**
+     * Writes the given string or null if it is null.
+     */
+    public JsonWriter value(final String VALUE) throws IOException {
+        if (null == VALUE) { return nullValue(); }
+        beforeValue();
+        writeString(VALUE);
+        return this;
+    }
+
+    public JsonWriter value(final double VALUE) throws IOException {
+        if (Double.isNaN(VALUE) || Double.isInfinite(VALUE)) { throw new IllegalArgumentException("Numbers must be finite but was " + VALUE); }
+        beforeValue();
+        if (VALUE == Math.rint(VALUE) && Math.abs(VALUE) < MAX_LONG) {
+            out.write(Long.toString((long) VALUE));
+        } else {
+            out.write(Double.toString(VALUE));
+        }
+        return this;
+    }
+
+    public JsonWriter value(final long VALUE) throws IOException {
+        beforeValue();
+        out.write(Long.toString(VALUE));
+        return this;
+    }
+
+    public JsonWriter value(final boolean VALUE) throws IOException {
+        beforeValue();
+        out.write(VALUE ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    @Override public void flush() throws IOException { out.flush(); }
+
+    /**
+     * Closes the underlying writer, the document has to be complete.
+     */
+    @Override public void close() throws IOException {
+        out.close();
+        if (depth > 1 || NONEMPTY_DOCUMENT != stack[0]) { throw new IOException("Incomplete document"); }
+    }
+
+    private void push(final int SCOPE) {
+        if (depth == stack.length) { stack = Arrays.copyOf(stack, depth * 2); }
+        stack[depth++] = SCOPE;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT   : stack[depth - 1] = NONEMPTY_DOCUMENT; break;
+            case EMPTY_ARRAY      : stack[depth - 1] = NONEMPTY_ARRAY; break;
+            case NONEMPTY_ARRAY   : out.write(','); break;
+            case DANGLING_NAME    :
+                out.write(':');
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT: throw new IllegalStateException("A document has only one top level value");
+            default               : throw new IllegalStateException("Values in objects need a name");
+        }
+    }
+
+    private void writeString(final String TEXT) throws IOException {
+        out.write('"');
+        // Write everything between two characters that have to be escaped at once
+        int start = 0;
+        for (int i = 0 ; i < TEXT.length() ; i++) {
+            char   c       = TEXT.charAt(i);
+            String escaped = null;
+            if ('"' == c) {
+                escaped = "\\\"";
+            } else if ('\\' == c) {
+                escaped = "\\\\";
+            } else if ('\n' == c) {
+                escaped = "\\n";
+            } else if ('\r' == c) {
+                escaped = "\\r";
+            } else if ('\t' == c) {
+                escaped = "\\t";
+            } else if (c < 0x20 || '\u2028' == c || '\u2029' == c) {
+                // The line separators are valid in JSON but not in JavaScript
+                escaped = new String(new char[] { '\\', 'u', HEX_DIGITS[c >> 12], HEX_DIGITS[(c >> 8) & 0xf], HEX_DIGITS[(c >> 4) & 0xf], HEX_DIGITS[c & 0xf] });
+            }
+            if (null == escaped) { continue; }
+            if (i > start) { out.write(TEXT, start, i - start); }
+            out.write(escaped);
+            start = i + 1;
+        }
+        if (TEXT.length() > start) { out.write(TEXT, start, TEXT.length() - start); }
+        out.write('"');
+    }
+}
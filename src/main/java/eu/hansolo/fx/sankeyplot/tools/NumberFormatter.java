@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.sankeyplot.tools;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * Formats numbers like Helper.format(), abbreviated with the suffixes of
+ * Helper.ABBREVIATIONS, but without String.format(). The digits are written
+ * into a reusable buffer and every resulting string is kept in a cache that
+ * is indexed by the value and the number of decimals, so formatting a value
+ * that was formatted before doesn't allocate anything.
+ * The cache is a hash table with linear probing that is cleared once it is
+ * three quarters full. Values are rounded half up. Not thread safe.
+ */
+public class NumberFormatter {
+    public  static final int      MAX_DECIMALS     = 9;
+    public  static final int      DEFAULT_CAPACITY = 4096;
+    private static final int      KIND_VALUE       = 0x100;
+    private static final int      KIND_PERCENTAGE  = 0x200;
+    private static final double[] POWERS_OF_TEN    = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+    private static final double[] THOUSANDS        = { 1e3, 1e6, 1e9, 1e12, 1e15, 1e18, 1e21, 1e24 };
+    private static final double   MAX_UNITS        = 9e18;
+    private              long[]   values;
+    private              long[]   fractions;
+    private              int[]    kinds;
+    private              String[] texts;
+    private              int      mask;
+    private              int      size;
+    private              char[]   buffer;
+
+
+    // ******************** Constructors **************************************
+    public NumberFormatter() {
+        this(DEFAULT_CAPACITY);
+    }
+    /**
+     * The capacity of the cache is rounded up to the next power of two, at least 4.
+     */
+    public NumberFormatter(final int CAPACITY) {
+        if (CAPACITY < 1) { throw new IllegalArgumentException("Capacity must be at least 1"); }
+        buffer = new char[96];
+        allocate(CAPACITY);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the given value with the given number of decimals, e.g. 1.2k for 1234 with 1 decimal.
+     */
+    public String format(final double VALUE, final int DECIMALS) {
+        return get(VALUE, 0, KIND_VALUE | clampDecimals(DECIMALS));
+    }
+
+    /**
+     * Returns the given fraction as percentage, e.g. 12.5% for 0.125 with 1 decimal.
+     */
+    public String formatPercentage(final double FRACTION, final int DECIMALS) {
+        return get(0, FRACTION, KIND_PERCENTAGE | clampDecimals(DECIMALS));
+    }
+
+    /**
+     * Returns the given value followed by the given fraction as percentage, e.g. 1.2k (12.5%).
+     */
+    public String format(final double VALUE, final double FRACTION, final int DECIMALS) {
+        return get(VALUE, FRACTION, KIND_VALUE | KIND_PERCENTAGE | clampDecimals(DECIMALS));
+    }
+
+    public int getCapacity() { return texts.length; }
+
+    /**
+     * Enlarges the cache so that the given number of different texts fits
+     * into it, which drops all cached texts.
+     */
+    public void ensureCapacity(final int NO_OF_TEXTS) {
+        if (NO_OF_TEXTS * 2 > texts.length) { allocate(NO_OF_TEXTS * 2); }
+    }
+
+    public void clear() {
+        Arrays.fill(kinds, 0);
+        Arrays.fill(texts, null);
+        size = 0;
+    }
+
+    // At least four slots, so that one of them is always free
+    private void allocate(final int CAPACITY) {
+        int capacity = 4;
+        while (capacity < CAPACITY) { capacity <<= 1; }
+        values    = new long[capacity];
+        fractions = new long[capacity];
+        kinds     = new int[capacity];
+        texts     = new String[capacity];
+        mask      = capacity - 1;
+        size      = 0;
+    }
+
+    private String get(final double VALUE, final double FRACTION, final int KIND) {
+        final long VALUE_BITS    = Double.doubleToLongBits(VALUE);
+        final long FRACTION_BITS = Double.doubleToLongBits(FRACTION);
+        long hash = VALUE_BITS * 0x9E3779B97F4A7C15L + FRACTION_BITS * 0xC2B2AE3D27D4EB4FL + KIND;
+        hash ^= hash >>> 29;
+        final int HASH = (int) (hash ^ (hash >>> 32));
+        int slot = HASH & mask;
+        while (0 != kinds[slot]) {
+            if (kinds[slot] == KIND && values[slot] == VALUE_BITS && fractions[slot] == FRACTION_BITS) { return texts[slot]; }
+            slot = (slot + 1) & mask;
+        }
+
+        final int DECIMALS = KIND & 0xff;
+        int length = 0;
+        if ((KIND & KIND_VALUE) != 0) { length = appendNumber(VALUE, DECIMALS, true, length); }
+        if ((KIND & KIND_PERCENTAGE) != 0) {
+            if (length > 0) {
+                buffer[length++] = ' ';
+                buffer[length++] = '(';
+            }
+            length = appendNumber(FRACTION * 100, DECIMALS, false, length);
+            buffer[length++] = '%';
+            if ((KIND & KIND_VALUE) != 0) { buffer[length++] = ')'; }
+        }
+        String text = new String(buffer, 0, length);
+        if (size >= (texts.length >> 2) * 3) {
+            clear();
+            slot = HASH & mask;
+        }
+        kinds[slot]     = KIND;
+        values[slot]    = VALUE_BITS;
+        fractions[slot] = FRACTION_BITS;
+        texts[slot]     = text;
+        size++;
+        return text;
+    }
+
+    private int appendNumber(final double NUMBER, final int DECIMALS, final boolean ABBREVIATE, final int START) {
+        if (Double.isNaN(NUMBER)) { return append("NaN", START); }
+        if (Double.isInfinite(NUMBER)) { return append(NUMBER > 0 ? "Infinity" : "-Infinity", START); }
+
+        double abs          = Math.abs(NUMBER);
+        int    abbreviation = -1;
+        if (ABBREVIATE) {
+            for (int i = THOUSANDS.length - 1 ; i >= 0 ; i--) {
+                if (abs >= THOUSANDS[i]) {
+                    abbreviation = i;
+                    break;
+                }
+            }
+        }
+        double scaled = (abbreviation < 0 ? abs : abs / THOUSANDS[abbreviation]) * POWERS_OF_TEN[DECIMALS];
+        // Numbers beyond the range of long are rare enough to be left to String.format()
+        if (scaled >= MAX_UNITS) { return append(ABBREVIATE ? Helper.format(NUMBER, DECIMALS) : String.format(Locale.US, "%." + DECIMALS + "f", NUMBER), START); }
+
+        long units    = Math.round(scaled);
+        long factor   = (long) POWERS_OF_TEN[DECIMALS];
+        long integer  = units / factor;
+        long decimals = units % factor;
+        int  length   = START;
+        if (NUMBER < 0 && units != 0) { buffer[length++] = '-'; }
+        length = appendDigits(integer, 1, length);
+        if (DECIMALS > 0) {
+            buffer[length++] = '.';
+            length = appendDigits(decimals, DECIMALS, length);
+        }
+        if (abbreviation >= 0) { length = append(Helper.ABBREVIATIONS[abbreviation], length); }
+        return length;
+    }
+
+    // Writes the digits of the given positive number, padded with leading zeros to the given width
+    private int appendDigits(final long NUMBER, final int MIN_DIGITS, final int START) {
+        int  digits = 1;
+        long rest   = NUMBER / 10;
+        while (rest > 0) {
+            digits++;
+            rest /= 10;
+        }
+        digits = Math.max(digits, MIN_DIGITS);
+        long number = NUMBER;
+        for (int i = START + digits - 1 ; i >= START ; i--) {
+            buffer[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return START + digits;
+    }
+
+    // The buffer only has to grow for numbers that are formatted by String.format()
+    private int append(final String TEXT, final int START) {
+        if (START + TEXT.length() + 48 > buffer.length) { buffer = Arrays.copyOf(buffer, START + TEXT.length() + 96); }
+        TEXT.getChars(0, TEXT.length(), buffer, START);
+        return START + TEXT.length();
+    }
+
+    private static int clampDecimals(final int DECIMALS) { return Helper.clamp(0, MAX_DECIMALS, DECIMALS); }
+}